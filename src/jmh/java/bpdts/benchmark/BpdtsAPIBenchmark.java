@@ -0,0 +1,141 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bpdts.BpdtsAPI;
+import bpdts.City;
+import bpdts.StreamingClientAPI;
+import bpdts.UserCellIndex;
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Measures the end to end queries of the BpdtsAPI against an in memory user
+ * population (either as a complete list or streamed one by one), as well as the
+ * proximity query on a prebuilt user index. Large populations need a lot of
+ * heap, the benchmark's fork is started with an extended heap accordingly.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BpdtsAPIBenchmark {
+	@Param({ "10000", "100000", "1000000", "10000000" })
+	public int userCount;
+
+	@Param({ "50" })
+	public double maxDistanceInMiles;
+
+	@Param({ "false", "true" })
+	public boolean streamed;
+
+	private BpdtsAPI api;
+	private UserCellIndex index;
+
+	/**
+	 * Offers the synthetic users one by one, like the streaming http clients do
+	 * while decoding the response.
+	 */
+	private static class StreamedUsers implements StreamingClientAPI {
+		private final SyntheticUsers users;
+
+		StreamedUsers(final SyntheticUsers users) {
+			this.users = users;
+		}
+
+		@Override
+		public ApiClient getApiClient() {
+			return users.getApiClient();
+		}
+
+		@Override
+		public UserList getUsers() {
+			return users.getUsers();
+		}
+
+		@Override
+		public UserList getCityUsers(final String city) {
+			return users.getCityUsers(city);
+		}
+
+		@Override
+		public void forEachUser(final Consumer<User> action) {
+			users.getList().forEach(action);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void prepare() throws IOException {
+		final var users = new SyntheticUsers(userCount, 3);
+		api = new BpdtsAPI(streamed ? new StreamedUsers(users) : users, "http://localhost");
+		api.setCityToCheckAgainst(new City(Path.of("src/main/resources/GreaterLondon.json")));
+		api.setMaxDistanceInMiles(maxDistanceInMiles);
+		try {
+			index = api.indexUsers();
+		} catch (ApiException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Benchmark
+	public List<User> getUsersNearCity() throws ApiException {
+		return api.getUsersNearCity();
+	}
+
+	@Benchmark
+	public List<User> indexedUsersNearCity() {
+		return index.usersNear(api.getCityToCheckAgainst(), maxDistanceInMiles);
+	}
+
+	@Benchmark
+	public List<User> getUsersOfCity() throws ApiException {
+		return api.getUsersOfCity();
+	}
+}
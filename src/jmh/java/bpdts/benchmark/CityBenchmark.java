@@ -0,0 +1,112 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bpdts.City;
+import bpdts.PerimeterFile;
+import bpdts.gen.model.UserList;
+
+/**
+ * Measures the per user and the batch distance calculations of the bundled
+ * cities, as well as the loading of their json and binary descriptions. NOTE: like the
+ * demo, the benchmark assumes it is ran from the folder where the git
+ * repository was cloned.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CityBenchmark {
+	private static final int batchSize = 10000;
+
+	@Param({ "GreaterLondon", "Jakarta" })
+	public String cityFile;
+
+	private Path cityPath;
+	private Path binaryPath;
+	private City city;
+	private UserList users;
+	private int next;
+
+	@Setup
+	public void prepare() throws IOException {
+		cityPath = Path.of("src/main/resources/" + cityFile + ".json");
+		city = new City(cityPath);
+		binaryPath = Files.createTempFile(cityFile, PerimeterFile.extension);
+		binaryPath.toFile().deleteOnExit();
+		PerimeterFile.write(city, binaryPath);
+		users = SyntheticUsers.generate(batchSize, 2);
+	}
+
+	@Benchmark
+	public double distanceOfUser() {
+		next = next + 1 == batchSize ? 0 : next + 1;
+		return city.distanceOfUser(users.get(next));
+	}
+
+	@Benchmark
+	public double distanceToPerimeter() {
+		next = next + 1 == batchSize ? 0 : next + 1;
+		return city.distanceToPerimeter(users.get(next));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(batchSize)
+	public double[] distancesOfUsers() {
+		return city.distancesOfUsers(users);
+	}
+
+	@Benchmark
+	public City loadFromJson() throws IOException {
+		return new City(cityPath);
+	}
+
+	@Benchmark
+	public City loadFromBinary() throws IOException {
+		return PerimeterFile.read(binaryPath);
+	}
+}
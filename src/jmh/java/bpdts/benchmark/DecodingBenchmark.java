@@ -0,0 +1,102 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import bpdts.City;
+import bpdts.LocatedUserAdapter;
+import bpdts.gen.JSON;
+import bpdts.gen.model.UserList;
+
+/**
+ * Compares the decoding of user lists by the generated model (with BigDecimal
+ * coordinates) and by the located user adapter, followed by a distance check of
+ * every decoded user, as this is what the queries do with them.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodingBenchmark {
+	private static final int userCount = 10000;
+
+	@Param({ "generated", "located", "precomputed" })
+	public String decoder;
+
+	private String body;
+	private Gson gson;
+	private City city;
+
+	@Setup
+	public void prepare() throws Exception {
+		body = new JSON().serialize(SyntheticUsers.generate(userCount, 3));
+		final var json = new JSON();
+		if (!"generated".equals(decoder)) {
+			LocatedUserAdapter.register(json, "precomputed".equals(decoder));
+		}
+		gson = json.getGson();
+		city = new City(Path.of("src/main/resources/GreaterLondon.json"));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(userCount)
+	public UserList decode() {
+		return gson.fromJson(body, UserList.class);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(userCount)
+	public int decodeAndCheck() {
+		final UserList users = gson.fromJson(body, UserList.class);
+		var count = 0;
+		for (final var u : users) {
+			if (city.isWithin(u, 50)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
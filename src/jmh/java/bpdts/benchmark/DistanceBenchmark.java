@@ -0,0 +1,86 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bpdts.EarthCentredCoordinates;
+import bpdts.SphericalCoordinates;
+
+/**
+ * Measures the basic point to point distance calculation, both with the
+ * coordinate objects already at hand and with the conversion from spherical
+ * coordinates included.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceBenchmark {
+	private static final int pointCount = 1024;
+	private SphericalCoordinates[] spherical;
+	private EarthCentredCoordinates[] earthCentred;
+	private int next;
+
+	@Setup
+	public void prepare() {
+		final var rnd = new Random(1);
+		spherical = new SphericalCoordinates[pointCount];
+		earthCentred = new EarthCentredCoordinates[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			spherical[i] = new SphericalCoordinates(rnd.nextDouble() * 180 - 90, rnd.nextDouble() * 360 - 180);
+			earthCentred[i] = new EarthCentredCoordinates(spherical[i]);
+		}
+	}
+
+	@Benchmark
+	public double distance() {
+		next = (next + 1) & (pointCount - 1);
+		return EarthCentredCoordinates.distance(earthCentred[next], earthCentred[(next + 1) & (pointCount - 1)]);
+	}
+
+	@Benchmark
+	public double convertAndDistance() {
+		next = (next + 1) & (pointCount - 1);
+		return EarthCentredCoordinates.distance(new EarthCentredCoordinates(spherical[next]),
+				earthCentred[(next + 1) & (pointCount - 1)]);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bpdts.DotKernel;
+import bpdts.EarthCentredCoordinates;
+import bpdts.PerimeterKDTree;
+
+/**
+ * Compares the scalar and the Vector API based min distance (max dot product)
+ * kernels on perimeters of various lengths. The vector kernel is only measured
+ * if the benchmarks are run with both the jmh and the vector profiles (e.g.,
+ * mvn -Pjmh,vector test-compile exec:exec), otherwise its results are the ones
+ * of the scalar fallback, which is reported during the setup.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DotKernelBenchmark {
+	private static final int queryCount = 1024;
+
+	@Param({ "scalar", "vector" })
+	public String kernelName;
+
+	@Param({ "16", "64", "256", "1024", "16384" })
+	public int perimeterLength;
+
+	// The distance limit of the threshold searches
+	private static final double miles = 50;
+
+	private DotKernel kernel;
+	private PerimeterKDTree tree;
+	private final double minDot = Math.cos(miles / EarthCentredCoordinates.earthRadiusMiles);
+	private final double chordSquared = PerimeterKDTree.chordSquaredOf(miles);
+	private double[] px, py, pz;
+	private double[] qx, qy, qz;
+	private int next;
+
+	private static void fill(final Random rnd, final double[] x, final double[] y, final double[] z) {
+		for (int i = 0; i < x.length; i++) {
+			final var lat = Math.toRadians(rnd.nextDouble() * 180 - 90);
+			final var lon = Math.toRadians(rnd.nextDouble() * 360 - 180);
+			x[i] = Math.cos(lat) * Math.cos(lon);
+			y[i] = Math.cos(lat) * Math.sin(lon);
+			z[i] = Math.sin(lat);
+		}
+	}
+
+	@Setup
+	public void prepare() {
+		kernel = DotKernel.select(kernelName);
+		if (!kernel.name().equals(kernelName)) {
+			System.err.println("The " + kernelName + " kernel is not available, measuring " + kernel.name());
+		}
+		final var rnd = new Random(1);
+		px = new double[perimeterLength];
+		py = new double[perimeterLength];
+		pz = new double[perimeterLength];
+		fill(rnd, px, py, pz);
+		tree = new PerimeterKDTree(px, py, pz);
+		qx = new double[queryCount];
+		qy = new double[queryCount];
+		qz = new double[queryCount];
+		fill(rnd, qx, qy, qz);
+	}
+
+	@Benchmark
+	public double maxDot() {
+		next = (next + 1) & (queryCount - 1);
+		return kernel.maxDot(px, py, pz, perimeterLength, qx[next], qy[next], qz[next]);
+	}
+
+	@Benchmark
+	public boolean anyDotAbove() {
+		next = (next + 1) & (queryCount - 1);
+		return kernel.anyDotAbove(px, py, pz, perimeterLength, qx[next], qy[next], qz[next], minDot);
+	}
+
+	/**
+	 * What the kernels are competing with on the longer perimeters, the kernel
+	 * does not matter here.
+	 */
+	@Benchmark
+	public int kdTreeNearest() {
+		next = (next + 1) & (queryCount - 1);
+		return tree.nearest(qx[next], qy[next], qz[next]);
+	}
+
+	@Benchmark
+	public boolean kdTreeAnyWithin() {
+		next = (next + 1) & (queryCount - 1);
+		return tree.anyWithin(qx[next], qy[next], qz[next], chordSquared);
+	}
+}
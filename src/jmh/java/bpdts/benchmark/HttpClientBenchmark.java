@@ -0,0 +1,114 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bpdts.AsyncClientAPI;
+import bpdts.DefaultClientAPI;
+import bpdts.HttpClientAPI;
+import bpdts.StreamingClientAPI;
+import bpdts.demo.StubUserService;
+import bpdts.gen.model.UserList;
+
+/**
+ * Compares the swagger generated okhttp client with the JDK's http client
+ * (with and without compression) against a local stub of the service.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpClientBenchmark {
+	@Param({ "okhttp", "jdk", "jdk-gzip" })
+	public String transport;
+
+	@Param({ "1000", "20000" })
+	public int userCount;
+
+	private StubUserService stub;
+	private StreamingClientAPI client;
+
+	@Setup
+	public void prepare() throws Exception {
+		stub = new StubUserService(SyntheticUsers.generate(userCount, 24), Duration.ZERO, Duration.ZERO);
+		if ("okhttp".equals(transport)) {
+			client = new DefaultClientAPI();
+		} else {
+			client = new HttpClientAPI(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build(),
+					"jdk-gzip".equals(transport), null);
+		}
+		client.getApiClient().setBasePath(stub.getBasePath());
+	}
+
+	@TearDown
+	public void stop() {
+		stub.close();
+	}
+
+	@Benchmark
+	public UserList getUsers() throws Exception {
+		return client.getUsers();
+	}
+
+	@Benchmark
+	public int streamUsers() throws Exception {
+		final var count = new int[1];
+		client.forEachUser(u -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * The all user list and one city's list requested together, as the queries
+	 * of the API do.
+	 */
+	@Benchmark
+	public int concurrentQueries() throws Exception {
+		final var async = (AsyncClientAPI) client;
+		final CompletableFuture<UserList> all = async.getUsersAsync();
+		final CompletableFuture<UserList> city = async.getCityUsersAsync(SyntheticUsers.cityNames[0]);
+		return all.get().size() + city.get().size();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.benchmark;
+
+import bpdts.InjectableClientAPI;
+import bpdts.demo.StubUserService;
+import bpdts.gen.ApiClient;
+import bpdts.gen.model.UserList;
+
+/**
+ * Generates reproducible user populations for the benchmarks and offers them
+ * through an in memory client interface, so the benchmarks measure the
+ * client's own work and not the network.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class SyntheticUsers implements InjectableClientAPI {
+	public static final String[] cityNames = StubUserService.cityNames;
+
+	private final ApiClient client = new ApiClient();
+	private final UserList users;
+
+	/**
+	 * Creates a population where most users are scattered around the British Isles
+	 * and the rest all over the globe.
+	 * 
+	 * @param count The number of users to generate
+	 * @param seed  The seed of the random generator
+	 */
+	public SyntheticUsers(final int count, final long seed) {
+		users = generate(count, seed);
+	}
+
+	/**
+	 * Generates a population where most users are scattered around the British
+	 * Isles and the rest all over the globe.
+	 * 
+	 * @param count The number of users to generate
+	 * @param seed  The seed of the random generator
+	 * @return The generated population
+	 */
+	public static UserList generate(final int count, final long seed) {
+		return StubUserService.generate(count, seed, 0);
+	}
+
+	public UserList getList() {
+		return users;
+	}
+
+	@Override
+	public ApiClient getApiClient() {
+		return client;
+	}
+
+	@Override
+	public UserList getUsers() {
+		return users;
+	}
+
+	@Override
+	public UserList getCityUsers(final String city) {
+		final var cityUsers = new UserList();
+		users.stream().filter(u -> city.equals(u.getCity())).forEach(cityUsers::add);
+		return cityUsers;
+	}
+}
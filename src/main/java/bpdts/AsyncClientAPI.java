@@ -0,0 +1,96 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import bpdts.gen.ApiCallback;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.UserList;
+
+/**
+ * Client interfaces implementing this extension are able to send their
+ * requests without blocking the caller. This allows the BpdtsAPI to have
+ * independent requests in flight at the same time.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface AsyncClientAPI extends InjectableClientAPI {
+	/**
+	 * Initiates an asynchronous service call to get all users listed in the
+	 * database.
+	 * 
+	 * @return The future that completes with all users in the db, or
+	 *         exceptionally with an ApiException if there was a network
+	 *         connectivity issue.
+	 */
+	CompletableFuture<UserList> getUsersAsync();
+
+	/**
+	 * Initiates an asynchronous service call to get all users listed to reside in
+	 * a particular city.
+	 * 
+	 * @param city The name of the city for which we are looking for its citizens.
+	 * @return The future that completes with the citizens of the city, or
+	 *         exceptionally with an ApiException if there was a network
+	 *         connectivity issue.
+	 */
+	CompletableFuture<UserList> getCityUsersAsync(String city);
+
+	/**
+	 * Bridges the callbacks of the swagger generated client and the completable
+	 * futures of this interface.
+	 * 
+	 * @author Gabor Kecskemeti
+	 * 
+	 * @param <T> The type of the expected result
+	 */
+	class FutureCallback<T> implements ApiCallback<T> {
+		public final CompletableFuture<T> future = new CompletableFuture<>();
+
+		@Override
+		public void onFailure(final ApiException e, final int statusCode,
+				final Map<String, List<String>> responseHeaders) {
+			future.completeExceptionally(e);
+		}
+
+		@Override
+		public void onSuccess(final T result, final int statusCode, final Map<String, List<String>> responseHeaders) {
+			future.complete(result);
+		}
+
+		@Override
+		public void onUploadProgress(final long bytesWritten, final long contentLength, final boolean done) {
+			// Not interested
+		}
+
+		@Override
+		public void onDownloadProgress(final long bytesRead, final long contentLength, final boolean done) {
+			// Not interested
+		}
+	}
+}
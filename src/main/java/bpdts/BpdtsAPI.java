@@ -24,16 +24,23 @@
 package bpdts;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import bpdts.gen.ApiException;
 import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
 
 /**
  * 
@@ -52,19 +59,41 @@ import bpdts.gen.model.User;
  * city. See: {@link BpdtsAPI#getUsersNearCity()}</li>
  * </ol>
  * 
+ * The nearby users can also be tracked in a synchronising mode which only
+ * reclassifies the users who changed since the previous poll. See:
+ * {@link BpdtsAPI#synchronise()}
+ * 
+ * Both have multi city variants that evaluate several cities in a single pass
+ * over the user list. See: {@link BpdtsAPI#getUsersOfCities(Collection)} and
+ * {@link BpdtsAPI#getUsersNearCities(Map)}
+ * 
+ * The individual user lookups run on their own threads, these are stopped by
+ * {@link BpdtsAPI#close()}.
+ * 
  * @author Gabor Kecskemeti
  *
  */
-public class BpdtsAPI {
+public class BpdtsAPI implements AutoCloseable {
+	// The query names used in the metrics
+	public static final String usersOfCityQuery = "getUsersOfCity";
+	public static final String usersNearCityQuery = "getUsersNearCity";
+
 	// Internal state:
 	private City cityToCheckAgainst;
 	private double maxDistanceInMiles;
 	private final InjectableClientAPI api;
+	private final UserDeltaSync deltaSync;
+	// Measurements are only taken if a listener is set
+	private volatile MetricsListener metrics = MetricsListener.none;
+	private MetricsInterceptor metricsInterceptor;
+	// Only created when the first bulk lookup is requested
+	private BulkUserLookup bulkLookup;
+
+	// The unit vectors of the users in the last snapshot the distance filter saw
+	private volatile UserLocationCache userLocations = new UserLocationCache();
 
-	// Filtering techniques for acceptable users in streams, first for citizenship,
-	// then for distance
+	// Filtering technique for acceptable users in streams based on citizenship
 	private final Predicate<User> nameChecker = u -> (cityToCheckAgainst.userBelongsToCity(u) == Belonging.CITIZEN);
-	private final Predicate<User> distanceChecker = u -> (cityToCheckAgainst.distanceOfUser(u) < maxDistanceInMiles);
 
 	/**
 	 * Allows the API to interface with arbitrary service client interfaces and
@@ -76,6 +105,7 @@ public class BpdtsAPI {
 	public BpdtsAPI(final InjectableClientAPI api, final String basePath) {
 		api.getApiClient().setBasePath(basePath);
 		this.api = api;
+		this.deltaSync = new UserDeltaSync(api);
 	}
 
 	/**
@@ -125,23 +155,59 @@ public class BpdtsAPI {
 		this.maxDistanceInMiles = maxDistanceInMiles;
 	}
 
+	/**
+	 * Allows the hot paths of the API to be measured: the http requests (if the
+	 * client interface uses the swagger generated http client), the decoding of
+	 * the streamed user lists (if the client interface is a
+	 * {@link DefaultClientAPI}; an {@link HttpClientAPI} measures both on its own)
+	 * and the filtering of the users by the single city queries. Without a
+	 * listener nothing is measured.
+	 * 
+	 * @param listener Where to report the measurements, null disables them
+	 */
+	public synchronized void setMetricsListener(final MetricsListener listener) {
+		metrics = listener == null ? MetricsListener.none : listener;
+		final var client = api.getApiClient();
+		final var http = client == null ? null : client.getHttpClient();
+		if (http != null) {
+			if (metricsInterceptor != null) {
+				http.interceptors().remove(metricsInterceptor);
+				metricsInterceptor = null;
+			}
+			if (metrics != MetricsListener.none) {
+				metricsInterceptor = new MetricsInterceptor(metrics);
+				http.interceptors().add(metricsInterceptor);
+			}
+		}
+		if (api instanceof DefaultClientAPI) {
+			((DefaultClientAPI) api).setMetricsListener(metrics);
+		} else if (api instanceof HttpClientAPI) {
+			((HttpClientAPI) api).setMetricsListener(metrics);
+		}
+	}
+
+	/**
+	 * Allows querying where the measurements are reported.
+	 * 
+	 * @return The listener set, or {@link MetricsListener#none}
+	 */
+	public MetricsListener getMetricsListener() {
+		return metrics;
+	}
+
 	/**
 	 * Helper function that allows customisable filtering actions to be executed
 	 * around basic exception and collection management.
 	 * 
-	 * @param action The actual task to do which will populate a hashset based on
-	 *               its own criteria. Note a hashset is used so it does not allow
+	 * @param query  The name of the query for the metrics
+	 * @param action The actual task to do which will populate a user container
+	 *               based on its own criteria. Note the container does not allow
 	 *               the same user to be listed multiple times.
 	 * @return The list of users who meet the criteria
 	 * @throws ApiException In case of networking issues
 	 */
-	private List<User> doFiltering(final Consumer<Set<User>> action) throws ApiException {
-		var filtered = new TreeSet<User>(new Comparator<User>() {
-			@Override
-			public int compare(User u0, User u1) {
-				return Integer.compare(u0.getId(), u1.getId());
-			}
-		});
+	private List<User> doFiltering(final String query, final Consumer<UserIdSet> action) throws ApiException {
+		var filtered = new UserIdSet();
 		if (cityToCheckAgainst != null) {
 			try {
 				action.accept(filtered);
@@ -154,33 +220,114 @@ public class BpdtsAPI {
 				throw rex;
 			}
 		}
-		return Collections.unmodifiableList(new ArrayList<>(filtered));
+		metrics.resultSize(query, filtered.size());
+		return filtered.toList();
 	}
 
 	/**
 	 * Helper method to allow customisable filtering of user lists returned by the
 	 * service.
 	 * 
-	 * @param filtered The set that contains the users from all users who match the
+	 * @param filtered The container of the users from all users who match the
 	 *                 specified criterion
 	 * @param checker  What filtering condition should we use to determine what
-	 *                 users should be added to the filtered set
+	 *                 users should be added to the filtered container
+	 * @param query    The name of the query for the metrics
+	 * @param prepare  What to do with the users before they are filtered
+	 *                 (called with the complete list, or with each batch if the
+	 *                 list is streamed)
+	 * @throws ApiException In case of networking issues.
+	 */
+	private void userStreamFilter(final UserIdSet filtered, final Predicate<User> checker, final String query,
+			final Consumer<UserList> prepare) throws ApiException {
+		final var m = metrics;
+		if (m != MetricsListener.none) {
+			final var evaluations = new LongAdder();
+			final var nanos = new LongAdder();
+			try {
+				userStreamFilter(filtered, u -> {
+					final var before = System.nanoTime();
+					final var result = checker.test(u);
+					nanos.add(System.nanoTime() - before);
+					evaluations.increment();
+					return result;
+				}, m, prepare);
+			} finally {
+				m.predicateEvaluations(query, evaluations.sum(), nanos.sum());
+			}
+		} else {
+			userStreamFilter(filtered, checker, m, prepare);
+		}
+	}
+
+	private void userStreamFilter(final UserIdSet filtered, final Predicate<User> checker, final MetricsListener m,
+			final Consumer<UserList> prepare) throws ApiException {
+		if (api instanceof StreamingClientAPI) {
+			// The list is decoded in batches and each batch is filtered (in parallel)
+			// before the next one is decoded, so besides the matching users only a
+			// single batch is kept in memory
+			final var batch = new UserList();
+			((StreamingClientAPI) api).forEachUser(u -> {
+				batch.add(u);
+				if (batch.size() == City.parallelBatchThreshold) {
+					filterBatch(filtered, checker, batch, prepare);
+					batch.clear();
+				}
+			});
+			filterBatch(filtered, checker, batch, prepare);
+			return;
+		}
+		final var before = m == MetricsListener.none ? 0 : System.nanoTime();
+		final var allUsers = api.getUsers();
+		if (m != MetricsListener.none) {
+			// The generated client receives and decodes the list in one go
+			m.usersDecoded(allUsers.size(), System.nanoTime() - before);
+		}
+		filterBatch(filtered, checker, allUsers, prepare);
+	}
+
+	/**
+	 * Filters a part of (or the complete) user list.
+	 */
+	private static void filterBatch(final UserIdSet filtered, final Predicate<User> checker, final UserList users,
+			final Consumer<UserList> prepare) {
+		prepare.accept(users);
+		var userStream = users.stream();
+		if (users.size() >= City.parallelBatchThreshold) {
+			// The work is split amongst the users, the container is only populated
+			// afterwards
+			userStream = userStream.parallel();
+		}
+		userStream.filter(checker).collect(Collectors.toList()).forEach(filtered::add);
+	}
+
+	/**
+	 * Passes all users of the service to the action. The list is streamed if the
+	 * client interface supports it.
+	 * 
+	 * @param action What to do with each user
 	 * @throws ApiException In case of networking issues.
 	 */
-	private void userStreamFilter(final Set<User> filtered, final Predicate<User> checker) throws ApiException {
-		api.getUsers().stream().filter(checker).forEach(filtered::add);
+	private void forEachUser(final Consumer<User> action) throws ApiException {
+		if (api instanceof StreamingClientAPI) {
+			((StreamingClientAPI) api).forEachUser(action);
+		} else {
+			api.getUsers().forEach(action);
+		}
 	}
 
 	/**
 	 * A filtering action that focuses on the city field of users and tries to match
 	 * it against the city name in the internal state
 	 * 
-	 * @param filtered The set of users to populate based on the filtering condition
+	 * @param filtered The container of users to populate based on the filtering
+	 *                 condition
 	 */
-	private void usersOfCity(final Set<User> filtered) {
+	private void usersOfCity(final UserIdSet filtered) {
 		try {
 			filtered.addAll(api.getCityUsers(cityToCheckAgainst.name));
-			userStreamFilter(filtered, nameChecker);
+			userStreamFilter(filtered, nameChecker, usersOfCityQuery, allUsers -> {
+			});
 		} catch (ApiException ae) {
 			throw new RuntimeException(ae);
 		}
@@ -188,16 +335,44 @@ public class BpdtsAPI {
 
 	/**
 	 * A filtering action that focuses on the distance between the city's perimeter
-	 * and the user's current location.
+	 * and the user's current location. The unit vectors of the users in the
+	 * city's extended bounding box are cached between the queries, so only the
+	 * new and the moved users around the city need trigonometry. The users
+	 * outside of the box are rejected without a vector or a cache entry.
 	 * 
-	 * @param filtered The set of users to populate based on the filtering condition
+	 * @param filtered The container of users to populate based on the filtering
+	 *                 condition
 	 */
-	private void usersAround(final Set<User> filtered) {
+	private void usersAround(final UserIdSet filtered) {
+		final var locations = new UserLocationCache(userLocations);
+		final var city = cityToCheckAgainst;
+		final var miles = maxDistanceInMiles;
+		// The cache is populated before the (potentially parallel) filtering of
+		// every batch
+		final Consumer<UserList> prepare = users -> locations.addAll(users,
+				u -> city.mayBeWithin(LocatedUser.latitudeOrNaN(u), LocatedUser.longitudeOrNaN(u), miles));
+		final Predicate<User> checker = u -> isNear(u, locations, locations.indexOf(u));
 		try {
-			userStreamFilter(filtered, distanceChecker);
+			userStreamFilter(filtered, checker, usersNearCityQuery, prepare);
 		} catch (ApiException ae) {
 			throw new RuntimeException(ae);
 		}
+		locations.complete();
+		userLocations = locations;
+	}
+
+	/**
+	 * The distance filter of the users.
+	 * 
+	 * @param u         The user to check
+	 * @param locations The cache of the users' unit vectors
+	 * @param entry     The user's position in the cache, if negative the user is
+	 *                  checked without the cache
+	 * @return true if the user is within the distance limit of the city
+	 */
+	private boolean isNear(final User u, final UserLocationCache locations, final int entry) {
+		return entry < 0 ? cityToCheckAgainst.isWithin(u, maxDistanceInMiles)
+				: cityToCheckAgainst.isWithin(locations, entry, maxDistanceInMiles);
 	}
 
 	/**
@@ -213,7 +388,7 @@ public class BpdtsAPI {
 	 * @throws ApiException If there was a networking error.
 	 */
 	public List<User> getUsersOfCity() throws ApiException {
-		return doFiltering(this::usersOfCity);
+		return doFiltering(usersOfCityQuery, this::usersOfCity);
 	}
 
 	/***
@@ -227,11 +402,281 @@ public class BpdtsAPI {
 	 * generated api to the external service (located at the url specified during
 	 * the API's instantiation).
 	 * 
-	 * @return The list of users who are within the specified miles to the perimeter
-	 *         of the specified city.
+	 * @return The list of users who are inside the specified city or within the
+	 *         specified miles to its perimeter.
 	 * @throws ApiException In case network errors occur.
 	 */
 	public List<User> getUsersNearCity() throws ApiException {
-		return doFiltering(this::usersAround);
+		return doFiltering(usersNearCityQuery, this::usersAround);
+	}
+
+	/**
+	 * The non-blocking variant of {@link #getUsersOfCity()}. The city's citizen
+	 * list and the complete user list are requested at the same time, and the
+	 * results are merged once both arrived. The city is the one set up at the time
+	 * of the call, later changes do not affect the returned future.
+	 * 
+	 * @return The future that completes with the list of users who belong to the
+	 *         city, or exceptionally with an ApiException (wrapped in a
+	 *         CompletionException) if there was a networking error.
+	 */
+	public CompletableFuture<List<User>> getUsersOfCityAsync() {
+		final var city = cityToCheckAgainst;
+		if (city == null) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		final var query = new CityQuery(city, maxDistanceInMiles);
+		return cityUsersAsync(city.name).thenCombine(usersAsync(), query::citizens);
+	}
+
+	/**
+	 * The non-blocking variant of {@link #getUsersNearCity()}. The city and the
+	 * distance are the ones set up at the time of the call, later changes do not
+	 * affect the returned future.
+	 * 
+	 * @return The future that completes with the list of users who are within the
+	 *         specified miles to the perimeter of the specified city, or
+	 *         exceptionally with an ApiException (wrapped in a
+	 *         CompletionException) if there was a networking error.
+	 */
+	public CompletableFuture<List<User>> getUsersNearCityAsync() {
+		if (cityToCheckAgainst == null) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		final var query = new CityQuery(cityToCheckAgainst, maxDistanceInMiles);
+		return usersAsync().thenApply(query::nearby);
+	}
+
+	/**
+	 * Requests the complete user list without blocking. If the client interface
+	 * cannot do this on its own, the synchronous call is done on another thread.
+	 * 
+	 * @return The future of the user list
+	 */
+	private CompletableFuture<UserList> usersAsync() {
+		if (api instanceof AsyncClientAPI) {
+			return ((AsyncClientAPI) api).getUsersAsync();
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return api.getUsers();
+			} catch (ApiException ae) {
+				throw new CompletionException(ae);
+			}
+		});
+	}
+
+	/**
+	 * Requests the citizens of a city without blocking. If the client interface
+	 * cannot do this on its own, the synchronous call is done on another thread.
+	 * 
+	 * @param city The name of the city
+	 * @return The future of the citizen list
+	 */
+	private CompletableFuture<UserList> cityUsersAsync(final String city) {
+		if (api instanceof AsyncClientAPI) {
+			return ((AsyncClientAPI) api).getCityUsersAsync(city);
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return api.getCityUsers(city);
+			} catch (ApiException ae) {
+				throw new CompletionException(ae);
+			}
+		});
+	}
+
+	/**
+	 * The synchronising mode of the API. Polls the service for all users and
+	 * compares the response with the snapshot of the previous poll. Only the new
+	 * and changed users are classified against the city (and the distance) set up
+	 * at the time of the call, and the listeners get notified about the users who
+	 * entered or left the set of citizens or the set of nearby users. The first
+	 * poll, as well as the first one after the city or the distance changed,
+	 * classifies all users.
+	 * 
+	 * @return The number of users who are new, changed or no longer listed since
+	 *         the previous poll
+	 * @throws ApiException In case network errors occur.
+	 */
+	public int synchronise() throws ApiException {
+		return deltaSync.synchronise(cityToCheckAgainst, maxDistanceInMiles);
+	}
+
+	/**
+	 * Allows subscribing to the events of the synchronising mode, see
+	 * {@link #synchronise()}.
+	 * 
+	 * @param l The listener to notify about the users who entered or left the sets
+	 */
+	public void addUserDeltaListener(final UserDeltaListener l) {
+		deltaSync.addListener(l);
+	}
+
+	/**
+	 * Cancels the subscription of a listener of the synchronising mode.
+	 * 
+	 * @param l The listener not to notify anymore
+	 */
+	public void removeUserDeltaListener(final UserDeltaListener l) {
+		deltaSync.removeListener(l);
+	}
+
+	/**
+	 * The synchronising variant of {@link #getUsersOfCity()}, it does not contact
+	 * the service.
+	 * 
+	 * @return The users who belonged to the city at the latest
+	 *         {@link #synchronise()} call
+	 */
+	public List<User> getSynchronisedUsersOfCity() {
+		return deltaSync.getCitizens();
+	}
+
+	/**
+	 * The synchronising variant of {@link #getUsersNearCity()}, it does not
+	 * contact the service.
+	 * 
+	 * @return The users who were in the city or close to it at the latest
+	 *         {@link #synchronise()} call
+	 */
+	public List<User> getSynchronisedUsersNearCity() {
+		return deltaSync.getNearbyUsers();
+	}
+
+	/**
+	 * Looks up the specified users. If the client interface is able to look up
+	 * individual users, then only the specified users are requested (with the
+	 * settings of {@link BulkUserLookup}), otherwise the complete user list is
+	 * downloaded and filtered.
+	 * 
+	 * @param ids The ids of the users to look for
+	 * @return The users found, ordered by their ids. The ids unknown to the
+	 *         service are omitted.
+	 * @throws ApiException In case network errors occur.
+	 */
+	public List<User> getUsers(final Collection<Integer> ids) throws ApiException {
+		if (api instanceof UserLookupClientAPI) {
+			return bulkLookup().getUsers(ids);
+		}
+		final var wanted = new HashSet<>(ids);
+		final var found = new UserIdSet();
+		forEachUser(u -> {
+			if (wanted.contains(u.getId())) {
+				found.add(u);
+			}
+		});
+		return found.toList();
+	}
+
+	private synchronized BulkUserLookup bulkLookup() {
+		if (bulkLookup == null) {
+			bulkLookup = new BulkUserLookup((UserLookupClientAPI) api);
+		}
+		return bulkLookup;
+	}
+
+	/**
+	 * Stops the worker threads of the bulk lookups (if there were any). The API
+	 * remains usable, a later bulk lookup starts new workers.
+	 */
+	@Override
+	public synchronized void close() {
+		if (bulkLookup != null) {
+			bulkLookup.close();
+			bulkLookup = null;
+		}
+	}
+
+	/**
+	 * Downloads the complete user list and builds a spatial index over it. This
+	 * is worth it when the same snapshot of users needs to be queried for many
+	 * cities or distances, as the index answers each proximity query by only
+	 * looking at the users around the city.
+	 * 
+	 * @return The index over the current users of the service
+	 * @throws ApiException In case network errors occur.
+	 */
+	public UserCellIndex indexUsers() throws ApiException {
+		final var snapshot = new ArrayList<User>();
+		forEachUser(snapshot::add);
+		return new UserCellIndex(snapshot);
+	}
+
+	/**
+	 * The multi city variant of {@link #getUsersOfCity()}. The city specified with
+	 * {@link #setCityToCheckAgainst(City)} is not used here, instead all users are
+	 * classified against all the specified cities in a single pass over the user
+	 * list (which is thus only downloaded once). If the client interface can send
+	 * asynchronous requests, the citizen lists of all cities are requested at
+	 * once.
+	 * 
+	 * @param cities The cities to look for citizens of
+	 * @return The list of users who belong to each city.
+	 * @throws ApiException If there was a networking error.
+	 */
+	public Map<City, List<User>> getUsersOfCities(final Collection<City> cities) throws ApiException {
+		final var listings = new HashMap<String, CompletableFuture<UserList>>();
+		if (api instanceof AsyncClientAPI) {
+			final var asyncApi = (AsyncClientAPI) api;
+			cities.forEach(city -> listings.computeIfAbsent(city.name, asyncApi::getCityUsersAsync));
+		}
+		final var results = new LinkedHashMap<City, UserIdSet>();
+		final var byName = new HashMap<String, List<UserIdSet>>();
+		for (final var city : cities) {
+			final var filtered = new UserIdSet();
+			final var listing = listings.get(city.name);
+			filtered.addAll(listing == null ? api.getCityUsers(city.name) : CoalescingClientAPI.await(listing));
+			results.put(city, filtered);
+			byName.computeIfAbsent(city.name, n -> new ArrayList<>()).add(filtered);
+		}
+		forEachUser(u -> {
+			final var usersCity = u.getCity();
+			if (usersCity != null) {
+				final var containers = byName.get(usersCity);
+				if (containers != null) {
+					containers.forEach(filtered -> filtered.add(u));
+				}
+			}
+		});
+		return toResultMap(results);
+	}
+
+	/**
+	 * The multi city variant of {@link #getUsersNearCity()}. The city and distance
+	 * specified with the setters are not used here. Instead, every user is
+	 * classified against the specified cities in a single pass over the user list,
+	 * using a spatial index over the cities' bounding boxes. Thus the cost grows
+	 * with the number of users and not with the number of users times the number
+	 * of cities.
+	 * 
+	 * @param maxDistancesInMiles The cities to look for nearby users of, each with
+	 *                            the farthest distance that should be still
+	 *                            considered close to it.
+	 * @return The list of users who are within the specified miles to the
+	 *         perimeter of each city.
+	 * @throws ApiException In case network errors occur.
+	 */
+	public Map<City, List<User>> getUsersNearCities(final Map<City, Double> maxDistancesInMiles)
+			throws ApiException {
+		final var results = new LinkedHashMap<City, UserIdSet>();
+		maxDistancesInMiles.keySet().forEach(city -> results.put(city, new UserIdSet()));
+		final var index = new CityProximityIndex(maxDistancesInMiles);
+		forEachUser(u -> index.forEachNear(LocatedUser.latitudeOf(u), LocatedUser.longitudeOf(u),
+				city -> results.get(city).add(u)));
+		return toResultMap(results);
+	}
+
+	/**
+	 * Turns the per city containers of the multi city queries to the unmodifiable
+	 * lists the API offers to its users.
+	 * 
+	 * @param results The per city containers of users
+	 * @return The per city lists of users (in the order the cities were specified)
+	 */
+	private static Map<City, List<User>> toResultMap(final Map<City, UserIdSet> results) {
+		final var converted = new LinkedHashMap<City, List<User>>();
+		results.forEach((city, users) -> converted.put(city, users.toList()));
+		return Collections.unmodifiableMap(converted);
 	}
 }
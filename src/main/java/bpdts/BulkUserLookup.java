@@ -0,0 +1,227 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+
+/**
+ * Looks up many users by their ids through the single user endpoint of the
+ * service. The lookups are done in parallel, but never more at once than the
+ * configured concurrency. Transient failures (networking issues, overloaded
+ * service) are retried with exponential backoff, and the lookups of the same
+ * id that are in flight at the same time (e.g., requested by different
+ * threads) are combined to a single request. The retries wait for their
+ * backoff without occupying a worker thread.
+ * 
+ * The worker threads are released when they are idle for a while, or
+ * right away when the lookup is closed.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class BulkUserLookup implements AutoCloseable {
+	public static final int defaultConcurrency = 8;
+	public static final int defaultAttempts = 3;
+	public static final Duration defaultBackoff = Duration.ofMillis(100);
+	// The doubling of the backoff stops here (unless the first backoff is longer)
+	public static final Duration maxBackoff = Duration.ofMinutes(1);
+	public static final Duration idleThreadTimeout = Duration.ofSeconds(30);
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final UserLookupClientAPI api;
+	private final int maxAttempts;
+	private final long backoffMillis;
+	// Its size bounds the number of lookups in flight
+	private final ExecutorService workers;
+	private final InFlightRequests<Integer, User> inFlight = new InFlightRequests<>();
+
+	/**
+	 * Creates a lookup with the default concurrency and retry settings.
+	 * 
+	 * @param api The client service interface to query the users with
+	 */
+	public BulkUserLookup(final UserLookupClientAPI api) {
+		this(api, defaultConcurrency, defaultAttempts, defaultBackoff);
+	}
+
+	/**
+	 * Creates a lookup with custom concurrency and retry settings.
+	 * 
+	 * @param api         The client service interface to query the users with
+	 * @param concurrency The maximum number of lookups in flight
+	 * @param attempts    The maximum number of times a single user is requested
+	 * @param backoff     The wait before the first retry, it doubles with every
+	 *                    further retry until it reaches {@link #maxBackoff}
+	 * @throws IllegalArgumentException If the concurrency or the attempts are not
+	 *                                  positive, or the backoff is negative
+	 */
+	public BulkUserLookup(final UserLookupClientAPI api, final int concurrency, final int attempts,
+			final Duration backoff) {
+		if (concurrency < 1 || attempts < 1 || backoff.isNegative()) {
+			throw new IllegalArgumentException("Concurrency and attempts must be positive, backoff cannot be negative");
+		}
+		this.api = api;
+		this.maxAttempts = attempts;
+		this.backoffMillis = backoff.toMillis();
+		final var poolId = poolCount.incrementAndGet();
+		final var threadCount = new AtomicInteger();
+		final var pool = new ThreadPoolExecutor(concurrency, concurrency, idleThreadTimeout.toNanos(),
+				TimeUnit.NANOSECONDS, new LinkedBlockingQueue<>(), r -> {
+					final var t = new Thread(r, "bpdts-lookup-" + poolId + "-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		this.workers = pool;
+	}
+
+	/**
+	 * Looks up all the specified users. Blocks until all lookups are done.
+	 * 
+	 * @param ids The ids of the users to look for, duplicates are only requested
+	 *            once
+	 * @return The users found, ordered by their ids. The ids unknown to the
+	 *         service are omitted.
+	 * @throws ApiException If any of the lookups failed even after the retries
+	 */
+	public List<User> getUsers(final Collection<Integer> ids) throws ApiException {
+		final var lookups = new ArrayList<CompletableFuture<User>>();
+		for (final var id : new LinkedHashSet<>(ids)) {
+			lookups.add(inFlight.request(id, this::lookup));
+		}
+		final var found = new UserIdSet();
+		ApiException failure = null;
+		for (final var lookup : lookups) {
+			try {
+				final var u = lookup.join();
+				if (u != null) {
+					found.add(u);
+				}
+			} catch (CompletionException ce) {
+				if (failure == null) {
+					failure = ce.getCause() instanceof ApiException ? (ApiException) ce.getCause()
+							: new ApiException(ce.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return found.toList();
+	}
+
+	private CompletableFuture<User> lookup(final Integer id) {
+		return attempt(id, 1);
+	}
+
+	/**
+	 * Requests a single user on the workers. The transient failures are retried
+	 * after the backoff, the waiting does not occupy a worker.
+	 * 
+	 * @param id      The id of the user
+	 * @param attempt The number of the attempt (starting from 1)
+	 * @return The future of the user, it completes with null if the service does
+	 *         not know it
+	 */
+	private CompletableFuture<User> attempt(final int id, final int attempt) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return api.getUser(id);
+			} catch (ApiException ae) {
+				throw new CompletionException(ae);
+			}
+		}, workers).exceptionallyCompose(t -> {
+			final var cause = t instanceof CompletionException ? t.getCause() : t;
+			if (cause instanceof ApiException) {
+				final var ae = (ApiException) cause;
+				if (ae.getCode() == 404) {
+					return CompletableFuture.completedFuture(null);
+				}
+				if (attempt < maxAttempts && isTransient(ae)) {
+					final var backoff = CompletableFuture.delayedExecutor(retryDelay(backoffMillis, attempt),
+							TimeUnit.MILLISECONDS);
+					return CompletableFuture.supplyAsync(() -> attempt, backoff)
+							.thenCompose(previous -> attempt(id, previous + 1));
+				}
+			}
+			return CompletableFuture.failedFuture(cause);
+		});
+	}
+
+	/**
+	 * Doubles the first backoff for every failed attempt without overflowing.
+	 * 
+	 * @param firstMillis The wait before the first retry
+	 * @param attempt     The number of the attempt that failed (starting from 1)
+	 * @return The wait before the next attempt, at most the larger of the first
+	 *         backoff and {@link #maxBackoff}
+	 */
+	static long retryDelay(final long firstMillis, final int attempt) {
+		if (firstMillis == 0) {
+			return 0;
+		}
+		final var limit = Math.max(firstMillis, maxBackoff.toMillis());
+		final var shift = attempt - 1;
+		// Shifting further would push bits into the sign or out of the long
+		if (shift >= Long.numberOfLeadingZeros(firstMillis) - 1) {
+			return limit;
+		}
+		return Math.min(firstMillis << shift, limit);
+	}
+
+	/**
+	 * Determines if a failed request is worth retrying.
+	 * 
+	 * @param ae The failure
+	 * @return true for networking issues (no status code), too many requests and
+	 *         server side errors
+	 */
+	public static boolean isTransient(final ApiException ae) {
+		final var code = ae.getCode();
+		return code == 0 || code == 429 || code >= 500;
+	}
+
+	/**
+	 * Stops the worker threads once they are done with the requests already
+	 * sent. Further lookups (and the retries of the ones in progress) fail.
+	 */
+	@Override
+	public void close() {
+		workers.shutdown();
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+import com.google.gson.reflect.TypeToken;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.Pair;
+import bpdts.gen.model.UserList;
+
+/**
+ * A decorator for other client interfaces that keeps the user lists returned
+ * by the service for a configurable amount of time. Repeated queries within
+ * this time window are served from memory, without network traffic or json
+ * parsing. Once an entry expires, it is either fetched again through the
+ * decorated interface, or (if conditional requests are enabled) revalidated
+ * with the ETag/Last-Modified details the service sent with it. In the latter
+ * case an unchanged list costs a single bodyless response.
+ * 
+ * The lists are fetched without holding the cache's lock, so a slow fetch of
+ * one list does not hold up the queries for the others. Concurrent queries for
+ * the same expired list share a single fetch.
+ * 
+ * Note: the returned lists are shared between the callers and thus should not
+ * be modified.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class CachingClientAPI implements InjectableClientAPI {
+	private static final Type userListType = new TypeToken<UserList>() {
+	}.getType();
+	private static final String usersPath = "/users";
+
+	private final InjectableClientAPI delegate;
+	private final long ttlNanos;
+	private final boolean conditionalRequests;
+	private final LongSupplier clock;
+	// The complete user list and the per city lists (in least recently used order)
+	private volatile CacheEntry allUsers;
+	private final LinkedHashMap<String, CacheEntry> cityUsers;
+	// The expired lists being fetched, keyed by their path
+	private final InFlightRequests<String, CacheEntry> fetching = new InFlightRequests<>();
+
+	/**
+	 * Represents a single user list received from the service with the details
+	 * necessary for its revalidation.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	private static class CacheEntry {
+		final UserList users;
+		final long fetchedAt;
+		final String etag, lastModified;
+
+		CacheEntry(final UserList users, final long fetchedAt, final String etag, final String lastModified) {
+			this.users = users;
+			this.fetchedAt = fetchedAt;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Creates a caching decorator that always fetches the expired entries through
+	 * the decorated interface.
+	 * 
+	 * @param delegate       The client interface to decorate
+	 * @param ttl            How long the received lists are considered fresh
+	 * @param maxCityEntries How many per city lists are kept at most
+	 */
+	public CachingClientAPI(final InjectableClientAPI delegate, final Duration ttl, final int maxCityEntries) {
+		this(delegate, ttl, maxCityEntries, false, System::nanoTime);
+	}
+
+	/**
+	 * Creates a caching decorator with full control over its behaviour.
+	 * 
+	 * @param delegate            The client interface to decorate
+	 * @param ttl                 How long the received lists are considered fresh
+	 * @param maxCityEntries      How many per city lists are kept at most
+	 * @param conditionalRequests If true, the lists are fetched directly through
+	 *                            the delegate's ApiClient so their validators are
+	 *                            known, and expired lists are revalidated with
+	 *                            conditional GET requests.
+	 * @param clock               The source of time in nanoseconds (allows testing
+	 *                            without waiting)
+	 */
+	public CachingClientAPI(final InjectableClientAPI delegate, final Duration ttl, final int maxCityEntries,
+			final boolean conditionalRequests, final LongSupplier clock) {
+		if (maxCityEntries < 0) {
+			throw new IllegalArgumentException("The number of cached cities cannot be negative");
+		}
+		this.delegate = delegate;
+		this.ttlNanos = ttl.toNanos();
+		this.conditionalRequests = conditionalRequests;
+		this.clock = clock;
+		this.cityUsers = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxCityEntries;
+			}
+		};
+	}
+
+	/**
+	 * The cache does not do HTTP communication on its own, so this returns the
+	 * decorated interface's ApiClient.
+	 * 
+	 * @see InjectableClientAPI#getApiClient()
+	 */
+	@Override
+	public ApiClient getApiClient() {
+		return delegate.getApiClient();
+	}
+
+	/**
+	 * Serves the complete user list from the cache if it is still fresh.
+	 * 
+	 * @see InjectableClientAPI#getUsers()
+	 */
+	@Override
+	public UserList getUsers() throws ApiException {
+		final var entry = allUsers;
+		if (isFresh(entry)) {
+			return entry.users;
+		}
+		final var fetched = fetch(entry, usersPath, null);
+		synchronized (this) {
+			if (allUsers == null || allUsers.fetchedAt < fetched.fetchedAt) {
+				allUsers = fetched;
+			}
+		}
+		return fetched.users;
+	}
+
+	/**
+	 * Serves the city's user list from the cache if it is still fresh.
+	 * 
+	 * @see InjectableClientAPI#getCityUsers(String)
+	 */
+	@Override
+	public UserList getCityUsers(final String city) throws ApiException {
+		final CacheEntry entry;
+		synchronized (this) {
+			entry = cityUsers.get(city);
+		}
+		if (isFresh(entry)) {
+			return entry.users;
+		}
+		final var fetched = fetch(entry, null, city);
+		synchronized (this) {
+			final var current = cityUsers.get(city);
+			if (current == null || current.fetchedAt < fetched.fetchedAt) {
+				cityUsers.put(city, fetched);
+			}
+		}
+		return fetched.users;
+	}
+
+	/**
+	 * Drops all cached lists, so the next queries will reach the service again.
+	 */
+	public synchronized void invalidate() {
+		allUsers = null;
+		cityUsers.clear();
+	}
+
+	private boolean isFresh(final CacheEntry entry) {
+		return entry != null && clock.getAsLong() - entry.fetchedAt < ttlNanos;
+	}
+
+	/**
+	 * Fetches or revalidates an expired entry. If the same list is already being
+	 * fetched by another thread, its result is waited for instead.
+	 * 
+	 * @param entry The currently cached entry (null if there is none)
+	 * @param path  The path of the list on the service (null for city lists)
+	 * @param city  The city the list belongs to (null for the complete list)
+	 * @return The entry to be served
+	 * @throws ApiException In case of networking issues
+	 */
+	private CacheEntry fetch(final CacheEntry entry, final String path, final String city) throws ApiException {
+		return CoalescingClientAPI.await(fetching.request(path != null ? path : "/city/" + city + "/users", k -> {
+			try {
+				return CompletableFuture.completedFuture(refresh(entry, path, city));
+			} catch (ApiException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}));
+	}
+
+	/**
+	 * Fetches or revalidates the entry through the decorated interface.
+	 * 
+	 * @see #fetch(CacheEntry, String, String)
+	 */
+	private CacheEntry refresh(final CacheEntry entry, final String path, final String city) throws ApiException {
+		final var now = clock.getAsLong();
+		if (conditionalRequests) {
+			final var client = delegate.getApiClient();
+			return conditionalFetch(client, entry,
+					path != null ? path : "/city/" + client.escapeString(city) + "/users", now);
+		}
+		return new CacheEntry(city == null ? delegate.getUsers() : delegate.getCityUsers(city), now, null, null);
+	}
+
+	/**
+	 * Fetches a user list through the ApiClient so the validators of the response
+	 * can be recorded. If there is an earlier entry with validators, the request
+	 * is conditional and a "not modified" answer just extends the entry's life.
+	 * 
+	 * @param client The client to send the request with
+	 * @param entry  The expired entry (null if there is none)
+	 * @param path   The path of the list on the service
+	 * @param now    The time of the request
+	 * @return The entry to be served
+	 * @throws ApiException In case of networking issues
+	 */
+	private CacheEntry conditionalFetch(final ApiClient client, final CacheEntry entry, final String path,
+			final long now) throws ApiException {
+		final var headers = new HashMap<String, String>();
+		headers.put("Accept", "application/json");
+		if (entry != null) {
+			if (entry.etag != null) {
+				headers.put("If-None-Match", entry.etag);
+			}
+			if (entry.lastModified != null) {
+				headers.put("If-Modified-Since", entry.lastModified);
+			}
+		}
+		final var call = client.buildCall(path, "GET", new ArrayList<Pair>(), new ArrayList<Pair>(), null, headers,
+				new HashMap<String, Object>(), new String[0], null);
+		try {
+			final var response = call.execute();
+			if (response.code() == 304 && entry != null) {
+				response.body().close();
+				return new CacheEntry(entry.users, now, entry.etag, entry.lastModified);
+			}
+			final UserList users = client.handleResponse(response, userListType);
+			return new CacheEntry(users, now, response.header("ETag"), response.header("Last-Modified"));
+		} catch (IOException e) {
+			throw new ApiException(e);
+		}
+	}
+}
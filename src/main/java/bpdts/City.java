@@ -30,10 +30,14 @@ import static bpdts.Belonging.UNKNOWN;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import com.google.gson.GsonBuilder;
@@ -48,9 +52,35 @@ import bpdts.gen.model.User;
  *
  */
 public class City {
+	// Below this many users the batch kernel does not bother with parallelism
+	public static final int parallelBatchThreshold = 4096;
+	// Perimeters with more points than this get a KD-tree, it is only searched if
+	// the perimeter is also longer than what the kernel in use scans faster
+	public static final int kdTreeThreshold = DotKernel.scalarScanThreshold;
+	// The kernel scanning the perimeters that are too short for a KD-tree search
+	private static volatile DotKernel dotKernel = DotKernel.configured();
+
 	public final String name;
 	// This list is unmodifiable as cities rarely change their boundaries
 	public final List<EarthCentredCoordinates> perimeter;
+	// The perimeter packed as unit vectors, this is what the distance kernels use
+	private final double[] px, py, pz;
+	// Only built for long perimeters, null otherwise
+	private final PerimeterKDTree tree;
+	// The hierarchy over the perimeter's edges for the exact perimeter distances
+	private final PerimeterSegmentIndex segments;
+	// Bounding volumes allowing the quick rejection of far away locations (the box
+	// covers the edges too, not just the perimeter points)
+	public final SphericalCap cap;
+	public final LatLonBounds bounds;
+	// Allows the containment checks of the perimeter's polygon
+	private final PerimeterPolygon polygon;
+	// Counters of the locations rejected by the bounding volumes (hits) and the ones
+	// that needed the full perimeter check (misses)
+	private final LongAdder prefilterHits = new LongAdder();
+	private final LongAdder prefilterMisses = new LongAdder();
+	// The thresholds of the last proximity query, as they rarely change
+	private volatile ProximityThresholds lastThresholds;
 
 	/**
 	 * This constructor allows to programmatically instantiate a city object with
@@ -60,25 +90,91 @@ public class City {
 	 * @param coords The perimeter of the city in
 	 */
 	public City(final String name, final SphericalCoordinates[] coords) {
+		this(name, transformCoords(Arrays.stream(coords), coords.length));
+	}
+
+	/**
+	 * Prepares a city from an already packed perimeter.
+	 * 
+	 * @param name   The name of the city that is represented by this object.
+	 * @param packed The x, y and z arrays (in this order) of the perimeter's unit
+	 *               vectors.
+	 */
+	private City(final String name, final double[][] packed) {
+		this(name, packed[0], packed[1], packed[2], null);
+	}
+
+	/**
+	 * The constructor all others end up with, it receives the already packed
+	 * perimeter and prepares all the helper structures for the distance
+	 * calculations. The arrays are not copied, so they must not be modified
+	 * afterwards.
+	 * 
+	 * @param name The name of the city that is represented by this object.
+	 * @param x    The x components of the perimeter's unit vectors
+	 * @param y    The y components of the perimeter's unit vectors
+	 * @param z    The z components of the perimeter's unit vectors
+	 * @param tree The KD-tree over the perimeter if it was built in advance, if
+	 *             null then it is built here when the perimeter is long enough.
+	 */
+	City(final String name, final double[] x, final double[] y, final double[] z, final PerimeterKDTree tree) {
 		this.name = name;
-		this.perimeter = transformCoords(Arrays.stream(coords));
+		this.px = x;
+		this.py = y;
+		this.pz = z;
+		this.perimeter = new PerimeterView();
+		this.tree = tree != null || px.length <= kdTreeThreshold ? tree : new PerimeterKDTree(px, py, pz);
+		this.segments = new PerimeterSegmentIndex(px, py, pz);
+		this.cap = SphericalCap.enclosing(px, py, pz, 0, px.length);
+		this.bounds = LatLonBounds.ofArcs(px, py, pz);
+		this.polygon = new PerimeterPolygon(px, py, pz, cap);
 	}
 
 	/**
 	 * A helper method for the two main constructors that transforms all received
 	 * spherical coordinates (i.e., latitude and longitude values) to earth centred
-	 * ones for the perimeter. Storing the perimeter this way allows faster
+	 * unit vectors for the perimeter. Storing the perimeter this way allows faster
 	 * calculation of user distances.
 	 * 
 	 * @param coords The stream of spherical coordinates to convert before storing
 	 *               the perimeter.
-	 * @return The converted list of coordinates ready to be used as the city's
-	 *         perimeter.
+	 * @param count  The number of coordinates in the stream
+	 * @return The x, y and z arrays (in this order) of the converted perimeter.
 	 */
-	private List<EarthCentredCoordinates> transformCoords(final Stream<SphericalCoordinates> coords) {
-		var perPrep = new ArrayList<EarthCentredCoordinates>();
-		coords.forEach(c -> perPrep.add(new EarthCentredCoordinates(c)));
-		return Collections.unmodifiableList(perPrep);
+	private static double[][] transformCoords(final Stream<SphericalCoordinates> coords, final int count) {
+		final var packed = new double[3][count];
+		final var index = new int[1];
+		coords.forEach(c -> {
+			final var latRad = EarthCentredCoordinates.radPerDegree * c.latitude;
+			final var lonRad = EarthCentredCoordinates.radPerDegree * c.longitude;
+			final var cosLat = Math.cos(latRad);
+			packed[0][index[0]] = cosLat * Math.cos(lonRad);
+			packed[1][index[0]] = cosLat * Math.sin(lonRad);
+			packed[2][index[0]++] = Math.sin(latRad);
+		});
+		return packed;
+	}
+
+	/**
+	 * Offers the classic object based view of the perimeter. The earth centred
+	 * coordinates are only created when they are asked for, so the packed arrays
+	 * remain the only storage of the perimeter.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	private class PerimeterView extends AbstractList<EarthCentredCoordinates> implements RandomAccess {
+		@Override
+		public EarthCentredCoordinates get(final int index) {
+			return new EarthCentredCoordinates(EarthCentredCoordinates.earthRadiusMiles * px[index],
+					EarthCentredCoordinates.earthRadiusMiles * py[index],
+					EarthCentredCoordinates.earthRadiusMiles * pz[index]);
+		}
+
+		@Override
+		public int size() {
+			return px.length;
+		}
 	}
 
 	/**
@@ -103,6 +199,31 @@ public class City {
 	 *                     if the json's format is incorrect.
 	 */
 	public City(final Path json) throws IOException {
+		this(readJson(json), json);
+	}
+
+	/**
+	 * Turns the strings loaded from the json file to spherical coordinates and then
+	 * does the same thing that we do with the programmatic constructor.
+	 * 
+	 * @param helper The already loaded json data
+	 * @param json   The path the data was loaded from (for error reporting)
+	 * @throws IOException If the latitude/longitude data is not numeric
+	 */
+	private City(final CityHelper helper, final Path json) throws IOException {
+		this(helper.name, parsePerimeter(helper, json));
+	}
+
+	/**
+	 * Loads the json data and checks if it has all the necessary details for a
+	 * city.
+	 * 
+	 * @param json The path to the json file that we need to read
+	 * @return The loaded but not yet processed data
+	 * @throws IOException If the specified path is not readable by the program or
+	 *                     if the json's format is incorrect.
+	 */
+	private static CityHelper readJson(final Path json) throws IOException {
 		var reader = new GsonBuilder().create();
 		var jsonData = Files.readString(json);
 		var helper = reader.fromJson(jsonData, CityHelper.class);
@@ -112,30 +233,67 @@ public class City {
 		if (helper.perimeter.size() == 0 || helper.perimeter.size() % 2 == 1) {
 			throw new IOException("Input " + json + " misses the last longitude data");
 		}
+		return helper;
+	}
 
-		// Json correctly loaded, spherical coordinates are still to be checked and
-		// transofrmed to something digestable by the API
-
+	/**
+	 * Json correctly loaded, spherical coordinates are still to be checked and
+	 * transofrmed to something digestable by the API
+	 * 
+	 * @param helper The loaded json data
+	 * @param json   The path the data was loaded from (for error reporting)
+	 * @return The perimeter as spherical coordinates
+	 * @throws IOException If the latitude/longitude data is not numeric
+	 */
+	private static SphericalCoordinates[] parsePerimeter(final CityHelper helper, final Path json)
+			throws IOException {
 		var it = helper.perimeter.iterator();
-		var tempList = new ArrayList<SphericalCoordinates>(helper.perimeter.size() / 2);
+		var tempList = new SphericalCoordinates[helper.perimeter.size() / 2];
+		var i = 0;
 		while (it.hasNext()) {
 			String latitude = it.next();
 			String longitude = it.next();
 			try {
-				tempList.add(new SphericalCoordinates(Double.parseDouble(latitude), Double.parseDouble(longitude)));
+				tempList[i++] = new SphericalCoordinates(Double.parseDouble(latitude), Double.parseDouble(longitude));
 			} catch (NumberFormatException nex) {
 				throw new IOException(
 						"Input " + json + " does not disclose latitude/longitude data as a simple decimal. See: Lat: "
 								+ latitude + " Lon:" + longitude);
 			}
 		}
+		return tempList;
+	}
 
-		// Conversion complete, we are doing the same thing that we do with the other
-		// constructor
+	/**
+	 * Approximates how much heap the city occupies with its perimeter and all the
+	 * helper structures built for the distance and containment checks. This
+	 * allows caches of cities to keep their memory use under a budget.
+	 * 
+	 * @return the approximate size of the city in bytes
+	 */
+	public long estimatedMemoryBytes() {
+		// The fixed part covers the object headers, the bounding volumes and the name
+		return 512 + 2L * name.length() + 3L * Double.BYTES * px.length + segments.estimatedBytes()
+				+ polygon.estimatedBytes() + (tree == null ? 0 : tree.estimatedBytes());
+	}
 
-		this.name = helper.name;
-		this.perimeter = transformCoords(tempList.stream());
+	/**
+	 * Allows the binary perimeter files to store the packed perimeter as is.
+	 * 
+	 * @return The x, y and z arrays (in this order) of the perimeter's unit
+	 *         vectors. These must not be modified.
+	 */
+	double[][] packedPerimeter() {
+		return new double[][] { px, py, pz };
+	}
 
+	/**
+	 * Allows the binary perimeter files to store the KD-tree of the perimeter.
+	 * 
+	 * @return The KD-tree or null if the perimeter is too short for one
+	 */
+	PerimeterKDTree kdTree() {
+		return tree;
 	}
 
 	/**
@@ -147,9 +305,456 @@ public class City {
 	 * @return The straight line distance of the user on Earth's surface.
 	 */
 	public double distanceOfUser(final User u) {
-		var userLoc = new EarthCentredCoordinates(new SphericalCoordinates(u));
-		return perimeter.stream().parallel().mapToDouble(c -> EarthCentredCoordinates.distance(c, userLoc)).min()
-				.getAsDouble();
+		final var latitude = LocatedUser.latitudeOf(u);
+		final var longitude = LocatedUser.longitudeOf(u);
+		if (u instanceof LocatedUser && ((LocatedUser) u).hasUnitVector()) {
+			SphericalCoordinates.checkRange(latitude, longitude);
+			final var l = (LocatedUser) u;
+			return EarthCentredCoordinates.distanceFromDot(closestDot(l.unitX(), l.unitY(), l.unitZ()));
+		}
+		return distanceOfLocation(latitude, longitude);
+	}
+
+	/**
+	 * The variant of {@link #distanceOfUser(User)} that takes the unit vector of
+	 * the user from a location cache.
+	 * 
+	 * @param locations The cache holding the user's vector
+	 * @param entry     The position of the user's entry in the cache, see
+	 *                  {@link UserLocationCache#add(User)}
+	 * @return The straight line distance of the user on Earth's surface.
+	 */
+	public double distanceOfUser(final UserLocationCache locations, final int entry) {
+		SphericalCoordinates.checkRange(locations.getLatitude(entry), locations.getLongitude(entry));
+		return EarthCentredCoordinates
+				.distanceFromDot(closestDot(locations.getX(entry), locations.getY(entry), locations.getZ(entry)));
+	}
+
+	/**
+	 * Determines the distance between an arbitrary location and the city's closest
+	 * perimeter point. This is the allocation free kernel behind
+	 * {@link #distanceOfUser(User)}.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @return The straight line distance of the location on Earth's surface.
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public double distanceOfLocation(final double latitude, final double longitude) {
+		SphericalCoordinates.checkRange(latitude, longitude);
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+		final var cosLat = Math.cos(latRad);
+		return EarthCentredCoordinates
+				.distanceFromDot(closestDot(cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad)));
+	}
+
+	/**
+	 * Determines the distance between the user and the closest point of the city's
+	 * perimeter. Unlike {@link #distanceOfUser(User)}, this also considers the
+	 * edges (great circle arcs) between consecutive perimeter points, thus the
+	 * result does not depend on how densely the perimeter was sampled.
+	 * 
+	 * @param u The user to investigate
+	 * @return The straight line distance of the user on Earth's surface.
+	 */
+	public double distanceToPerimeter(final User u) {
+		return distanceOfLocationToPerimeter(LocatedUser.latitudeOf(u), LocatedUser.longitudeOf(u));
+	}
+
+	/**
+	 * The location based variant of {@link #distanceToPerimeter(User)}.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @return The straight line distance of the location on Earth's surface.
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public double distanceOfLocationToPerimeter(final double latitude, final double longitude) {
+		SphericalCoordinates.checkRange(latitude, longitude);
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+		final var cosLat = Math.cos(latRad);
+		return EarthCentredCoordinates.earthRadiusMiles
+				* segments.minAngle(cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad));
+	}
+
+	/**
+	 * The batch variant of {@link #distanceOfLocation(double, double)}. The work is
+	 * split amongst the users (and not amongst the perimeter points), thus large
+	 * user lists are evaluated in parallel while small ones are done sequentially
+	 * to avoid the costs of the fork-join framework.
+	 * 
+	 * @param latitudes  The latitudes of the users to investigate
+	 * @param longitudes The longitudes of the users to investigate (the arrays
+	 *                   must be of the same length)
+	 * @return The distances of each user (in the order they were received) from
+	 *         the closest perimeter point of the city.
+	 */
+	public double[] distancesOfLocations(final double[] latitudes, final double[] longitudes) {
+		if (latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("Latitude and longitude arrays must have the same length");
+		}
+		final var distances = new double[latitudes.length];
+		var indexes = IntStream.range(0, distances.length);
+		if (distances.length >= parallelBatchThreshold) {
+			indexes = indexes.parallel();
+		}
+		indexes.forEach(i -> distances[i] = distanceOfLocation(latitudes[i], longitudes[i]));
+		return distances;
+	}
+
+	/**
+	 * Allows the batch evaluation of complete user lists as returned by the
+	 * service.
+	 * 
+	 * @see #distancesOfLocations(double[], double[])
+	 * @param users The users to investigate
+	 * @return The distances of each user (in the order of the list) from the
+	 *         closest perimeter point of the city.
+	 */
+	public double[] distancesOfUsers(final List<User> users) {
+		final var latitudes = new double[users.size()];
+		final var longitudes = new double[latitudes.length];
+		for (int i = 0; i < latitudes.length; i++) {
+			final var u = users.get(i);
+			latitudes[i] = LocatedUser.latitudeOf(u);
+			longitudes[i] = LocatedUser.longitudeOf(u);
+		}
+		return distancesOfLocations(latitudes, longitudes);
+	}
+
+	/**
+	 * Determines if the user is closer to the city's perimeter (including the edges
+	 * between the perimeter points) than the specified distance. Unlike
+	 * {@link #distanceToPerimeter(User)}, this does not look for the closest point,
+	 * the search stops as soon as it finds an edge that is close enough.
+	 * 
+	 * @param u     The user to investigate
+	 * @param miles The distance limit
+	 * @return true if the user is within the limit to the perimeter
+	 */
+	public boolean isNearPerimeter(final User u, final double miles) {
+		return isLocationNearPerimeter(LocatedUser.latitudeOf(u), LocatedUser.longitudeOf(u), miles);
+	}
+
+	/**
+	 * The location based variant of {@link #isNearPerimeter(User, double)}.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @param miles     The distance limit
+	 * @return true if the location is within the limit to the perimeter
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public boolean isLocationNearPerimeter(final double latitude, final double longitude, final double miles) {
+		SphericalCoordinates.checkRange(latitude, longitude);
+		if (px.length == 0) {
+			return false;
+		}
+		final var th = thresholdsFor(miles);
+		if (!bounds.mayContain(latitude, longitude, th.latSlack, th.lonSlack)) {
+			prefilterHits.increment();
+			return false;
+		}
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+		final var cosLat = Math.cos(latRad);
+		final var ux = cosLat * Math.cos(lonRad);
+		final var uy = cosLat * Math.sin(lonRad);
+		final var uz = Math.sin(latRad);
+		if (!cap.mayContain(ux, uy, uz, th.capMinDot)) {
+			prefilterHits.increment();
+			return false;
+		}
+		prefilterMisses.increment();
+		if (th.everywhere) {
+			return true;
+		}
+		return segments.anyWithin(ux, uy, uz, th.angle);
+	}
+
+	/**
+	 * Determines if the user is inside the city or closer to its perimeter than the
+	 * specified distance. This gives the same answer as
+	 * {@link #containsUser(User)} || {@link #isNearPerimeter(User, double)}, but
+	 * the bounding volumes are checked and the user's unit vector is calculated
+	 * only once. Then the search stops as soon as a perimeter point is found within
+	 * the distance (which needs no trigonometry, only a dot product or chord length
+	 * comparison), the polygon and the edges are only checked afterwards.
+	 * 
+	 * @param u     The user to investigate
+	 * @param miles The distance limit
+	 * @return true if the user is inside the city or within the limit to its
+	 *         perimeter
+	 */
+	public boolean isWithin(final User u, final double miles) {
+		final var latitude = LocatedUser.latitudeOf(u);
+		final var longitude = LocatedUser.longitudeOf(u);
+		if (u instanceof LocatedUser && ((LocatedUser) u).hasUnitVector()) {
+			final var l = (LocatedUser) u;
+			return isWithin(latitude, longitude, l.unitX(), l.unitY(), l.unitZ(), miles);
+		}
+		return isWithin(latitude, longitude, Double.NaN, 0, 0, miles);
+	}
+
+	/**
+	 * The variant of {@link #isWithin(User, double)} that takes the unit vector of
+	 * the user from a location cache, so it needs no trigonometry at all.
+	 * 
+	 * @param locations The cache holding the user's vector
+	 * @param entry     The position of the user's entry in the cache, see
+	 *                  {@link UserLocationCache#add(User)}
+	 * @param miles     The distance limit
+	 * @return true if the user is inside the city or within the limit to its
+	 *         perimeter
+	 */
+	public boolean isWithin(final UserLocationCache locations, final int entry, final double miles) {
+		return isWithin(locations.getLatitude(entry), locations.getLongitude(entry), locations.getX(entry),
+				locations.getY(entry), locations.getZ(entry), miles);
+	}
+
+	/**
+	 * The first, trigonometry free step of {@link #isWithin(User, double)}: only
+	 * checks the city's bounding box extended by the distance. This allows
+	 * skipping the locations that are surely too far before their unit vectors
+	 * are calculated.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @param miles     The distance limit
+	 * @return false if the location is surely not within the limit, true if it
+	 *         needs the full check
+	 */
+	public boolean mayBeWithin(final double latitude, final double longitude, final double miles) {
+		if (px.length == 0) {
+			return false;
+		}
+		final var th = thresholdsFor(Math.max(miles, 0));
+		return bounds.mayContain(latitude, longitude, th.latSlack, th.lonSlack);
+	}
+
+	/**
+	 * The location based variant of {@link #isWithin(User, double)}.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @param miles     The distance limit
+	 * @return true if the location is inside the city or within the limit to its
+	 *         perimeter
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public boolean isLocationWithin(final double latitude, final double longitude, final double miles) {
+		return isWithin(latitude, longitude, Double.NaN, 0, 0, miles);
+	}
+
+	/**
+	 * The kernel of {@link #isLocationWithin(double, double, double)} that can
+	 * reuse the unit vector of the location if it was calculated in advance.
+	 * 
+	 * @param ux NaN if the unit vector should be calculated here (only done if the
+	 *           location passed the bounding box check)
+	 */
+	private boolean isWithin(final double latitude, final double longitude, double ux, double uy, double uz,
+			final double miles) {
+		SphericalCoordinates.checkRange(latitude, longitude);
+		if (px.length == 0) {
+			return false;
+		}
+		// The buffered bounding volumes cover the inside of the city as well
+		final var th = thresholdsFor(Math.max(miles, 0));
+		if (!bounds.mayContain(latitude, longitude, th.latSlack, th.lonSlack)) {
+			prefilterHits.increment();
+			return false;
+		}
+		if (Double.isNaN(ux)) {
+			final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+			final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+			final var cosLat = Math.cos(latRad);
+			ux = cosLat * Math.cos(lonRad);
+			uy = cosLat * Math.sin(lonRad);
+			uz = Math.sin(latRad);
+		}
+		if (!cap.mayContain(ux, uy, uz, th.capMinDot)) {
+			prefilterHits.increment();
+			return false;
+		}
+		prefilterMisses.increment();
+		if (th.everywhere || anyPointWithin(ux, uy, uz, th)) {
+			return true;
+		}
+		if (polygon.isUsable() && polygon.contains(ux, uy, uz)) {
+			return true;
+		}
+		return miles > 0 && segments.anyWithin(ux, uy, uz, th.angle);
+	}
+
+	/**
+	 * Checks the perimeter points only (not the edges between them) and stops at
+	 * the first one that is within the limit.
+	 */
+	private boolean anyPointWithin(final double ux, final double uy, final double uz,
+			final ProximityThresholds th) {
+		final var kernel = dotKernel;
+		if (tree != null && px.length > kernel.scanThreshold()) {
+			return tree.anyWithin(ux, uy, uz, th.chordSquared);
+		}
+		return kernel.anyDotAbove(px, py, pz, px.length, ux, uy, uz, th.minDot);
+	}
+
+	/**
+	 * Determines if the user is inside the polygon formed by the city's perimeter.
+	 * 
+	 * @param u The user to investigate
+	 * @return true if the user is inside the city, false if outside or if the
+	 *         city's perimeter does not form a usable polygon (e.g., it has less
+	 *         than three points).
+	 */
+	public boolean containsUser(final User u) {
+		return containsLocation(LocatedUser.latitudeOf(u), LocatedUser.longitudeOf(u));
+	}
+
+	/**
+	 * The location based variant of {@link #containsUser(User)}.
+	 * 
+	 * @param latitude  The latitude of the location to investigate
+	 * @param longitude The longitude of the location to investigate
+	 * @return true if the location is inside the city
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public boolean containsLocation(final double latitude, final double longitude) {
+		SphericalCoordinates.checkRange(latitude, longitude);
+		if (!polygon.isUsable() || !bounds.mayContain(latitude, longitude, 0, 0)) {
+			return false;
+		}
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+		final var cosLat = Math.cos(latRad);
+		return polygon.contains(cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad));
+	}
+
+	/**
+	 * Allows querying how many times the proximity checks could reject a location
+	 * by only looking at the city's bounding volumes.
+	 * 
+	 * @return the number of locations that did not need the full perimeter check
+	 */
+	public long getPrefilterHits() {
+		return prefilterHits.sum();
+	}
+
+	/**
+	 * Allows querying how many times the proximity checks had to resort to the
+	 * full perimeter check.
+	 * 
+	 * @return the number of locations that were not rejected by the bounding
+	 *         volumes
+	 */
+	public long getPrefilterMisses() {
+		return prefilterMisses.sum();
+	}
+
+	/**
+	 * Zeroes both the hit and the miss counters of the prefilter.
+	 */
+	public void resetPrefilterCounters() {
+		prefilterHits.reset();
+		prefilterMisses.reset();
+	}
+
+	/**
+	 * Returns the thresholds for proximity queries of the specified distance. These
+	 * are cached as the same distance is usually used for a whole user list.
+	 * 
+	 * @param miles The distance limit of the query
+	 * @return The thresholds to be used with the distance limit
+	 */
+	private ProximityThresholds thresholdsFor(final double miles) {
+		var th = lastThresholds;
+		if (th == null || th.miles != miles) {
+			th = new ProximityThresholds(miles);
+			lastThresholds = th;
+		}
+		return th;
+	}
+
+	/**
+	 * The precalculated values needed for a proximity query with a particular
+	 * distance limit. These allow the per location checks to do without
+	 * trigonometry.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	private final class ProximityThresholds {
+		final double miles;
+		// Dot product limit for the bounding cap
+		final double capMinDot;
+		// The distance limit as an angle for the perimeter edges
+		final double angle;
+		// The distance limit for the perimeter points as a dot product and as a
+		// squared chord length (for the KD-tree)
+		final double minDot, chordSquared;
+		// The latitude and longitude slack of the bounding box in degrees
+		final double latSlack, lonSlack;
+		// If the distance limit is larger than half the circumference of the earth
+		final boolean everywhere;
+
+		ProximityThresholds(final double miles) {
+			this.miles = miles;
+			angle = miles / EarthCentredCoordinates.earthRadiusMiles;
+			everywhere = angle > Math.PI;
+			minDot = Math.cos(angle);
+			chordSquared = PerimeterKDTree.chordSquaredOf(miles);
+			capMinDot = cap.minDotWithBuffer(miles);
+			latSlack = angle / EarthCentredCoordinates.radPerDegree;
+			lonSlack = bounds.lonSlackFor(angle);
+		}
+	}
+
+	/**
+	 * Searches the packed perimeter for the point closest to the given unit
+	 * vector. Closest is the one with the largest dot product, so there is no need
+	 * for acos calls during the search.
+	 * 
+	 * @param ux The x component of the unit vector
+	 * @param uy The y component of the unit vector
+	 * @param uz The z component of the unit vector
+	 * @return The dot product of the unit vector and the closest perimeter point
+	 */
+	private double closestDot(final double ux, final double uy, final double uz) {
+		final var kernel = dotKernel;
+		if (tree != null && px.length > kernel.scanThreshold()) {
+			final var i = tree.nearest(ux, uy, uz);
+			return px[i] * ux + py[i] * uy + pz[i] * uz;
+		}
+		return kernel.maxDot(px, py, pz, px.length, ux, uy, uz);
+	}
+
+	/**
+	 * Allows querying which kernel the short perimeters are scanned with.
+	 * 
+	 * @return the kernel used by all cities
+	 */
+	public static DotKernel getDotKernel() {
+		return dotKernel;
+	}
+
+	/**
+	 * Switches the kernel all cities use to scan their short perimeters (the
+	 * ones longer than {@link DotKernel#scanThreshold()} of the kernel are
+	 * searched through their KD-trees). The initial kernel is selected via
+	 * {@link DotKernel#configured()}.
+	 * 
+	 * @param kernel The kernel to use from now on
+	 */
+	public static void setDotKernel(final DotKernel kernel) {
+		dotKernel = Objects.requireNonNull(kernel);
 	}
 
 	/**
@@ -0,0 +1,175 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A spatial index over several cities, each with its own distance limit. The
+ * globe is split to a latitude/longitude grid and every city is registered in
+ * the cells its bounding box (extended with its distance limit) overlaps. A
+ * location thus only needs to be checked against the few cities registered in
+ * its cell, instead of against all of them. Cities whose extended box cannot
+ * be expressed on the grid (e.g., they reach the poles) are checked for every
+ * location.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class CityProximityIndex {
+	public static final double defaultCellSizeInDegrees = 1;
+
+	private final City[] cities;
+	private final double[] maxDistances;
+	private final double cellSize;
+	private final int rows, cols;
+	// The indexes of the cities registered in each cell (null if none)
+	private final int[][] cells;
+	// The indexes of the cities that are checked for all locations
+	private final int[] everywhere;
+
+	/**
+	 * Creates an index with the default cell size.
+	 * 
+	 * @param maxDistancesInMiles The cities to index, each with the farthest
+	 *                            distance that should be still considered close
+	 *                            to it.
+	 */
+	public CityProximityIndex(final Map<City, Double> maxDistancesInMiles) {
+		this(maxDistancesInMiles, defaultCellSizeInDegrees);
+	}
+
+	/**
+	 * Creates an index with a custom cell size.
+	 * 
+	 * @param maxDistancesInMiles The cities to index, each with the farthest
+	 *                            distance that should be still considered close
+	 *                            to it.
+	 * @param cellSizeInDegrees   The width and height of the grid cells
+	 */
+	public CityProximityIndex(final Map<City, Double> maxDistancesInMiles, final double cellSizeInDegrees) {
+		cellSize = cellSizeInDegrees;
+		rows = (int) Math.ceil(180 / cellSize);
+		cols = (int) Math.ceil(360 / cellSize);
+		cities = new City[maxDistancesInMiles.size()];
+		maxDistances = new double[cities.length];
+		final var cellLists = new ArrayList<ArrayList<Integer>>(rows * cols);
+		for (int i = 0; i < rows * cols; i++) {
+			cellLists.add(null);
+		}
+		final var globalList = new ArrayList<Integer>();
+		var index = 0;
+		for (final var entry : maxDistancesInMiles.entrySet()) {
+			cities[index] = entry.getKey();
+			maxDistances[index] = entry.getValue();
+			if (!register(index, cellLists)) {
+				globalList.add(index);
+			}
+			index++;
+		}
+		cells = new int[rows * cols][];
+		for (int i = 0; i < cells.length; i++) {
+			final var list = cellLists.get(i);
+			if (list != null) {
+				cells[i] = list.stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+		everywhere = globalList.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Adds the city to all the cells its extended bounding box overlaps.
+	 * 
+	 * @param index     The index of the city to register
+	 * @param cellLists The per cell lists under construction
+	 * @return false if the city could not be registered on the grid
+	 */
+	private boolean register(final int index, final ArrayList<ArrayList<Integer>> cellLists) {
+		final var bounds = cities[index].bounds;
+		final var angle = maxDistances[index] / EarthCentredCoordinates.earthRadiusMiles;
+		final var latSlack = angle / EarthCentredCoordinates.radPerDegree;
+		final var lonSlack = bounds.lonSlackFor(angle);
+		final var south = bounds.minLat - latSlack;
+		final var north = bounds.maxLat + latSlack;
+		final var lonSpan = (bounds.maxLon - bounds.minLon + 360) % 360 + 2 * lonSlack;
+		if (south <= -90 || north >= 90 || lonSpan >= 180) {
+			return false;
+		}
+		final var firstRow = row(south);
+		final var lastRow = row(north);
+		final var firstCol = col(bounds.minLon - lonSlack);
+		final var colCount = (int) Math.ceil(lonSpan / cellSize) + 1;
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = 0; c <= colCount; c++) {
+				final var cell = r * cols + (firstCol + c) % cols;
+				var list = cellLists.get(cell);
+				if (list == null) {
+					list = new ArrayList<>(2);
+					cellLists.set(cell, list);
+				}
+				if (list.isEmpty() || list.get(list.size() - 1) != index) {
+					list.add(index);
+				}
+			}
+		}
+		return true;
+	}
+
+	private int row(final double lat) {
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor((lat + 90) / cellSize)));
+	}
+
+	private int col(final double lon) {
+		final var normalised = ((lon + 180) % 360 + 360) % 360;
+		return Math.min(cols - 1, (int) Math.floor(normalised / cellSize));
+	}
+
+	/**
+	 * Finds all cities the location is inside of or close to.
+	 * 
+	 * @param latitude  The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @param action    What to do with the cities that are within their distance
+	 *                  limit to the location
+	 */
+	public void forEachNear(final double latitude, final double longitude, final Consumer<City> action) {
+		final var candidates = cells[row(latitude) * cols + col(longitude)];
+		if (candidates != null) {
+			for (final var i : candidates) {
+				check(i, latitude, longitude, action);
+			}
+		}
+		for (final var i : everywhere) {
+			check(i, latitude, longitude, action);
+		}
+	}
+
+	private void check(final int i, final double latitude, final double longitude, final Consumer<City> action) {
+		if (cities[i].isLocationWithin(latitude, longitude, maxDistances[i])) {
+			action.accept(cities[i]);
+		}
+	}
+}
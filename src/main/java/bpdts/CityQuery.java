@@ -0,0 +1,108 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import bpdts.gen.model.User;
+
+/**
+ * An immutable description of the queries the BpdtsAPI offers: the city to look
+ * for citizens or nearby users of, together with the farthest distance still
+ * considered near. Unlike the BpdtsAPI's setters, a query object can be shared
+ * between threads freely. See: {@link CityQueryExecutor}
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public final class CityQuery {
+	public final City city;
+	public final double maxDistanceInMiles;
+
+	/**
+	 * Creates a query.
+	 * 
+	 * @param city               The city to check the users against
+	 * @param maxDistanceInMiles The acceptable distance to the city's perimeter
+	 *                           specified in miles.
+	 */
+	public CityQuery(final City city, final double maxDistanceInMiles) {
+		this.city = Objects.requireNonNull(city, "A query needs a city");
+		this.maxDistanceInMiles = maxDistanceInMiles;
+	}
+
+	/**
+	 * Determines if the user belongs to the city of the query.
+	 * 
+	 * @param u The user to investigate
+	 * @return true if the user is a citizen
+	 */
+	public boolean isCitizen(final User u) {
+		return city.userBelongsToCity(u) == Belonging.CITIZEN;
+	}
+
+	/**
+	 * Determines if the user is inside the city of the query or within the
+	 * query's distance to its perimeter.
+	 * 
+	 * @param u The user to investigate
+	 * @return true if the user is nearby
+	 */
+	public boolean isNearby(final User u) {
+		return city.isWithin(u, maxDistanceInMiles);
+	}
+
+	/**
+	 * Evaluates the citizenship query on already downloaded user lists.
+	 * 
+	 * @param cityUsers The users the service listed as citizens of the city
+	 * @param allUsers  All users of the service
+	 * @return The citizens ordered by their ids
+	 */
+	public List<User> citizens(final Collection<User> cityUsers, final Collection<User> allUsers) {
+		final var filtered = new UserIdSet();
+		filtered.addAll(cityUsers);
+		allUsers.stream().filter(this::isCitizen).forEach(filtered::add);
+		return filtered.toList();
+	}
+
+	/**
+	 * Evaluates the proximity query on an already downloaded user list.
+	 * 
+	 * @param allUsers All users of the service
+	 * @return The nearby users ordered by their ids
+	 */
+	public List<User> nearby(final Collection<User> allUsers) {
+		final var filtered = new UserIdSet();
+		allUsers.stream().filter(this::isNearby).forEach(filtered::add);
+		return filtered.toList();
+	}
+
+	@Override
+	public String toString() {
+		return "CityQuery(" + city.name + ", " + maxDistanceInMiles + " miles)";
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+
+/**
+ * Runs many {@link CityQuery} objects at once. All queries go through a single
+ * client interface (and thus a single HTTP connection pool), and the identical
+ * requests that are in flight at the same time are combined, so a batch of
+ * queries downloads the complete user list only once. The classification of
+ * the users is done on a shared thread pool. Its threads are released when
+ * they are idle for a while, or right away when the executor is closed.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class CityQueryExecutor implements AutoCloseable {
+	public static final Duration idleThreadTimeout = Duration.ofSeconds(30);
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final ExecutorService workers;
+	private final CoalescingClientAPI api;
+
+	/**
+	 * Creates an executor with as many threads as there are processors.
+	 * 
+	 * @param api The client service interface to be used by all queries
+	 */
+	public CityQueryExecutor(final InjectableClientAPI api) {
+		this(api, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an executor with a custom sized thread pool.
+	 * 
+	 * @param api         The client service interface to be used by all queries
+	 * @param parallelism The number of threads classifying users (and doing the
+	 *                    requests if the client interface cannot do them
+	 *                    asynchronously)
+	 * @throws IllegalArgumentException If the parallelism is not positive
+	 */
+	public CityQueryExecutor(final InjectableClientAPI api, final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive, got: " + parallelism);
+		}
+		final var poolId = poolCount.incrementAndGet();
+		final var threadCount = new AtomicInteger();
+		final var pool = new ThreadPoolExecutor(parallelism, parallelism, idleThreadTimeout.toNanos(),
+				TimeUnit.NANOSECONDS, new LinkedBlockingQueue<>(), r -> {
+					final var t = new Thread(r, "bpdts-query-" + poolId + "-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		this.workers = pool;
+		this.api = new CoalescingClientAPI(api, workers);
+	}
+
+	/**
+	 * The non-blocking equivalent of {@link BpdtsAPI#getUsersOfCity()}.
+	 * 
+	 * @param q The query to run
+	 * @return The future that completes with the list of users who belong to the
+	 *         city, or exceptionally with an ApiException (wrapped in a
+	 *         CompletionException) if there was a networking error.
+	 */
+	public CompletableFuture<List<User>> usersOfCity(final CityQuery q) {
+		return api.getCityUsersAsync(q.city.name).thenCombineAsync(api.getUsersAsync(), q::citizens, workers);
+	}
+
+	/**
+	 * The non-blocking equivalent of {@link BpdtsAPI#getUsersNearCity()}.
+	 * 
+	 * @param q The query to run
+	 * @return The future that completes with the list of users who are within the
+	 *         specified miles to the perimeter of the specified city, or
+	 *         exceptionally with an ApiException (wrapped in a
+	 *         CompletionException) if there was a networking error.
+	 */
+	public CompletableFuture<List<User>> usersNearCity(final CityQuery q) {
+		return api.getUsersAsync().thenApplyAsync(q::nearby, workers);
+	}
+
+	/**
+	 * Runs all the citizenship queries at once and waits for their results.
+	 * 
+	 * @param queries The queries to run
+	 * @return The citizens for each query (in the order the queries were
+	 *         specified)
+	 * @throws ApiException If there was a networking error.
+	 */
+	public Map<CityQuery, List<User>> usersOfCities(final Collection<CityQuery> queries) throws ApiException {
+		return runAll(queries, this::usersOfCity);
+	}
+
+	/**
+	 * Runs all the proximity queries at once and waits for their results.
+	 * 
+	 * @param queries The queries to run
+	 * @return The nearby users for each query (in the order the queries were
+	 *         specified)
+	 * @throws ApiException If there was a networking error.
+	 */
+	public Map<CityQuery, List<User>> usersNearCities(final Collection<CityQuery> queries) throws ApiException {
+		return runAll(queries, this::usersNearCity);
+	}
+
+	private Map<CityQuery, List<User>> runAll(final Collection<CityQuery> queries,
+			final Function<CityQuery, CompletableFuture<List<User>>> runner) throws ApiException {
+		final var running = new ArrayList<CompletableFuture<List<User>>>(queries.size());
+		queries.forEach(q -> running.add(runner.apply(q)));
+		final var results = new LinkedHashMap<CityQuery, List<User>>();
+		final var it = running.iterator();
+		for (final var q : queries) {
+			results.put(q, CoalescingClientAPI.await(it.next()));
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Allows querying the client interface shared by the queries.
+	 * 
+	 * @return The client interface that combines the identical requests
+	 */
+	public CoalescingClientAPI getClientAPI() {
+		return api;
+	}
+
+	/**
+	 * Stops the thread pool once the queries already started are done, further
+	 * queries fail.
+	 */
+	@Override
+	public void close() {
+		workers.shutdown();
+	}
+}
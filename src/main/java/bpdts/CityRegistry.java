@@ -0,0 +1,259 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Offers the cities described in a folder of boundary files (json files like
+ * the ones in the resources folder and binary perimeter files, see
+ * {@link PerimeterFile}) by their names. The folder is only indexed when the
+ * registry is created: the names are read from the files, but the perimeters
+ * are only loaded when a city is first asked for. The loaded cities are shared
+ * by all users of the registry, and the least recently used ones are evicted
+ * when the loaded cities together would occupy more memory than the budget.
+ * Evicted cities remain usable by whoever holds them, the registry just loads
+ * them again when they are next asked for.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class CityRegistry {
+	private static final String jsonExtension = ".json";
+
+	// The boundary file of each city, binary files are preferred over json ones
+	private final Map<String, Path> index;
+	private final long memoryBudget;
+	// In access order, so the eldest is the least recently used
+	private final LinkedHashMap<String, City> loaded = new LinkedHashMap<>(16, 0.75f, true);
+	private long loadedBytes;
+	// Lets concurrent requests for the same unloaded city wait for a single load
+	private final InFlightRequests<String, City> loading = new InFlightRequests<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+
+	/**
+	 * Indexes the boundary files of the folder.
+	 * 
+	 * @param directory         The folder with the json and binary boundary files
+	 * @param memoryBudgetBytes The memory the loaded cities can occupy together
+	 *                          (see {@link City#estimatedMemoryBytes()}), the most
+	 *                          recently used city is kept even if it alone exceeds
+	 *                          the budget
+	 * @throws IOException If the folder or any of its boundary files cannot be read
+	 */
+	public CityRegistry(final Path directory, final long memoryBudgetBytes) throws IOException {
+		this.memoryBudget = memoryBudgetBytes;
+		final var files = new TreeMap<String, Path>();
+		try (var listing = Files.list(directory)) {
+			for (final var file : listing.sorted().collect(Collectors.toList())) {
+				final var fileName = file.getFileName().toString();
+				if (fileName.endsWith(PerimeterFile.extension)) {
+					files.put(PerimeterFile.readName(file), file);
+				} else if (fileName.endsWith(jsonExtension)) {
+					files.putIfAbsent(readJsonName(file), file);
+				}
+			}
+		}
+		this.index = Collections.unmodifiableMap(files);
+	}
+
+	/**
+	 * Reads the name of the city from a json boundary file without processing the
+	 * perimeter.
+	 * 
+	 * @param json The json file
+	 * @return The name of the city
+	 * @throws IOException If the file cannot be read or has no name
+	 */
+	private static String readJsonName(final Path json) throws IOException {
+		try (var reader = new JsonReader(Files.newBufferedReader(json, StandardCharsets.UTF_8))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("name".equals(reader.nextName())) {
+					return reader.nextString();
+				}
+				reader.skipValue();
+			}
+		} catch (IllegalStateException e) {
+			throw new IOException("Incorrect json format for city: " + json, e);
+		}
+		throw new IOException("Incorrect json format for city: no name in " + json);
+	}
+
+	/**
+	 * Allows querying which cities are known to the registry.
+	 * 
+	 * @return The names of the indexed cities in alphabetical order
+	 */
+	public Set<String> getCityNames() {
+		return index.keySet();
+	}
+
+	/**
+	 * Returns the city with the specified name, loading it if it is not loaded
+	 * yet.
+	 * 
+	 * @param name The name of the city
+	 * @return The city or null if there is no such city in the folder
+	 * @throws IOException If the city's boundary file cannot be loaded
+	 */
+	public City get(final String name) throws IOException {
+		final var file = index.get(name);
+		if (file == null) {
+			return null;
+		}
+		synchronized (this) {
+			final var city = loaded.get(name);
+			if (city != null) {
+				hits.increment();
+				return city;
+			}
+		}
+		misses.increment();
+		try {
+			return loading.request(name, n -> {
+				try {
+					return CompletableFuture.completedFuture(load(n, file));
+				} catch (IOException e) {
+					return CompletableFuture.failedFuture(e);
+				}
+			}).join();
+		} catch (CompletionException ce) {
+			if (ce.getCause() instanceof IOException) {
+				throw (IOException) ce.getCause();
+			}
+			throw ce;
+		}
+	}
+
+	/**
+	 * Loads a city and evicts the least recently used ones if the budget would be
+	 * exceeded.
+	 */
+	private City load(final String name, final Path file) throws IOException {
+		final var before = System.nanoTime();
+		final var city = file.getFileName().toString().endsWith(PerimeterFile.extension) ? PerimeterFile.read(file)
+				: new City(file);
+		loadNanos.add(System.nanoTime() - before);
+		loads.increment();
+		synchronized (this) {
+			final var previous = loaded.put(name, city);
+			if (previous != null) {
+				loadedBytes -= previous.estimatedMemoryBytes();
+			}
+			loadedBytes += city.estimatedMemoryBytes();
+			final var it = loaded.values().iterator();
+			while (loadedBytes > memoryBudget && loaded.size() > 1) {
+				final var evicted = it.next();
+				it.remove();
+				loadedBytes -= evicted.estimatedMemoryBytes();
+				evictions.increment();
+			}
+		}
+		return city;
+	}
+
+	/**
+	 * Allows querying how many requests could be served from the loaded cities.
+	 * 
+	 * @return the number of requests that did not need loading
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Allows querying how many requests asked for a city that was not loaded.
+	 * 
+	 * @return the number of requests that needed loading (or waited for a load)
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Allows querying how many times boundary files were loaded.
+	 * 
+	 * @return the number of loads
+	 */
+	public long getLoads() {
+		return loads.sum();
+	}
+
+	/**
+	 * Allows querying how many cities were evicted to keep the budget.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Allows querying how long the loads took together.
+	 * 
+	 * @return the total time spent loading boundary files
+	 */
+	public Duration getTotalLoadTime() {
+		return Duration.ofNanos(loadNanos.sum());
+	}
+
+	/**
+	 * Allows querying how many cities are loaded at the moment.
+	 * 
+	 * @return the number of cities currently held by the registry
+	 */
+	public synchronized int getLoadedCount() {
+		return loaded.size();
+	}
+
+	/**
+	 * Allows querying how much memory the loaded cities occupy.
+	 * 
+	 * @return the estimated size of the cities currently held by the registry in
+	 *         bytes
+	 */
+	public synchronized long getLoadedBytes() {
+		return loadedBytes;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.UserList;
+
+/**
+ * A decorator for client interfaces that combines the identical requests that
+ * are in flight at the same time. Thus when many queries need the complete user
+ * list (or the citizens of the same city) at once, the service is only
+ * contacted once and all of them receive the same response. The returned lists
+ * are shared, so they must not be modified.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class CoalescingClientAPI implements AsyncClientAPI {
+	private static final String allUsersKey = "/users";
+	private static final String cityUsersPrefix = "/city/";
+
+	private final InjectableClientAPI delegate;
+	// Runs the requests of delegates that cannot send asynchronous ones
+	private final Executor requestExecutor;
+	private final InFlightRequests<String, UserList> inFlight = new InFlightRequests<>();
+
+	/**
+	 * Wraps a client interface.
+	 * 
+	 * @param delegate        The client interface that actually contacts the
+	 *                        service
+	 * @param requestExecutor Executes the synchronous calls of the delegate if it
+	 *                        is not an {@link AsyncClientAPI}
+	 */
+	public CoalescingClientAPI(final InjectableClientAPI delegate, final Executor requestExecutor) {
+		this.delegate = delegate;
+		this.requestExecutor = requestExecutor;
+	}
+
+	@Override
+	public ApiClient getApiClient() {
+		return delegate.getApiClient();
+	}
+
+	@Override
+	public UserList getUsers() throws ApiException {
+		return await(getUsersAsync());
+	}
+
+	@Override
+	public UserList getCityUsers(final String city) throws ApiException {
+		return await(getCityUsersAsync(city));
+	}
+
+	@Override
+	public CompletableFuture<UserList> getUsersAsync() {
+		return inFlight.request(allUsersKey, k -> {
+			if (delegate instanceof AsyncClientAPI) {
+				return ((AsyncClientAPI) delegate).getUsersAsync();
+			}
+			return onExecutor(delegate::getUsers);
+		});
+	}
+
+	@Override
+	public CompletableFuture<UserList> getCityUsersAsync(final String city) {
+		return inFlight.request(cityUsersPrefix + city, k -> {
+			if (delegate instanceof AsyncClientAPI) {
+				return ((AsyncClientAPI) delegate).getCityUsersAsync(city);
+			}
+			return onExecutor(() -> delegate.getCityUsers(city));
+		});
+	}
+
+	// A synchronous call of the delegate
+	private interface Call {
+		UserList get() throws ApiException;
+	}
+
+	/**
+	 * Runs a synchronous call of the delegate on the request executor. If the
+	 * executor no longer accepts requests, the call fails with an
+	 * {@link ApiException} as if the service could not be reached.
+	 */
+	private CompletableFuture<UserList> onExecutor(final Call call) {
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return call.get();
+				} catch (ApiException ae) {
+					throw new CompletionException(ae);
+				}
+			}, requestExecutor);
+		} catch (RejectedExecutionException ree) {
+			return CompletableFuture.failedFuture(new ApiException(ree));
+		}
+	}
+
+	/**
+	 * Waits for a request and turns its failure back to the exception of the
+	 * synchronous calls. Unchecked failures (e.g., bugs in the delegate) are
+	 * rethrown as they are, only the other checked ones are wrapped in an
+	 * {@link ApiException}.
+	 */
+	static <T> T await(final CompletableFuture<T> request) throws ApiException {
+		try {
+			return request.join();
+		} catch (CompletionException ce) {
+			final var cause = ce.getCause();
+			if (cause instanceof ApiException) {
+				throw (ApiException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ApiException(cause);
+		}
+	}
+}
@@ -23,21 +23,62 @@
 
 package bpdts;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 import bpdts.gen.ApiClient;
 import bpdts.gen.ApiException;
 import bpdts.gen.client.DefaultApi;
+import bpdts.gen.model.User;
 import bpdts.gen.model.UserList;
 
 /**
  * This class bridges the gap between the BpdtsAPI and the swagger generated
  * client to the service. It only offers the three basic functions the BpdtsAPI
- * will use.
+ * will use, as well as the streaming processing of the user list, the
+ * asynchronous variants of the calls and the single user lookups.
  * 
  * @author Gabor Kecskemeti
  *
  */
-public class DefaultClientAPI implements InjectableClientAPI {
+public class DefaultClientAPI implements StreamingClientAPI, AsyncClientAPI, UserLookupClientAPI {
 	private final DefaultApi api = new DefaultApi();
+	private volatile MetricsListener metrics = MetricsListener.none;
+
+	/**
+	 * Prepares a client that decodes the users to the generated model.
+	 */
+	public DefaultClientAPI() {
+		this(false, false);
+	}
+
+	/**
+	 * Prepares a client that can decode the users with primitive coordinates.
+	 * 
+	 * @param locatedUsers          If true, the users are decoded as
+	 *                              {@link LocatedUser}s (see
+	 *                              {@link LocatedUserAdapter}). Note that these
+	 *                              are never equal to the plain generated users.
+	 * @param precomputeUnitVectors If true (and the users are located), the
+	 *                              earth centred unit vectors of the users are
+	 *                              calculated while decoding, see
+	 *                              {@link LocatedUserAdapter#LocatedUserAdapter(boolean)}
+	 */
+	public DefaultClientAPI(final boolean locatedUsers, final boolean precomputeUnitVectors) {
+		if (locatedUsers) {
+			LocatedUserAdapter.register(api.getApiClient().getJSON(), precomputeUnitVectors);
+		}
+	}
+
+	/**
+	 * Allows the decoding of the streamed user lists to be measured.
+	 * 
+	 * @param metrics Where to report the measurements, null disables them
+	 */
+	public void setMetricsListener(final MetricsListener metrics) {
+		this.metrics = metrics == null ? MetricsListener.none : metrics;
+	}
 
 	/**
 	 * Allows querying the ApiClient which does the actual HTTP communication
@@ -72,4 +113,70 @@ public class DefaultClientAPI implements InjectableClientAPI {
 		return api.getCityUsers(city);
 	}
 
+	/**
+	 * Initiates a synchronous service call to get a single user.
+	 * 
+	 * @see UserLookupClientAPI#getUser(int)
+	 */
+	@Override
+	public User getUser(final int id) throws ApiException {
+		return api.getUser(Integer.toString(id));
+	}
+
+	/**
+	 * Initiates an asynchronous service call to get all users listed in the
+	 * database. The request is executed by the http client's own thread pool.
+	 * 
+	 * @see AsyncClientAPI#getUsersAsync()
+	 */
+	@Override
+	public CompletableFuture<UserList> getUsersAsync() {
+		final var callback = new FutureCallback<UserList>();
+		try {
+			api.getUsersAsync(callback);
+		} catch (ApiException e) {
+			callback.future.completeExceptionally(e);
+		}
+		return callback.future;
+	}
+
+	/**
+	 * Initiates an asynchronous service call to get all users listed to reside in
+	 * a particular city.
+	 * 
+	 * @see AsyncClientAPI#getCityUsersAsync(String)
+	 */
+	@Override
+	public CompletableFuture<UserList> getCityUsersAsync(final String city) {
+		final var callback = new FutureCallback<UserList>();
+		try {
+			api.getCityUsersAsync(city, callback);
+		} catch (ApiException e) {
+			callback.future.completeExceptionally(e);
+		}
+		return callback.future;
+	}
+
+	/**
+	 * Initiates a synchronous service call to get all users listed in the database,
+	 * the response body is decoded while it is being received.
+	 * 
+	 * @see StreamingClientAPI#forEachUser(Consumer)
+	 */
+	@Override
+	public void forEachUser(final Consumer<User> action) throws ApiException {
+		final var client = api.getApiClient();
+		try {
+			final var response = api.getUsersCall(null, null).execute();
+			if (!response.isSuccessful()) {
+				// Lets the generated client produce the usual exception
+				client.handleResponse(response, null);
+			}
+			try (var body = response.body().charStream()) {
+				StreamingUserReader.forEachUser(client.getJSON().getGson(), body, action, metrics);
+			}
+		} catch (IOException e) {
+			throw new ApiException(e);
+		}
+	}
 }
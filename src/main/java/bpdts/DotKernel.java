@@ -0,0 +1,177 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+/**
+ * The innermost loop of the perimeter distance calculations: it looks for the
+ * largest dot product between a unit vector and the packed unit vectors of a
+ * perimeter. The largest dot product belongs to the closest perimeter point, so
+ * there is no need for acos calls during the search.
+ * 
+ * <p>
+ * The scalar kernel is always available. The vector kernel uses the incubating
+ * JDK Vector API, it is only present if the project was built with the
+ * <code>vector</code> profile and the JVM was started with
+ * <code>--add-modules jdk.incubator.vector</code>. The kernel cities use by
+ * default can be chosen with the <code>bpdts.dotKernel</code> system property
+ * (scalar, vector or auto) and can be changed at runtime via
+ * {@link City#setDotKernel(DotKernel)}.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface DotKernel {
+	String propertyName = "bpdts.dotKernel";
+	String vectorKernelClass = "bpdts.VectorDotKernel";
+	// Up to this many points the scalar scans are faster than a KD-tree search
+	int scalarScanThreshold = 64;
+
+	/**
+	 * The plain loop, which is what the JIT can auto-vectorise on its own.
+	 */
+	DotKernel scalar = new DotKernel() {
+		@Override
+		public double maxDot(final double[] x, final double[] y, final double[] z, final int n, final double ux,
+				final double uy, final double uz) {
+			var best = -1.0;
+			for (int i = 0; i < n; i++) {
+				final var dot = x[i] * ux + y[i] * uy + z[i] * uz;
+				if (dot > best) {
+					best = dot;
+				}
+			}
+			return best;
+		}
+
+		@Override
+		public String name() {
+			return "scalar";
+		}
+	};
+
+	/**
+	 * Determines the largest dot product between the given unit vector and the
+	 * first n points of the packed perimeter.
+	 * 
+	 * @param x  The x components of the perimeter's unit vectors
+	 * @param y  The y components of the perimeter's unit vectors
+	 * @param z  The z components of the perimeter's unit vectors
+	 * @param n  The number of points to consider from the arrays
+	 * @param ux The x component of the unit vector
+	 * @param uy The y component of the unit vector
+	 * @param uz The z component of the unit vector
+	 * @return The largest dot product or -1 if there are no points to consider
+	 */
+	double maxDot(double[] x, double[] y, double[] z, int n, double ux, double uy, double uz);
+
+	/**
+	 * Determines if any of the first n points of the packed perimeter has a
+	 * larger dot product with the given unit vector than the limit. The search
+	 * stops at the first such point.
+	 * 
+	 * @param x      The x components of the perimeter's unit vectors
+	 * @param y      The y components of the perimeter's unit vectors
+	 * @param z      The z components of the perimeter's unit vectors
+	 * @param n      The number of points to consider from the arrays
+	 * @param ux     The x component of the unit vector
+	 * @param uy     The y component of the unit vector
+	 * @param uz     The z component of the unit vector
+	 * @param minDot The limit the dot product should exceed
+	 * @return true if there is a point closer than the limit
+	 */
+	default boolean anyDotAbove(final double[] x, final double[] y, final double[] z, final int n, final double ux,
+			final double uy, final double uz, final double minDot) {
+		for (int i = 0; i < n; i++) {
+			if (x[i] * ux + y[i] * uy + z[i] * uz > minDot) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells the cities when to scan their perimeters with this kernel instead of
+	 * searching their KD-trees.
+	 * 
+	 * @return the longest perimeter for which the scans are faster than the tree
+	 */
+	default int scanThreshold() {
+		return scalarScanThreshold;
+	}
+
+	/**
+	 * Allows logging and benchmarks to tell which kernel is in use.
+	 * 
+	 * @return the short name of the kernel (e.g., scalar)
+	 */
+	String name();
+
+	/**
+	 * Loads the Vector API based kernel if it is possible.
+	 * 
+	 * @return the vector kernel or null if it was not compiled in or the
+	 *         jdk.incubator.vector module is not available in this JVM
+	 */
+	static DotKernel vector() {
+		try {
+			return (DotKernel) Class.forName(vectorKernelClass).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Selects a kernel by its name, falling back to the scalar one if the
+	 * requested kernel is not available.
+	 * 
+	 * @param name scalar, vector or auto (which prefers vector if present). Null
+	 *             is treated as auto.
+	 * @return the selected kernel, never null
+	 * @throws IllegalArgumentException if the name is not one of the above
+	 */
+	static DotKernel select(final String name) {
+		if (name == null || "auto".equals(name) || "vector".equals(name)) {
+			final var vector = vector();
+			return vector == null ? scalar : vector;
+		} else if ("scalar".equals(name)) {
+			return scalar;
+		}
+		throw new IllegalArgumentException("Unknown dot product kernel: " + name);
+	}
+
+	/**
+	 * The kernel as configured by the bpdts.dotKernel system property. Unknown
+	 * names in the property are treated as auto, so a typo never prevents the
+	 * cities from working.
+	 * 
+	 * @return the kernel to use by default
+	 */
+	static DotKernel configured() {
+		try {
+			return select(System.getProperty(propertyName));
+		} catch (IllegalArgumentException e) {
+			return select(null);
+		}
+	}
+}
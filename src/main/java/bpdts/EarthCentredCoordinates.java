@@ -55,6 +55,20 @@ public class EarthCentredCoordinates {
 		this.z = earthRadiusMiles * Math.sin(latRad);
 	}
 
+	/**
+	 * Allows the direct creation of earth centred coordinates if they were already
+	 * calculated (e.g., by one of the distance kernels of the City class).
+	 * 
+	 * @param x The x coordinate in miles
+	 * @param y The y coordinate in miles
+	 * @param z The z coordinate in miles
+	 */
+	public EarthCentredCoordinates(final double x, final double y, final double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
 	/**
 	 * This method calculates distances between two points on the surface of the
 	 * earth represented in earth centred coordinates. This assumes a spherical
@@ -71,4 +85,18 @@ public class EarthCentredCoordinates {
 				* Math.acos(Math.max(-1, Math.min(1, (p1.x * p2.x + p1.y * p2.y + p1.z * p2.z) / earthRadiusSquared)));
 	}
 
+	/**
+	 * Turns the dot product of two unit vectors (i.e., the cosine of the angle
+	 * between them) to a distance on the surface of the earth. This allows the
+	 * distance kernels to compare dot products and only call acos once they found
+	 * the closest point.
+	 * 
+	 * @param dot The dot product of two unit vectors pointing from the centre of
+	 *            the earth
+	 * @return The distance between the two points the vectors point to.
+	 */
+	public static double distanceFromDot(final double dot) {
+		return earthRadiusMiles * Math.acos(Math.max(-1, Math.min(1, dot)));
+	}
+
 }
\ No newline at end of file
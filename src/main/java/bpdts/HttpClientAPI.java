@@ -0,0 +1,343 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.JsonParseException;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * A client interface built on the JDK's own http client instead of the swagger
+ * generated one (and its okhttp 2). It negotiates HTTP/2 with the service if
+ * possible, so the concurrent requests for /users and /city/{city}/users are
+ * multiplexed over a single connection. It asks for gzip compressed responses
+ * and decodes the user lists while they are received with the same gson model
+ * the generated client uses (optionally with the {@link LocatedUserAdapter}).
+ * 
+ * The generated ApiClient is still kept, but only for its configuration: the
+ * base path set on it (e.g., by the BpdtsAPI) is where the requests go.
+ * 
+ * The connection pool of the JDK's client can only be tuned through system
+ * properties that are read when the client is first used, see
+ * {@link #configureConnectionPool(int, Duration)}.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class HttpClientAPI implements StreamingClientAPI, AsyncClientAPI, UserLookupClientAPI {
+	public static final Duration defaultConnectTimeout = Duration.ofSeconds(10);
+
+	private final ApiClient apiClient = new ApiClient();
+	private final HttpClient http;
+	private final boolean gzip;
+	private final Duration requestTimeout;
+	private volatile MetricsListener metrics = MetricsListener.none;
+
+	/**
+	 * The json decoding that is done on the response body.
+	 */
+	private interface BodyDecoder<T> {
+		T decode(Reader body) throws IOException;
+	}
+
+	/**
+	 * Creates a client interface preferring HTTP/2 and gzip compressed responses,
+	 * without a timeout on the individual requests. The users are decoded to the
+	 * generated model.
+	 */
+	public HttpClientAPI() {
+		this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(defaultConnectTimeout)
+				.followRedirects(HttpClient.Redirect.NORMAL).build(), true, null);
+	}
+
+	/**
+	 * Creates a client interface with full control over the http client, the
+	 * users are decoded to the generated model.
+	 * 
+	 * @param http           The client to send the requests with (its version,
+	 *                       executor, connection timeout etc. are used as is)
+	 * @param gzip           If true, compressed responses are requested
+	 * @param requestTimeout The longest time to wait for the response headers of
+	 *                       a request, null means no limit
+	 */
+	public HttpClientAPI(final HttpClient http, final boolean gzip, final Duration requestTimeout) {
+		this(http, gzip, requestTimeout, false);
+	}
+
+	/**
+	 * Creates a client interface with full control over the http client.
+	 * 
+	 * @param http           The client to send the requests with (its version,
+	 *                       executor, connection timeout etc. are used as is)
+	 * @param gzip           If true, compressed responses are requested
+	 * @param requestTimeout The longest time to wait for the response headers of
+	 *                       a request, null means no limit
+	 * @param locatedUsers   If true, the users are decoded as
+	 *                       {@link LocatedUser}s (which are never equal to the
+	 *                       plain generated users)
+	 */
+	public HttpClientAPI(final HttpClient http, final boolean gzip, final Duration requestTimeout,
+			final boolean locatedUsers) {
+		this.http = http;
+		this.gzip = gzip;
+		this.requestTimeout = requestTimeout;
+		if (locatedUsers) {
+			LocatedUserAdapter.register(apiClient.getJSON(), false);
+		}
+	}
+
+	/**
+	 * Tunes the connection pool of the JDK's http client. This must be called
+	 * before the first http client is created in the JVM, as the settings are read
+	 * only once. Settings given on the command line are not overridden.
+	 * 
+	 * @param maxIdleConnections How many idle connections are kept at most (0
+	 *                           means no limit)
+	 * @param keepAlive          How long an idle connection is kept
+	 */
+	public static void configureConnectionPool(final int maxIdleConnections, final Duration keepAlive) {
+		if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+			System.setProperty("jdk.httpclient.connectionPoolSize", Integer.toString(maxIdleConnections));
+		}
+		if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+			System.setProperty("jdk.httpclient.keepalive.timeout", Long.toString(keepAlive.toSeconds()));
+		}
+	}
+
+	/**
+	 * Allows the requests and the decoding to be measured.
+	 * 
+	 * @param metrics Where to report the measurements, null disables them
+	 */
+	public void setMetricsListener(final MetricsListener metrics) {
+		this.metrics = metrics == null ? MetricsListener.none : metrics;
+	}
+
+	/**
+	 * The ApiClient is only used to hold the base path and the json configuration
+	 * of the service, it does not send requests.
+	 * 
+	 * @see InjectableClientAPI#getApiClient()
+	 */
+	@Override
+	public ApiClient getApiClient() {
+		return apiClient;
+	}
+
+	/**
+	 * Allows querying the JDK client that sends the requests.
+	 * 
+	 * @return the http client in use
+	 */
+	public HttpClient getHttpClient() {
+		return http;
+	}
+
+	@Override
+	public UserList getUsers() throws ApiException {
+		return send(usersPath(), body -> apiClient.getJSON().getGson().fromJson(body, UserList.class));
+	}
+
+	@Override
+	public UserList getCityUsers(final String city) throws ApiException {
+		return send(cityUsersPath(city), body -> apiClient.getJSON().getGson().fromJson(body, UserList.class));
+	}
+
+	@Override
+	public User getUser(final int id) throws ApiException {
+		return send("/user/" + id, body -> apiClient.getJSON().getGson().fromJson(body, User.class));
+	}
+
+	/**
+	 * Decodes the user list while it is being received.
+	 * 
+	 * @see StreamingClientAPI#forEachUser(Consumer)
+	 */
+	@Override
+	public void forEachUser(final Consumer<User> action) throws ApiException {
+		final var m = metrics;
+		send(usersPath(), body -> {
+			StreamingUserReader.forEachUser(apiClient.getJSON().getGson(), body, action, m);
+			return null;
+		});
+	}
+
+	/**
+	 * Sends the request without blocking, the body is collected by the http
+	 * client and is decoded once it has completely arrived.
+	 * 
+	 * @see AsyncClientAPI#getUsersAsync()
+	 */
+	@Override
+	public CompletableFuture<UserList> getUsersAsync() {
+		return sendAsync(usersPath(), body -> apiClient.getJSON().getGson().fromJson(body, UserList.class));
+	}
+
+	/**
+	 * @see #getUsersAsync()
+	 * @see AsyncClientAPI#getCityUsersAsync(String)
+	 */
+	@Override
+	public CompletableFuture<UserList> getCityUsersAsync(final String city) {
+		return sendAsync(cityUsersPath(city), body -> apiClient.getJSON().getGson().fromJson(body, UserList.class));
+	}
+
+	private static String usersPath() {
+		return "/users";
+	}
+
+	private String cityUsersPath(final String city) {
+		return "/city/" + apiClient.escapeString(city) + "/users";
+	}
+
+	private HttpRequest request(final String path) {
+		final var builder = HttpRequest.newBuilder(URI.create(apiClient.getBasePath() + path)).GET()
+				.header("Accept", "application/json");
+		if (gzip) {
+			builder.header("Accept-Encoding", "gzip");
+		}
+		if (requestTimeout != null) {
+			builder.timeout(requestTimeout);
+		}
+		return builder.build();
+	}
+
+	private <T> T send(final String path, final BodyDecoder<T> decoder) throws ApiException {
+		final var before = System.nanoTime();
+		try {
+			return decode(path, http.send(request(path), HttpResponse.BodyHandlers.ofInputStream()), before,
+					decoder);
+		} catch (IOException e) {
+			throw new ApiException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(e);
+		}
+	}
+
+	private <T> CompletableFuture<T> sendAsync(final String path, final BodyDecoder<T> decoder) {
+		final var before = System.nanoTime();
+		final var result = new CompletableFuture<T>();
+		http.sendAsync(request(path), HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, failure) -> {
+			if (failure != null) {
+				result.completeExceptionally(new ApiException(failure));
+				return;
+			}
+			try {
+				result.complete(decode(path, response.statusCode(), response.headers(),
+						new ByteArrayInputStream(response.body()), before, decoder));
+			} catch (IOException e) {
+				result.completeExceptionally(new ApiException(e));
+			} catch (ApiException | RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	private <T> T decode(final String path, final HttpResponse<InputStream> response, final long before,
+			final BodyDecoder<T> decoder) throws ApiException, IOException {
+		return decode(path, response.statusCode(), response.headers(), response.body(), before, decoder);
+	}
+
+	/**
+	 * Reports the response to the metrics, decompresses it if needed and either
+	 * decodes it or turns it to an ApiException if the service reported an
+	 * error.
+	 */
+	private <T> T decode(final String path, final int status, final HttpHeaders headers,
+			final InputStream body, final long before, final BodyDecoder<T> decoder) throws ApiException, IOException {
+		final var m = metrics;
+		final var endpoint = MetricsInterceptor.endpointOf(path);
+		m.httpResponse(endpoint, status, System.nanoTime() - before);
+		final var counted = new CountingInputStream(body);
+		try (var reader = new InputStreamReader(headers.firstValue("Content-Encoding")
+				.filter(e -> e.equalsIgnoreCase("gzip")).isPresent() ? new GZIPInputStream(counted) : counted,
+				StandardCharsets.UTF_8)) {
+			if (status / 100 != 2) {
+				final var text = new StringBuilder();
+				final var buffer = new char[4096];
+				for (int read; (read = reader.read(buffer)) > 0;) {
+					text.append(buffer, 0, read);
+				}
+				throw new ApiException("HTTP " + status, status, headers.map(), text.toString());
+			}
+			return decoder.decode(reader);
+		} catch (JsonParseException e) {
+			throw new ApiException(e);
+		} finally {
+			m.responseBytes(endpoint, counted.count);
+		}
+	}
+
+	/**
+	 * Counts the bytes of the response body as they were received (i.e., before
+	 * decompression).
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final var b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final var read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Combines the identical requests that are in flight at the same time: while a
+ * request is not complete, all later requests with the same key receive the
+ * future of the first one instead of issuing another request.
+ * 
+ * @author Gabor Kecskemeti
+ * 
+ * @param <K> The type of the keys identifying the requests
+ * @param <V> The type of the results of the requests
+ */
+public class InFlightRequests<K, V> {
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the future of the in flight request with the key, or starts a new
+	 * request if there is none.
+	 * 
+	 * @param key     Identifies the request
+	 * @param starter Issues the request if there is none in flight with the key
+	 * @return The future of the request's result
+	 */
+	public CompletableFuture<V> request(final K key, final Function<K, CompletableFuture<V>> starter) {
+		final var mine = new CompletableFuture<V>();
+		final var existing = inFlight.putIfAbsent(key, mine);
+		if (existing != null) {
+			return existing;
+		}
+		CompletableFuture<V> started;
+		try {
+			started = starter.apply(key);
+		} catch (RuntimeException re) {
+			started = CompletableFuture.failedFuture(re);
+		}
+		started.whenComplete((v, t) -> {
+			// The key is released before the waiters are notified, so they can issue a
+			// fresh request right away
+			inFlight.remove(key, mine);
+			if (t == null) {
+				mine.complete(v);
+			} else {
+				mine.completeExceptionally(t);
+			}
+		});
+		return mine;
+	}
+
+	/**
+	 * Allows querying the number of requests in flight.
+	 * 
+	 * @return the number of distinct keys with incomplete requests
+	 */
+	public int size() {
+		return inFlight.size();
+	}
+}
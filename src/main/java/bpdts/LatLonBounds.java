@@ -0,0 +1,237 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Arrays;
+
+/**
+ * A latitude/longitude bounding box around a set of points on the surface of
+ * the earth. The longitude range is the shortest one covering all points, thus
+ * it might wrap around the antimeridian (in which case the minimum longitude is
+ * larger than the maximum). The box allows rejecting far away locations
+ * without any trigonometric calculations. The data in the objects of this class
+ * is immutable.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class LatLonBounds {
+	// The boundaries in degrees
+	public final double minLat, maxLat, minLon, maxLon;
+
+	/**
+	 * Allows the creation of a box with known boundaries.
+	 * 
+	 * @param minLat The southernmost latitude
+	 * @param maxLat The northernmost latitude
+	 * @param minLon The westernmost longitude
+	 * @param maxLon The easternmost longitude (smaller than minLon if the box
+	 *               wraps around the antimeridian)
+	 */
+	public LatLonBounds(final double minLat, final double maxLat, final double minLon, final double maxLon) {
+		this.minLat = minLat;
+		this.maxLat = maxLat;
+		this.minLon = minLon;
+		this.maxLon = maxLon;
+	}
+
+	/**
+	 * Determines the bounding box of the specified unit vectors. The longitude
+	 * range is the complement of the largest longitude gap between the points.
+	 * 
+	 * @param x The x components of the unit vectors
+	 * @param y The y components of the unit vectors
+	 * @param z The z components of the unit vectors
+	 * @return The bounding box, or a box covering the whole globe if there are no
+	 *         points.
+	 */
+	public static LatLonBounds of(final double[] x, final double[] y, final double[] z) {
+		if (x.length == 0) {
+			return new LatLonBounds(-90, 90, -180, 180);
+		}
+		var minLat = 90.0;
+		var maxLat = -90.0;
+		final var lons = new double[x.length];
+		for (int i = 0; i < x.length; i++) {
+			final var lat = Math.asin(Math.max(-1, Math.min(1, z[i]))) / EarthCentredCoordinates.radPerDegree;
+			minLat = Math.min(minLat, lat);
+			maxLat = Math.max(maxLat, lat);
+			lons[i] = Math.atan2(y[i], x[i]) / EarthCentredCoordinates.radPerDegree;
+		}
+		Arrays.sort(lons);
+		// The gap between the last and the first longitude wraps around the globe
+		var gapStart = lons.length - 1;
+		var largestGap = lons[0] + 360 - lons[lons.length - 1];
+		for (int i = 0; i < lons.length - 1; i++) {
+			final var gap = lons[i + 1] - lons[i];
+			if (gap > largestGap) {
+				largestGap = gap;
+				gapStart = i;
+			}
+		}
+		return new LatLonBounds(minLat, maxLat, lons[(gapStart + 1) % lons.length], lons[gapStart]);
+	}
+
+	/**
+	 * Determines the bounding box of a closed perimeter whose consecutive points
+	 * (and its last and first point) are connected by great circle arcs. Unlike
+	 * the box of the points alone, this also covers the parts of the arcs that
+	 * bulge towards the poles beyond their end points.
+	 * 
+	 * @param x The x components of the perimeter's unit vectors
+	 * @param y The y components of the perimeter's unit vectors
+	 * @param z The z components of the perimeter's unit vectors
+	 * @return The bounding box, or a box covering the whole globe if there are no
+	 *         points.
+	 */
+	public static LatLonBounds ofArcs(final double[] x, final double[] y, final double[] z) {
+		final var points = of(x, y, z);
+		final var n = x.length;
+		if (n < 2) {
+			return points;
+		}
+		var minLat = points.minLat;
+		var maxLat = points.maxLat;
+		var fullLon = false;
+		final var gapWidth = (points.minLon - points.maxLon + 360) % 360;
+		final var gapMiddle = points.maxLon + gapWidth / 2;
+		for (int i = 0; i < n; i++) {
+			final var j = (i + 1) % n;
+			// The normal of the arc's great circle
+			final var nx = y[i] * z[j] - z[i] * y[j];
+			final var ny = z[i] * x[j] - x[i] * z[j];
+			final var nz = x[i] * y[j] - y[i] * x[j];
+			final var len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len < 1e-15) {
+				continue;
+			}
+			// The northernmost point of the great circle (unnormalised), the
+			// southernmost one is its opposite
+			final var cosPeak = Math.abs(nz) / len;
+			if (cosPeak < 1 - 1e-15) {
+				final var k = nz / len / len;
+				final var px = -k * nx;
+				final var py = -k * ny;
+				final var pz = 1 - k * nz;
+				final var peakLat = Math.acos(cosPeak) / EarthCentredCoordinates.radPerDegree;
+				final var northSide = onArc(x[i], y[i], z[i], px, py, pz, nx, ny, nz)
+						&& onArc(px, py, pz, x[j], y[j], z[j], nx, ny, nz);
+				final var southSide = onArc(x[i], y[i], z[i], -px, -py, -pz, nx, ny, nz)
+						&& onArc(-px, -py, -pz, x[j], y[j], z[j], nx, ny, nz);
+				if (northSide) {
+					maxLat = Math.max(maxLat, peakLat);
+				}
+				if (southSide) {
+					minLat = Math.min(minLat, -peakLat);
+				}
+			}
+			// The arcs run the shorter way between their ends' longitudes, the ones
+			// spanning the gap between the points' longitudes invalidate the range
+			final var span = normalisedLon(lonOf(x[j], y[j]) - lonOf(x[i], y[i]));
+			final var toGap = normalisedLon(gapMiddle - lonOf(x[i], y[i]));
+			if (Math.abs(span) >= 180 || span > 0 && toGap > 0 && toGap < span
+					|| span < 0 && toGap < 0 && toGap > span) {
+				fullLon = true;
+			}
+		}
+		return fullLon ? new LatLonBounds(minLat, maxLat, -180, 180)
+				: new LatLonBounds(minLat, maxLat, points.minLon, points.maxLon);
+	}
+
+	/**
+	 * Tells if the rotation from a to b is in the direction of the normal, i.e.,
+	 * if b is at most half a great circle ahead of a.
+	 */
+	private static boolean onArc(final double ax, final double ay, final double az, final double bx,
+			final double by, final double bz, final double nx, final double ny, final double nz) {
+		return (ay * bz - az * by) * nx + (az * bx - ax * bz) * ny + (ax * by - ay * bx) * nz >= 0;
+	}
+
+	private static double lonOf(final double x, final double y) {
+		return Math.atan2(y, x) / EarthCentredCoordinates.radPerDegree;
+	}
+
+	/**
+	 * @return the longitude difference in the range of (-180,180]
+	 */
+	private static double normalisedLon(final double difference) {
+		final var d = difference % 360;
+		return d > 180 ? d - 360 : d <= -180 ? d + 360 : d;
+	}
+
+	/**
+	 * Determines how far a location's longitude can be from the box if the
+	 * location is still to be within a particular distance to any point in the
+	 * box. The calculation is based on the haversine formula assuming the
+	 * location's latitude is within the latitude slack of the box.
+	 * 
+	 * @param angle The distance limit as an angle (in radians)
+	 * @return The acceptable longitude difference in degrees (infinite if there is
+	 *         no limit on longitude).
+	 */
+	public double lonSlackFor(final double angle) {
+		final var latSlack = angle / EarthCentredCoordinates.radPerDegree;
+		final var maxAbsLat = Math.max(Math.abs(minLat - latSlack), Math.abs(maxLat + latSlack));
+		if (maxAbsLat >= 90 || angle >= Math.PI) {
+			return Double.POSITIVE_INFINITY;
+		}
+		final var sinHalfLon = Math.sin(angle / 2) / Math.cos(maxAbsLat * EarthCentredCoordinates.radPerDegree);
+		return sinHalfLon >= 1 ? Double.POSITIVE_INFINITY
+				: 2 * Math.asin(sinHalfLon) / EarthCentredCoordinates.radPerDegree;
+	}
+
+	/**
+	 * Checks if a location could be close to the box.
+	 * 
+	 * @param lat      The latitude of the location
+	 * @param lon      The longitude of the location
+	 * @param latSlack How far (in degrees) the latitude can be from the box
+	 * @param lonSlack How far (in degrees) the longitude can be from the box, see
+	 *                 {@link #lonSlackFor(double)}
+	 * @return false if the location is certainly farther from the box than allowed
+	 *         by the slack values.
+	 */
+	public boolean mayContain(final double lat, final double lon, final double latSlack, final double lonSlack) {
+		if (lat < minLat - latSlack || lat > maxLat + latSlack) {
+			return false;
+		}
+		return lonSlack == Double.POSITIVE_INFINITY || lonDistance(lon) <= lonSlack;
+	}
+
+	/**
+	 * Determines how far a longitude is from the longitude range of the box.
+	 * 
+	 * @param lon The longitude to check
+	 * @return The difference in degrees, 0 if the longitude is within the range.
+	 */
+	public double lonDistance(final double lon) {
+		final var inside = minLon <= maxLon ? lon >= minLon && lon <= maxLon : lon >= minLon || lon <= maxLon;
+		return inside ? 0 : Math.min(lonDifference(lon, minLon), lonDifference(lon, maxLon));
+	}
+
+	private static double lonDifference(final double a, final double b) {
+		final var d = Math.abs(a - b);
+		return Math.min(d, 360 - d);
+	}
+}
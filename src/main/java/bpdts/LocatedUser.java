@@ -0,0 +1,277 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+import bpdts.gen.model.User;
+
+/**
+ * A user as decoded by {@link LocatedUserAdapter}: the location is kept as
+ * primitive doubles, so the distance calculations do not need to convert
+ * BigDecimals for every check. The BigDecimal view of the location expected by
+ * the generated model is only created if someone asks for it. The unit vector
+ * of the location can also be calculated at decoding time, so the cities can
+ * skip the trigonometry during their checks.
+ * 
+ * <p>
+ * The static helpers allow the hot paths to read the location of any user,
+ * taking the shortcut for the located ones.
+ * 
+ * <p>
+ * NOTE: like the generated model, the equality of users is only defined within
+ * the same class. A located user is never equal to a plain generated user,
+ * thus the client interfaces only decode located users if asked to. Two
+ * located users are equal if their coordinates have the same values (the
+ * scale of the BigDecimals does not matter). Comparing, hashing or printing a
+ * located user does not create its BigDecimal view.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class LocatedUser extends User {
+	// NaN if the coordinate was not present
+	private double latitude = Double.NaN, longitude = Double.NaN;
+	// NaN ux if the unit vector was not precalculated
+	private double ux = Double.NaN, uy, uz;
+
+	/**
+	 * Sets the location without creating the BigDecimal view.
+	 * 
+	 * @param latitude  The latitude, NaN if not known
+	 * @param longitude The longitude, NaN if not known
+	 */
+	public void setLocation(final double latitude, final double longitude) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+		super.setLatitude(null);
+		super.setLongitude(null);
+		ux = Double.NaN;
+	}
+
+	/**
+	 * Calculates the earth centred unit vector of the location so later checks
+	 * can do without trigonometry. Does nothing if the location is not complete.
+	 */
+	void precomputeUnitVector() {
+		if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+			return;
+		}
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitude;
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitude;
+		final var cosLat = Math.cos(latRad);
+		uy = cosLat * Math.sin(lonRad);
+		uz = Math.sin(latRad);
+		ux = cosLat * Math.cos(lonRad);
+	}
+
+	/**
+	 * @return true if {@link #precomputeUnitVector()} was called since the last
+	 *         change of the location
+	 */
+	boolean hasUnitVector() {
+		return !Double.isNaN(ux);
+	}
+
+	double unitX() {
+		return ux;
+	}
+
+	double unitY() {
+		return uy;
+	}
+
+	double unitZ() {
+		return uz;
+	}
+
+	@Override
+	public BigDecimal getLatitude() {
+		var value = super.getLatitude();
+		if (value == null && !Double.isNaN(latitude)) {
+			value = BigDecimal.valueOf(latitude);
+			super.setLatitude(value);
+		}
+		return value;
+	}
+
+	@Override
+	public BigDecimal getLongitude() {
+		var value = super.getLongitude();
+		if (value == null && !Double.isNaN(longitude)) {
+			value = BigDecimal.valueOf(longitude);
+			super.setLongitude(value);
+		}
+		return value;
+	}
+
+	/**
+	 * The BigDecimal view of a coordinate, without storing it.
+	 */
+	private static BigDecimal viewOf(final BigDecimal stored, final double value) {
+		return stored != null || Double.isNaN(value) ? stored : BigDecimal.valueOf(value);
+	}
+
+	@Override
+	public void setLatitude(final BigDecimal latitude) {
+		super.setLatitude(latitude);
+		this.latitude = latitude == null ? Double.NaN : latitude.doubleValue();
+		ux = Double.NaN;
+	}
+
+	@Override
+	public void setLongitude(final BigDecimal longitude) {
+		super.setLongitude(longitude);
+		this.longitude = longitude == null ? Double.NaN : longitude.doubleValue();
+		ux = Double.NaN;
+	}
+
+	@Override
+	public User latitude(final BigDecimal latitude) {
+		setLatitude(latitude);
+		return this;
+	}
+
+	@Override
+	public User longitude(final BigDecimal longitude) {
+		setLongitude(longitude);
+		return this;
+	}
+
+	/**
+	 * Ensures the BigDecimal view exists, as the generated model is encoded from
+	 * its fields directly.
+	 */
+	void materialise() {
+		getLatitude();
+		getLongitude();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final var other = (LocatedUser) o;
+		return Double.compare(latitude, other.latitude) == 0 && Double.compare(longitude, other.longitude) == 0
+				&& Objects.equals(getId(), other.getId()) && Objects.equals(getFirstName(), other.getFirstName())
+				&& Objects.equals(getLastName(), other.getLastName()) && Objects.equals(getEmail(), other.getEmail())
+				&& Objects.equals(getIpAddress(), other.getIpAddress()) && Objects.equals(getCity(), other.getCity());
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(getId(), getFirstName(), getLastName(), getEmail(), getIpAddress(), latitude, longitude,
+				getCity());
+	}
+
+	/**
+	 * Prints the user the way the generated model does.
+	 */
+	@Override
+	public String toString() {
+		final var view = new User();
+		view.setId(getId());
+		view.setFirstName(getFirstName());
+		view.setLastName(getLastName());
+		view.setEmail(getEmail());
+		view.setIpAddress(getIpAddress());
+		view.setLatitude(viewOf(super.getLatitude(), latitude));
+		view.setLongitude(viewOf(super.getLongitude(), longitude));
+		view.setCity(getCity());
+		return view.toString();
+	}
+
+	/**
+	 * Reads the latitude of any user without failing on missing values.
+	 * 
+	 * @param u The user to investigate
+	 * @return the latitude or NaN if the user has none
+	 */
+	public static double latitudeOrNaN(final User u) {
+		if (u instanceof LocatedUser) {
+			return ((LocatedUser) u).latitude;
+		}
+		final var value = u.getLatitude();
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 * Reads the longitude of any user without failing on missing values.
+	 * 
+	 * @param u The user to investigate
+	 * @return the longitude or NaN if the user has none
+	 */
+	public static double longitudeOrNaN(final User u) {
+		if (u instanceof LocatedUser) {
+			return ((LocatedUser) u).longitude;
+		}
+		final var value = u.getLongitude();
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 * Reads the latitude of any user.
+	 * 
+	 * @param u The user to investigate
+	 * @return the latitude
+	 * @throws NullPointerException if the user has no latitude
+	 */
+	public static double latitudeOf(final User u) {
+		final var value = latitudeOrNaN(u);
+		if (Double.isNaN(value)) {
+			throw new NullPointerException("The user has no latitude");
+		}
+		return value;
+	}
+
+	/**
+	 * Reads the longitude of any user.
+	 * 
+	 * @param u The user to investigate
+	 * @return the longitude
+	 * @throws NullPointerException if the user has no longitude
+	 */
+	public static double longitudeOf(final User u) {
+		final var value = longitudeOrNaN(u);
+		if (Double.isNaN(value)) {
+			throw new NullPointerException("The user has no longitude");
+		}
+		return value;
+	}
+
+	/**
+	 * Allows checking if the user has a complete location.
+	 * 
+	 * @param u The user to investigate
+	 * @return true if both the latitude and the longitude is known
+	 */
+	public static boolean isLocated(final User u) {
+		return !Double.isNaN(latitudeOrNaN(u)) && !Double.isNaN(longitudeOrNaN(u));
+	}
+}
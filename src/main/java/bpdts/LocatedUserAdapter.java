@@ -0,0 +1,151 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import bpdts.gen.JSON;
+import bpdts.gen.model.User;
+
+/**
+ * Decodes the users of the service straight to {@link LocatedUser}s, reading
+ * the coordinates as primitive doubles instead of going through BigDecimals.
+ * Once registered with the generated JSON class, every user list decoded by
+ * the generated client (including the streamed ones) is made of located users.
+ * Encoding is left to gson's usual reflection based adapter.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class LocatedUserAdapter implements TypeAdapterFactory {
+	private final boolean precomputeUnitVectors;
+
+	/**
+	 * Prepares the factory.
+	 * 
+	 * @param precomputeUnitVectors If true, the earth centred unit vector of
+	 *                              every user is calculated right at decoding.
+	 *                              This pays off if the users are checked
+	 *                              against multiple cities or distances.
+	 */
+	public LocatedUserAdapter(final boolean precomputeUnitVectors) {
+		this.precomputeUnitVectors = precomputeUnitVectors;
+	}
+
+	/**
+	 * Replaces the gson instance of the generated JSON class with one that knows
+	 * about this factory, all previously registered adapters are kept.
+	 * 
+	 * @param json                  The JSON class of an ApiClient
+	 * @param precomputeUnitVectors See
+	 *                              {@link #LocatedUserAdapter(boolean)}
+	 */
+	public static void register(final JSON json, final boolean precomputeUnitVectors) {
+		json.setGson(json.getGson().newBuilder()
+				.registerTypeAdapterFactory(new LocatedUserAdapter(precomputeUnitVectors)).create());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+		if (type.getRawType() != User.class && type.getRawType() != LocatedUser.class) {
+			return null;
+		}
+		final var delegate = gson.getDelegateAdapter(this, TypeToken.get(User.class));
+		return (TypeAdapter<T>) new TypeAdapter<User>() {
+			@Override
+			public void write(final JsonWriter out, final User value) throws IOException {
+				if (value instanceof LocatedUser) {
+					((LocatedUser) value).materialise();
+				}
+				delegate.write(out, value);
+			}
+
+			@Override
+			public User read(final JsonReader in) throws IOException {
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					return null;
+				}
+				return readUser(in);
+			}
+		};
+	}
+
+	private LocatedUser readUser(final JsonReader in) throws IOException {
+		final var u = new LocatedUser();
+		var latitude = Double.NaN;
+		var longitude = Double.NaN;
+		in.beginObject();
+		while (in.hasNext()) {
+			final var name = in.nextName();
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				continue;
+			}
+			switch (name) {
+			case "id":
+				u.setId(in.nextInt());
+				break;
+			case "first_name":
+				u.setFirstName(in.nextString());
+				break;
+			case "last_name":
+				u.setLastName(in.nextString());
+				break;
+			case "email":
+				u.setEmail(in.nextString());
+				break;
+			case "ip_address":
+				u.setIpAddress(in.nextString());
+				break;
+			case "latitude":
+				latitude = in.nextDouble();
+				break;
+			case "longitude":
+				longitude = in.nextDouble();
+				break;
+			case "city":
+				u.setCity(in.nextString());
+				break;
+			default:
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		u.setLocation(latitude, longitude);
+		if (precomputeUnitVectors) {
+			u.precomputeUnitVector();
+		}
+		return u;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non-negative long values (e.g., latencies in
+ * nanoseconds or sizes in bytes) with bounded relative error. Like the
+ * HdrHistogram, every power of two range is split into linear sub-buckets, so
+ * the recorded values are kept with a precision of 1/{@value #subBuckets} of
+ * their magnitude while the histogram has a fixed, small footprint. Recording
+ * is a single atomic increment.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class LogLinearHistogram {
+	private static final int subBucketBits = 3;
+	public static final int subBuckets = 1 << subBucketBits;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * subBuckets);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param value The value to record, negative values are recorded as zero
+	 */
+	public void record(final long value) {
+		final var v = Math.max(0, value);
+		counts.incrementAndGet(bucketOf(v));
+		total.increment();
+		sum.add(v);
+	}
+
+	/**
+	 * Determines the bucket of a value: values below the number of sub-buckets
+	 * have their own buckets, larger ones are bucketed by their highest bit and
+	 * the bits following it.
+	 */
+	static int bucketOf(final long v) {
+		if (v < subBuckets) {
+			return (int) v;
+		}
+		final var magnitude = 63 - Long.numberOfLeadingZeros(v);
+		final var sub = (int) (v >>> (magnitude - subBucketBits)) & (subBuckets - 1);
+		return (magnitude - subBucketBits + 1) * subBuckets + sub;
+	}
+
+	/**
+	 * The largest value that falls in a bucket.
+	 */
+	static long upperBoundOf(final int bucket) {
+		if (bucket < subBuckets) {
+			return bucket;
+		}
+		final var magnitude = bucket / subBuckets + subBucketBits - 1;
+		final var sub = bucket % subBuckets;
+		final var width = 1L << (magnitude - subBucketBits);
+		return (1L << magnitude) + (sub + 1) * width - 1;
+	}
+
+	/**
+	 * Allows querying the number of recorded values.
+	 * 
+	 * @return the number of values recorded so far
+	 */
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * Allows querying the average of the recorded values.
+	 * 
+	 * @return the mean of the values (0 if nothing was recorded)
+	 */
+	public double getMean() {
+		final var n = total.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Approximates a percentile of the recorded values.
+	 * 
+	 * @param percentile The percentile in the range of [0,100]
+	 * @return A value at most 1/{@value #subBuckets} larger than the actual
+	 *         percentile (0 if nothing was recorded)
+	 */
+	public long getPercentile(final double percentile) {
+		final var n = total.sum();
+		if (n == 0) {
+			return 0;
+		}
+		final var rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		var seen = 0L;
+		for (int b = 0; b < counts.length(); b++) {
+			seen += counts.get(b);
+			if (seen >= rank) {
+				return upperBoundOf(b);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Zeroes the histogram.
+	 */
+	public void reset() {
+		for (int b = 0; b < counts.length(); b++) {
+			counts.set(b, 0);
+		}
+		total.reset();
+		sum.reset();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Measures the requests of the swagger generated http client: the latency
+ * until the response headers arrive and the number of body bytes read. The
+ * request paths are reported as the path templates of the service's
+ * specification, so the measurements of the same endpoint are kept together.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class MetricsInterceptor implements Interceptor {
+	private final MetricsListener listener;
+
+	/**
+	 * @param listener Where to report the measurements
+	 */
+	public MetricsInterceptor(final MetricsListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public Response intercept(final Chain chain) throws IOException {
+		final var endpoint = endpointOf(chain.request().url().getPath());
+		final var before = System.nanoTime();
+		final var response = chain.proceed(chain.request());
+		listener.httpResponse(endpoint, response.code(), System.nanoTime() - before);
+		final var body = response.body();
+		if (body == null) {
+			return response;
+		}
+		final var counted = new ForwardingSource(body.source()) {
+			private long bytes;
+			private boolean reported;
+
+			@Override
+			public long read(final Buffer sink, final long byteCount) throws IOException {
+				final var read = super.read(sink, byteCount);
+				if (read < 0) {
+					report();
+				} else {
+					bytes += read;
+				}
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				report();
+				super.close();
+			}
+
+			private void report() {
+				if (!reported) {
+					reported = true;
+					listener.responseBytes(endpoint, bytes);
+				}
+			}
+		};
+		return response.newBuilder()
+				.body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(counted))).build();
+	}
+
+	/**
+	 * Turns a request path to the path template of its endpoint.
+	 * 
+	 * @param path The path of the request
+	 * @return One of /users, /user/{id} or /city/{city}/users, or the path itself
+	 *         if it does not match any of them
+	 */
+	static String endpointOf(final String path) {
+		if (path.endsWith("/users") && path.contains("/city/")) {
+			return "/city/{city}/users";
+		}
+		if (path.endsWith("/users")) {
+			return "/users";
+		}
+		if (path.contains("/user/")) {
+			return "/user/{id}";
+		}
+		return path;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+/**
+ * Receives the measurements of the API's hot paths: the HTTP requests towards
+ * the service, the decoding of the user lists and the filtering of the users.
+ * All methods do nothing by default so implementations only need to override
+ * the ones they are interested in. The API does not measure anything until a
+ * listener is set, see {@link BpdtsAPI#setMetricsListener(MetricsListener)}.
+ * 
+ * The methods are called from the threads doing the work (including the http
+ * client's own threads), so implementations should be thread safe and quick.
+ * {@link MetricsRecorder} is a ready made implementation.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface MetricsListener {
+	/**
+	 * The listener that ignores everything, this is the API's default.
+	 */
+	MetricsListener none = new MetricsListener() {
+	};
+
+	/**
+	 * A response arrived from the service.
+	 * 
+	 * @param endpoint   The path template of the request (e.g., /city/{city}/users)
+	 * @param statusCode The status code of the response
+	 * @param nanos      The time from sending the request until the response's
+	 *                   headers arrived
+	 */
+	default void httpResponse(final String endpoint, final int statusCode, final long nanos) {
+	}
+
+	/**
+	 * The body of a response was completely read.
+	 * 
+	 * @param endpoint The path template of the request
+	 * @param bytes    The size of the response body as it was received
+	 */
+	default void responseBytes(final String endpoint, final long bytes) {
+	}
+
+	/**
+	 * A user list was decoded.
+	 * 
+	 * @param users The number of users decoded
+	 * @param nanos The time the decoding took (including waiting for the data if
+	 *              the list was decoded while it was received, but excluding
+	 *              the processing of the decoded users)
+	 */
+	default void usersDecoded(final long users, final long nanos) {
+	}
+
+	/**
+	 * Users were checked against the criteria of a query.
+	 * 
+	 * @param query       The name of the query (e.g., getUsersNearCity)
+	 * @param evaluations The number of users checked
+	 * @param nanos       The time the checks took
+	 */
+	default void predicateEvaluations(final String query, final long evaluations, final long nanos) {
+	}
+
+	/**
+	 * A query completed.
+	 * 
+	 * @param query The name of the query
+	 * @param users The number of users returned
+	 */
+	default void resultSize(final String query, final int users) {
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metrics listener that keeps the measurements in memory: latency and
+ * response size histograms per endpoint, decoding and filtering throughput
+ * counters, and result size histograms per query. All counters are lock free,
+ * so the recorder can be shared by many API instances and threads.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class MetricsRecorder implements MetricsListener {
+	private final ConcurrentHashMap<String, LogLinearHistogram> latencies = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LogLinearHistogram> responseSizes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private final LongAdder decodedUsers = new LongAdder();
+	private final LongAdder decodingNanos = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder[]> evaluations = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LogLinearHistogram> resultSizes = new ConcurrentHashMap<>();
+
+	@Override
+	public void httpResponse(final String endpoint, final int statusCode, final long nanos) {
+		latencies.computeIfAbsent(endpoint, e -> new LogLinearHistogram()).record(nanos);
+		if (statusCode >= 400) {
+			errors.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+		}
+	}
+
+	@Override
+	public void responseBytes(final String endpoint, final long bytes) {
+		responseSizes.computeIfAbsent(endpoint, e -> new LogLinearHistogram()).record(bytes);
+	}
+
+	@Override
+	public void usersDecoded(final long users, final long nanos) {
+		decodedUsers.add(users);
+		decodingNanos.add(nanos);
+	}
+
+	@Override
+	public void predicateEvaluations(final String query, final long count, final long nanos) {
+		final var counters = evaluations.computeIfAbsent(query, q -> new LongAdder[] { new LongAdder(), new LongAdder() });
+		counters[0].add(count);
+		counters[1].add(nanos);
+	}
+
+	@Override
+	public void resultSize(final String query, final int users) {
+		resultSizes.computeIfAbsent(query, q -> new LogLinearHistogram()).record(users);
+	}
+
+	/**
+	 * Allows querying which endpoints were contacted.
+	 * 
+	 * @return the path templates of the endpoints with at least one response
+	 */
+	public Set<String> getEndpoints() {
+		return latencies.keySet();
+	}
+
+	/**
+	 * @param endpoint The path template of the endpoint
+	 * @return The latencies of the endpoint in nanoseconds (null if it was not
+	 *         contacted)
+	 */
+	public LogLinearHistogram getLatency(final String endpoint) {
+		return latencies.get(endpoint);
+	}
+
+	/**
+	 * @param endpoint The path template of the endpoint
+	 * @return The sizes of the endpoint's response bodies in bytes (null if no
+	 *         body was read)
+	 */
+	public LogLinearHistogram getResponseBytes(final String endpoint) {
+		return responseSizes.get(endpoint);
+	}
+
+	/**
+	 * @param endpoint The path template of the endpoint
+	 * @return The number of responses with 4xx or 5xx status codes
+	 */
+	public long getErrors(final String endpoint) {
+		final var counter = errors.get(endpoint);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @return The number of users decoded so far
+	 */
+	public long getUsersDecoded() {
+		return decodedUsers.sum();
+	}
+
+	/**
+	 * @return The number of users decoded per second of decoding
+	 */
+	public double getUsersDecodedPerSecond() {
+		return rate(decodedUsers.sum(), decodingNanos.sum());
+	}
+
+	/**
+	 * @param query The name of the query
+	 * @return The number of users checked against the query's criteria
+	 */
+	public long getPredicateEvaluations(final String query) {
+		final var counters = evaluations.get(query);
+		return counters == null ? 0 : counters[0].sum();
+	}
+
+	/**
+	 * @param query The name of the query
+	 * @return The number of users checked per second of filtering
+	 */
+	public double getPredicateEvaluationsPerSecond(final String query) {
+		final var counters = evaluations.get(query);
+		return counters == null ? 0 : rate(counters[0].sum(), counters[1].sum());
+	}
+
+	/**
+	 * @param query The name of the query
+	 * @return The number of users returned by the query (null if it did not run)
+	 */
+	public LogLinearHistogram getResultSizes(final String query) {
+		return resultSizes.get(query);
+	}
+
+	private static double rate(final long count, final long nanos) {
+		return nanos == 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	/**
+	 * Drops all measurements.
+	 */
+	public void reset() {
+		latencies.clear();
+		responseSizes.clear();
+		errors.clear();
+		decodedUsers.reset();
+		decodingNanos.reset();
+		evaluations.clear();
+		resultSizes.clear();
+	}
+}
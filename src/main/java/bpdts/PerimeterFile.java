@@ -0,0 +1,219 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the compact binary format of city perimeters. Unlike the
+ * json files, these hold the perimeter as the earth centred unit vectors the
+ * distance calculations use, so loading them needs no json parsing and no
+ * conversion of the coordinates. The files are memory mapped and the vectors
+ * are bulk copied to the city's arrays, so there are no per point objects
+ * created either. Of the city's helper structures only the KD-tree is stored,
+ * the bounding box, the segment index and the polygon slabs are still built
+ * from the vectors by the city when it is loaded.
+ * 
+ * The layout of the files (all numbers are little endian):
+ * <ol>
+ * <li>magic: 4 bytes, "BPDC"</li>
+ * <li>version: 2 byte integer, {@link #version}</li>
+ * <li>flags: 2 byte integer, {@link #kdTreeFlag} if the KD-tree of the
+ * perimeter is included</li>
+ * <li>name: 4 byte length followed by the UTF-8 bytes of the city's name</li>
+ * <li>point count: 4 byte integer</li>
+ * <li>perimeter: the x components of the unit vectors as 8 byte doubles,
+ * followed by the y and then the z components</li>
+ * <li>KD-tree (optional): the original index of the points in tree order as 4
+ * byte integers, followed by the splitting axis of the nodes as single
+ * bytes</li>
+ * </ol>
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class PerimeterFile {
+	public static final String extension = ".bpc";
+	public static final int magic = 0x43445042;
+	public static final short version = 1;
+	public static final short kdTreeFlag = 1;
+	// Tolerance of the unit vectors' length when loading
+	private static final double unitTolerance = 1e-9;
+
+	private PerimeterFile() {
+		// Utility class
+	}
+
+	/**
+	 * Stores the perimeter of the city (and its KD-tree if it has one).
+	 * 
+	 * @param city The city to store
+	 * @param file Where to store the city
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(final City city, final Path file) throws IOException {
+		final var packed = city.packedPerimeter();
+		final var tree = city.kdTree();
+		final var name = city.name.getBytes(StandardCharsets.UTF_8);
+		final var n = packed[0].length;
+		final var size = 4 + 2 + 2 + 4 + name.length + 4 + 3L * Double.BYTES * n + (tree == null ? 0 : 5L * n);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("City " + city.name + " has too many perimeter points for a single file");
+		}
+		final var buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(magic).putShort(version).putShort(tree == null ? 0 : kdTreeFlag);
+		buffer.putInt(name.length).put(name).putInt(n);
+		for (final var component : packed) {
+			buffer.asDoubleBuffer().put(component);
+			buffer.position(buffer.position() + Double.BYTES * n);
+		}
+		if (tree != null) {
+			buffer.asIntBuffer().put(tree.order());
+			buffer.position(buffer.position() + Integer.BYTES * n);
+			buffer.put(tree.axis());
+		}
+		buffer.flip();
+		try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Loads a city stored with {@link #write(City, Path)}.
+	 * 
+	 * @param file The binary perimeter file
+	 * @return The loaded city
+	 * @throws IOException If the file is not readable, is not a binary perimeter
+	 *                     file, is truncated or holds invalid vectors.
+	 */
+	public static City read(final Path file) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != magic) {
+				throw new IOException("Input " + file + " is not a binary perimeter file");
+			}
+			final var fileVersion = buffer.getShort();
+			if (fileVersion != version) {
+				throw new IOException("Input " + file + " has unsupported version " + fileVersion);
+			}
+			final var flags = buffer.getShort();
+			final var nameLength = buffer.getInt();
+			if (nameLength < 0 || nameLength > buffer.remaining()) {
+				throw new IOException("Input " + file + " is truncated");
+			}
+			final var name = new byte[nameLength];
+			buffer.get(name);
+			final var n = buffer.getInt();
+			final var withTree = (flags & kdTreeFlag) != 0;
+			if (n < 0 || buffer.remaining() < (3L * Double.BYTES + (withTree ? 5 : 0)) * n) {
+				throw new IOException("Input " + file + " is truncated");
+			}
+			final var packed = new double[3][n];
+			for (final var component : packed) {
+				buffer.asDoubleBuffer().get(component);
+				buffer.position(buffer.position() + Double.BYTES * n);
+			}
+			checkUnitVectors(packed, file);
+			PerimeterKDTree tree = null;
+			if (withTree) {
+				final var order = new int[n];
+				final var axis = new byte[n];
+				buffer.asIntBuffer().get(order);
+				buffer.position(buffer.position() + Integer.BYTES * n);
+				buffer.get(axis);
+				try {
+					tree = new PerimeterKDTree(packed[0], packed[1], packed[2], order, axis);
+				} catch (IllegalArgumentException iae) {
+					throw new IOException("Input " + file + " has an invalid KD-tree", iae);
+				}
+			}
+			return new City(new String(name, StandardCharsets.UTF_8), packed[0], packed[1], packed[2], tree);
+		} catch (BufferUnderflowException bue) {
+			throw new IOException("Input " + file + " is truncated", bue);
+		}
+	}
+
+	/**
+	 * Reads only the name of the city stored in a binary perimeter file, the
+	 * perimeter itself is not touched.
+	 * 
+	 * @param file The binary perimeter file
+	 * @return The name of the city
+	 * @throws IOException If the file is not readable or is not a binary perimeter
+	 *                     file of the supported version.
+	 */
+	public static String readName(final Path file) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final var header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, file);
+			if (header.getInt() != magic) {
+				throw new IOException("Input " + file + " is not a binary perimeter file");
+			}
+			final var fileVersion = header.getShort();
+			if (fileVersion != version) {
+				throw new IOException("Input " + file + " has unsupported version " + fileVersion);
+			}
+			// The flags only matter for the perimeter
+			header.getShort();
+			final var nameLength = header.getInt();
+			if (nameLength < 0 || nameLength > channel.size() - 12) {
+				throw new IOException("Input " + file + " is truncated");
+			}
+			final var name = ByteBuffer.allocate(nameLength);
+			readFully(channel, name, file);
+			return new String(name.array(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final Path file)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Input " + file + " is truncated");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static void checkUnitVectors(final double[][] packed, final Path file) throws IOException {
+		final double[] x = packed[0], y = packed[1], z = packed[2];
+		for (int i = 0; i < x.length; i++) {
+			final var len2 = x[i] * x[i] + y[i] * y[i] + z[i] * z[i];
+			if (!(Math.abs(len2 - 1) < unitTolerance)) {
+				throw new IOException("Input " + file + " has a non unit vector at point " + i);
+			}
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+/**
+ * A three dimensional KD-tree over the earth centred unit vectors of a city's
+ * perimeter. The tree is implicit: the points are reordered so that the median
+ * of every subrange is its splitting node, thus the tree needs no node objects
+ * at all. The squared chord length between unit vectors grows monotonically with
+ * their distance on the surface of the earth, so the nearest point in the
+ * euclidean sense is also the nearest one as the crow flies.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class PerimeterKDTree {
+	// The points in tree order
+	private final double[] tx, ty, tz;
+	// The original index of the points in tree order
+	private final int[] order;
+	// The splitting axis (0: x, 1: y, 2: z) of the nodes
+	private final byte[] axis;
+
+	/**
+	 * Builds the tree over the specified unit vectors. The arrays are not modified.
+	 * 
+	 * @param x The x components of the points
+	 * @param y The y components of the points
+	 * @param z The z components of the points
+	 */
+	public PerimeterKDTree(final double[] x, final double[] y, final double[] z) {
+		final var n = x.length;
+		order = new int[n];
+		axis = new byte[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final var coords = new double[][] { x, y, z };
+		build(coords, 0, n);
+		tx = new double[n];
+		ty = new double[n];
+		tz = new double[n];
+		for (int i = 0; i < n; i++) {
+			tx[i] = x[order[i]];
+			ty[i] = y[order[i]];
+			tz[i] = z[order[i]];
+		}
+	}
+
+	/**
+	 * Restores a tree that was built earlier (e.g., loaded from a binary perimeter
+	 * file). The arrays are not modified.
+	 * 
+	 * @param x     The x components of the points
+	 * @param y     The y components of the points
+	 * @param z     The z components of the points
+	 * @param order The original index of the points in tree order, see
+	 *              {@link #order()}
+	 * @param axis  The splitting axis of the nodes, see {@link #axis()}
+	 * @throws IllegalArgumentException If the arrays are of different lengths or
+	 *                                  the order refers to non-existent points
+	 */
+	PerimeterKDTree(final double[] x, final double[] y, final double[] z, final int[] order, final byte[] axis) {
+		final var n = x.length;
+		if (y.length != n || z.length != n || order.length != n || axis.length != n) {
+			throw new IllegalArgumentException("The tree's arrays should all have " + n + " items");
+		}
+		this.order = order;
+		this.axis = axis;
+		tx = new double[n];
+		ty = new double[n];
+		tz = new double[n];
+		for (int i = 0; i < n; i++) {
+			if (order[i] < 0 || order[i] >= n || axis[i] < 0 || axis[i] > 2) {
+				throw new IllegalArgumentException("Invalid tree node at " + i);
+			}
+			tx[i] = x[order[i]];
+			ty[i] = y[order[i]];
+			tz[i] = z[order[i]];
+		}
+	}
+
+	/**
+	 * Allows the tree to be stored and restored later without building it again.
+	 * 
+	 * @return The original index of the points in tree order (must not be
+	 *         modified)
+	 */
+	int[] order() {
+		return order;
+	}
+
+	/**
+	 * Allows the tree to be stored and restored later without building it again.
+	 * 
+	 * @return The splitting axis of the nodes (must not be modified)
+	 */
+	byte[] axis() {
+		return axis;
+	}
+
+	/**
+	 * Recursively partitions the order array so every subrange has its median on
+	 * the axis with the largest spread in the middle.
+	 * 
+	 * @param coords The x, y and z components of the points
+	 * @param lo     The first position of the subrange
+	 * @param hi     The position after the last one in the subrange
+	 */
+	private void build(final double[][] coords, final int lo, final int hi) {
+		if (hi - lo < 2) {
+			return;
+		}
+		var bestAxis = 0;
+		var bestSpread = -1.0;
+		for (int a = 0; a < 3; a++) {
+			var min = Double.MAX_VALUE;
+			var max = -Double.MAX_VALUE;
+			for (int i = lo; i < hi; i++) {
+				final var v = coords[a][order[i]];
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			if (max - min > bestSpread) {
+				bestSpread = max - min;
+				bestAxis = a;
+			}
+		}
+		final var mid = (lo + hi) >>> 1;
+		select(coords[bestAxis], lo, hi - 1, mid);
+		axis[mid] = (byte) bestAxis;
+		build(coords, lo, mid);
+		build(coords, mid + 1, hi);
+	}
+
+	/**
+	 * Quickselect on the order array: after the call the element at position k is
+	 * the one that would be there if the subrange was sorted on the given values.
+	 */
+	private void select(final double[] values, int lo, int hi, final int k) {
+		while (hi > lo) {
+			final var pivot = values[order[(lo + hi) >>> 1]];
+			var i = lo;
+			var j = hi;
+			while (i <= j) {
+				while (values[order[i]] < pivot) {
+					i++;
+				}
+				while (values[order[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final var tmp = order[i];
+					order[i++] = order[j];
+					order[j--] = tmp;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Approximates the heap used by the tree.
+	 * 
+	 * @return the size of the tree's arrays in bytes
+	 */
+	long estimatedBytes() {
+		return (3L * Double.BYTES + Integer.BYTES + 1) * order.length;
+	}
+
+	/**
+	 * Allows querying how many points the tree is built on.
+	 * 
+	 * @return the number of points in the tree
+	 */
+	public int size() {
+		return order.length;
+	}
+
+	/**
+	 * Looks for the point closest to the given unit vector.
+	 * 
+	 * @param ux The x component of the unit vector
+	 * @param uy The y component of the unit vector
+	 * @param uz The z component of the unit vector
+	 * @return The index of the closest point (as it was in the arrays passed to the
+	 *         constructor) or -1 if the tree is empty.
+	 */
+	public int nearest(final double ux, final double uy, final double uz) {
+		if (order.length == 0) {
+			return -1;
+		}
+		final var best = new double[] { Double.MAX_VALUE };
+		final var bestPos = new int[] { -1 };
+		nearest(0, order.length, ux, uy, uz, best, bestPos);
+		return order[bestPos[0]];
+	}
+
+	private void nearest(final int lo, final int hi, final double ux, final double uy, final double uz,
+			final double[] best, final int[] bestPos) {
+		if (lo >= hi) {
+			return;
+		}
+		final var mid = (lo + hi) >>> 1;
+		final var dx = tx[mid] - ux;
+		final var dy = ty[mid] - uy;
+		final var dz = tz[mid] - uz;
+		final var d2 = dx * dx + dy * dy + dz * dz;
+		if (d2 < best[0]) {
+			best[0] = d2;
+			bestPos[0] = mid;
+		}
+		final var diff = splitDiff(mid, dx, dy, dz);
+		// diff is node-query, so a positive diff means the query is on the low side
+		if (diff > 0) {
+			nearest(lo, mid, ux, uy, uz, best, bestPos);
+			if (diff * diff < best[0]) {
+				nearest(mid + 1, hi, ux, uy, uz, best, bestPos);
+			}
+		} else {
+			nearest(mid + 1, hi, ux, uy, uz, best, bestPos);
+			if (diff * diff < best[0]) {
+				nearest(lo, mid, ux, uy, uz, best, bestPos);
+			}
+		}
+	}
+
+	/**
+	 * Determines if there is at least one point closer than the specified squared
+	 * chord length to the given unit vector. The search stops as soon as the first
+	 * such point is found.
+	 * 
+	 * @param ux              The x component of the unit vector
+	 * @param uy              The y component of the unit vector
+	 * @param uz              The z component of the unit vector
+	 * @param maxChordSquared The squared chord length limit, see
+	 *                        {@link #chordSquaredOf(double)}
+	 * @return true if there is a point in the tree within the limit
+	 */
+	public boolean anyWithin(final double ux, final double uy, final double uz, final double maxChordSquared) {
+		return anyWithin(0, order.length, ux, uy, uz, maxChordSquared);
+	}
+
+	private boolean anyWithin(final int lo, final int hi, final double ux, final double uy, final double uz,
+			final double limit) {
+		if (lo >= hi) {
+			return false;
+		}
+		final var mid = (lo + hi) >>> 1;
+		final var dx = tx[mid] - ux;
+		final var dy = ty[mid] - uy;
+		final var dz = tz[mid] - uz;
+		if (dx * dx + dy * dy + dz * dz < limit) {
+			return true;
+		}
+		final var diff = splitDiff(mid, dx, dy, dz);
+		final var farSideReachable = diff * diff < limit;
+		if (diff > 0) {
+			return anyWithin(lo, mid, ux, uy, uz, limit)
+					|| (farSideReachable && anyWithin(mid + 1, hi, ux, uy, uz, limit));
+		} else {
+			return anyWithin(mid + 1, hi, ux, uy, uz, limit)
+					|| (farSideReachable && anyWithin(lo, mid, ux, uy, uz, limit));
+		}
+	}
+
+	private double splitDiff(final int node, final double dx, final double dy, final double dz) {
+		switch (axis[node]) {
+		case 0:
+			return dx;
+		case 1:
+			return dy;
+		default:
+			return dz;
+		}
+	}
+
+	/**
+	 * Converts a distance on the surface of the earth to the squared chord length
+	 * between two unit vectors that are that far apart.
+	 * 
+	 * @param miles The distance as the crow flies
+	 * @return The squared chord length, (i.e., 2-2cos(angle))
+	 */
+	public static double chordSquaredOf(final double miles) {
+		final var angle = miles / EarthCentredCoordinates.earthRadiusMiles;
+		return angle >= Math.PI ? 4.000001 : 2 - 2 * Math.cos(angle);
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Arrays;
+
+/**
+ * Allows checking if a location is inside the polygon formed by a city's
+ * perimeter. The perimeter is projected with a gnomonic projection centred on
+ * the city, this maps the great circle edges of the polygon to straight lines,
+ * so the spherical containment problem becomes a planar one. The plane is then
+ * cut into horizontal slabs at the vertices: inside a slab no edges start, end
+ * or cross, so they can be kept sorted. A query thus needs a binary search for
+ * its slab and another one to count the edges to its right (the ray casting
+ * rule: odd counts mean the location is inside).
+ * 
+ * The projection only works for polygons that are well within a hemisphere,
+ * for larger ones (or if there are less than three vertices) no location is
+ * considered inside.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class PerimeterPolygon {
+	// Above this angular radius (in radians) the polygon is not projected
+	public static final double maxProjectableRadius = Math.toRadians(80);
+	// Above this many slab entries the slabs are not built, queries check all edges
+	public static final long maxSlabEntries = 1 << 24;
+
+	// The projection's centre and axes
+	private final double cx, cy, cz, e1x, e1y, e1z, e2x, e2y, e2z;
+	// The projected edges (non-horizontal ones only), from their lower end to their
+	// upper end
+	private final double[] lowU, lowV, highU, highV;
+	// The sorted distinct vertical coordinates of the vertices (slab boundaries)
+	private final double[] slabV;
+	// The edges of each slab (sorted from left to right) in compressed form: the
+	// edges of slab k are at slabEdges[slabStart[k]...slabStart[k+1]-1]
+	private final int[] slabStart, slabEdges;
+	private final boolean usable;
+
+	/**
+	 * Prepares the projection and the slabs of the polygon.
+	 * 
+	 * @param x   The x components of the perimeter's unit vectors
+	 * @param y   The y components of the perimeter's unit vectors
+	 * @param z   The z components of the perimeter's unit vectors
+	 * @param cap The bounding cap of the perimeter, its centre will be the centre
+	 *            of the projection
+	 */
+	public PerimeterPolygon(final double[] x, final double[] y, final double[] z, final SphericalCap cap) {
+		cx = cap.cx;
+		cy = cap.cy;
+		cz = cap.cz;
+		// The first axis is perpendicular to the centre and to the coordinate axis
+		// least aligned with it, the second one is perpendicular to both
+		final double ax = Math.abs(cx) < Math.abs(cy) && Math.abs(cx) < Math.abs(cz) ? 1 : 0;
+		final double ay = ax == 0 && Math.abs(cy) < Math.abs(cz) ? 1 : 0;
+		final double az = ax == 0 && ay == 0 ? 1 : 0;
+		final var tx = cy * az - cz * ay;
+		final var ty = cz * ax - cx * az;
+		final var tz = cx * ay - cy * ax;
+		final var len = Math.sqrt(tx * tx + ty * ty + tz * tz);
+		e1x = tx / len;
+		e1y = ty / len;
+		e1z = tz / len;
+		e2x = cy * e1z - cz * e1y;
+		e2y = cz * e1x - cx * e1z;
+		e2z = cx * e1y - cy * e1x;
+
+		final var n = x.length;
+		if (n < 3 || cap.radius > maxProjectableRadius) {
+			usable = false;
+			lowU = lowV = highU = highV = slabV = new double[0];
+			slabStart = slabEdges = new int[0];
+			return;
+		}
+		usable = true;
+
+		// Projecting the vertices
+		final var u = new double[n];
+		final var v = new double[n];
+		for (int i = 0; i < n; i++) {
+			final var w = x[i] * cx + y[i] * cy + z[i] * cz;
+			u[i] = (x[i] * e1x + y[i] * e1y + z[i] * e1z) / w;
+			v[i] = (x[i] * e2x + y[i] * e2y + z[i] * e2z) / w;
+		}
+
+		// Collecting the edges, horizontal ones never cross a horizontal ray
+		var edgeCount = 0;
+		final var lu = new double[n];
+		final var lv = new double[n];
+		final var hu = new double[n];
+		final var hv = new double[n];
+		for (int i = 0; i < n; i++) {
+			final var j = (i + 1) % n;
+			if (v[i] == v[j]) {
+				continue;
+			}
+			final var iLow = v[i] < v[j];
+			lu[edgeCount] = iLow ? u[i] : u[j];
+			lv[edgeCount] = iLow ? v[i] : v[j];
+			hu[edgeCount] = iLow ? u[j] : u[i];
+			hv[edgeCount++] = iLow ? v[j] : v[i];
+		}
+		lowU = Arrays.copyOf(lu, edgeCount);
+		lowV = Arrays.copyOf(lv, edgeCount);
+		highU = Arrays.copyOf(hu, edgeCount);
+		highV = Arrays.copyOf(hv, edgeCount);
+		slabV = Arrays.stream(v).sorted().distinct().toArray();
+
+		// Counting the slab entries before building them, every edge only marks its
+		// first and last slab so degenerate perimeters are rejected in linear time
+		final var slabCount = Math.max(0, slabV.length - 1);
+		final var counts = new int[slabCount + 1];
+		long entries = 0;
+		for (int e = 0; e < edgeCount; e++) {
+			final var first = Arrays.binarySearch(slabV, lowV[e]);
+			final var last = Arrays.binarySearch(slabV, highV[e]);
+			entries += last - first;
+			counts[first]++;
+			counts[last]--;
+		}
+		if (entries > maxSlabEntries) {
+			slabStart = slabEdges = null;
+			return;
+		}
+		slabStart = new int[slabCount + 1];
+		var inSlab = 0;
+		for (int k = 0; k < slabCount; k++) {
+			inSlab += counts[k];
+			slabStart[k + 1] = slabStart[k] + inSlab;
+		}
+		slabEdges = new int[(int) entries];
+		final var fill = Arrays.copyOf(slabStart, slabCount);
+		for (int e = 0; e < edgeCount; e++) {
+			final var first = Arrays.binarySearch(slabV, lowV[e]);
+			final var last = Arrays.binarySearch(slabV, highV[e]);
+			for (int k = first; k < last; k++) {
+				slabEdges[fill[k]++] = e;
+			}
+		}
+		// Ordering the edges of each slab by where they cross the slab's middle
+		for (int k = 0; k < slabCount; k++) {
+			final var mid = (slabV[k] + slabV[k + 1]) / 2;
+			final var from = slabStart[k];
+			final var to = slabStart[k + 1];
+			final var keys = new long[to - from];
+			final var crossings = new double[to - from];
+			for (int i = from; i < to; i++) {
+				crossings[i - from] = crossingU(slabEdges[i], mid);
+			}
+			// Sorting edge ids by their crossing through their ranks
+			final var sortedCrossings = crossings.clone();
+			Arrays.sort(sortedCrossings);
+			for (int i = 0; i < keys.length; i++) {
+				final var rank = Arrays.binarySearch(sortedCrossings, crossings[i]);
+				keys[i] = ((long) rank << 32) | slabEdges[from + i];
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < keys.length; i++) {
+				slabEdges[from + i] = (int) keys[i];
+			}
+		}
+	}
+
+	/**
+	 * Determines where an edge crosses a horizontal line.
+	 * 
+	 * @param e The edge to check
+	 * @param v The vertical coordinate of the line
+	 * @return The horizontal coordinate of the crossing
+	 */
+	private double crossingU(final int e, final double v) {
+		return lowU[e] + (v - lowV[e]) * (highU[e] - lowU[e]) / (highV[e] - lowV[e]);
+	}
+
+	/**
+	 * Tells if the polygon could be prepared for containment checks.
+	 * 
+	 * @return false if the polygon is too large or has too few vertices.
+	 */
+	public boolean isUsable() {
+		return usable;
+	}
+
+	/**
+	 * Approximates the heap used by the polygon's arrays.
+	 * 
+	 * @return the size of the arrays in bytes
+	 */
+	long estimatedBytes() {
+		return Double.BYTES * (4L * lowU.length + slabV.length)
+				+ (slabStart == null ? 0 : Integer.BYTES * ((long) slabStart.length + slabEdges.length));
+	}
+
+	/**
+	 * Checks if a location is inside the polygon.
+	 * 
+	 * @param ux The x component of the location's unit vector
+	 * @param uy The y component of the location's unit vector
+	 * @param uz The z component of the location's unit vector
+	 * @return true if the location is inside
+	 */
+	public boolean contains(final double ux, final double uy, final double uz) {
+		if (!usable) {
+			return false;
+		}
+		final var w = ux * cx + uy * cy + uz * cz;
+		if (w <= 0) {
+			// The other hemisphere cannot be projected, and it is surely outside
+			return false;
+		}
+		final var u = (ux * e1x + uy * e1y + uz * e1z) / w;
+		final var v = (ux * e2x + uy * e2y + uz * e2z) / w;
+		if (slabV.length == 0 || v < slabV[0] || v >= slabV[slabV.length - 1]) {
+			return false;
+		}
+		if (slabStart == null) {
+			return containsByAllEdges(u, v);
+		}
+		var k = Arrays.binarySearch(slabV, v);
+		if (k < 0) {
+			k = -k - 2;
+		}
+		// Looking for the first edge right of the location
+		var lo = slabStart[k];
+		var hi = slabStart[k + 1];
+		final var end = hi;
+		while (lo < hi) {
+			final var mid = (lo + hi) >>> 1;
+			if (crossingU(slabEdges[mid], v) > u) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return ((end - lo) & 1) == 1;
+	}
+
+	/**
+	 * The fallback for polygons too complex for slabs: casts the ray against all
+	 * edges.
+	 */
+	private boolean containsByAllEdges(final double u, final double v) {
+		var inside = false;
+		for (int e = 0; e < lowU.length; e++) {
+			if (lowV[e] <= v && v < highV[e] && crossingU(e, v) > u) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+/**
+ * Allows the exact calculation of the distance between a location and a city's
+ * perimeter, i.e., the distance to the closest point of the closest great
+ * circle arc (edge) between two consecutive perimeter points. The edges are
+ * grouped into chunks of consecutive edges, every chunk gets a bounding cap,
+ * and the chunks are organised into a binary hierarchy of caps. Queries
+ * descend the hierarchy and skip all subtrees whose cap is farther than the
+ * best distance found so far.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class PerimeterSegmentIndex {
+	// The number of consecutive edges in a leaf of the hierarchy
+	public static final int chunkSize = 16;
+	// Caps at least this large are not considered as bounds on their arcs
+	private static final double maxBoundingRadius = Math.PI / 2;
+
+	private final double[] px, py, pz;
+	private final int edgeCount, chunkCount;
+	// The caps of the hierarchy's nodes (node 1 is the root, node i has children
+	// 2i and 2i+1)
+	private final double[] ncx, ncy, ncz, nradius;
+
+	/**
+	 * Builds the hierarchy over the edges of a closed perimeter. The arrays are
+	 * not copied, so they must not be modified afterwards.
+	 * 
+	 * @param x The x components of the perimeter's unit vectors
+	 * @param y The y components of the perimeter's unit vectors
+	 * @param z The z components of the perimeter's unit vectors
+	 */
+	public PerimeterSegmentIndex(final double[] x, final double[] y, final double[] z) {
+		px = x;
+		py = y;
+		pz = z;
+		edgeCount = x.length;
+		chunkCount = (edgeCount + chunkSize - 1) / chunkSize;
+		final var nodes = Math.max(2, 4 * chunkCount);
+		ncx = new double[nodes];
+		ncy = new double[nodes];
+		ncz = new double[nodes];
+		nradius = new double[nodes];
+		if (chunkCount > 0) {
+			build(1, 0, chunkCount);
+		}
+	}
+
+	/**
+	 * Determines the cap of a node: it is centred on the normalised centroid of all
+	 * the vertices of its edges and reaches the farthest of them. As long as the
+	 * cap is smaller than a hemisphere, the arcs between the vertices are also
+	 * within it.
+	 */
+	private void build(final int node, final int fromChunk, final int toChunk) {
+		final var fromVertex = fromChunk * chunkSize;
+		final var toVertex = Math.min(edgeCount, toChunk * chunkSize) + 1;
+		var sx = 0.0;
+		var sy = 0.0;
+		var sz = 0.0;
+		for (int v = fromVertex; v < toVertex; v++) {
+			final var i = v % edgeCount;
+			sx += px[i];
+			sy += py[i];
+			sz += pz[i];
+		}
+		final var len = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		var radius = Math.PI;
+		if (len > 1e-9) {
+			sx /= len;
+			sy /= len;
+			sz /= len;
+			radius = 0;
+			for (int v = fromVertex; v < toVertex; v++) {
+				final var i = v % edgeCount;
+				radius = Math.max(radius, angle(sx, sy, sz, px[i], py[i], pz[i]));
+			}
+			if (radius >= maxBoundingRadius) {
+				radius = Math.PI;
+			}
+		}
+		ncx[node] = sx;
+		ncy[node] = sy;
+		ncz[node] = sz;
+		nradius[node] = radius;
+		if (toChunk - fromChunk > 1) {
+			final var mid = (fromChunk + toChunk) >>> 1;
+			build(2 * node, fromChunk, mid);
+			build(2 * node + 1, mid, toChunk);
+		}
+	}
+
+	/**
+	 * Approximates the heap used by the hierarchy (the perimeter arrays are shared
+	 * with the city, so they are not included).
+	 * 
+	 * @return the size of the hierarchy's arrays in bytes
+	 */
+	long estimatedBytes() {
+		return 4L * Double.BYTES * ncx.length;
+	}
+
+	/**
+	 * Determines the angle between the location and the closest point of the
+	 * perimeter.
+	 * 
+	 * @param ux The x component of the location's unit vector
+	 * @param uy The y component of the location's unit vector
+	 * @param uz The z component of the location's unit vector
+	 * @return The angle in radians (PI if there is no perimeter)
+	 */
+	public double minAngle(final double ux, final double uy, final double uz) {
+		final var best = new double[] { Math.PI };
+		if (chunkCount > 0) {
+			search(1, 0, chunkCount, ux, uy, uz, best, -1);
+		}
+		return best[0];
+	}
+
+	/**
+	 * Determines if any point of the perimeter is closer to the location than the
+	 * limit. The search stops as soon as one is found.
+	 * 
+	 * @param ux    The x component of the location's unit vector
+	 * @param uy    The y component of the location's unit vector
+	 * @param uz    The z component of the location's unit vector
+	 * @param limit The angle limit in radians
+	 * @return true if the perimeter is closer than the limit
+	 */
+	public boolean anyWithin(final double ux, final double uy, final double uz, final double limit) {
+		if (chunkCount == 0) {
+			return false;
+		}
+		final var best = new double[] { limit };
+		search(1, 0, chunkCount, ux, uy, uz, best, limit);
+		return best[0] < limit;
+	}
+
+	/**
+	 * The branch and bound search of the hierarchy.
+	 * 
+	 * @param best      The closest angle found so far (updated by the search)
+	 * @param stopBelow If positive, the search stops when an angle below this is
+	 *                  found
+	 * @return true if the search should stop
+	 */
+	private boolean search(final int node, final int fromChunk, final int toChunk, final double ux, final double uy,
+			final double uz, final double[] best, final double stopBelow) {
+		if (nradius[node] < Math.PI
+				&& angle(ncx[node], ncy[node], ncz[node], ux, uy, uz) - nradius[node] >= best[0]) {
+			return false;
+		}
+		if (toChunk - fromChunk == 1) {
+			final var from = fromChunk * chunkSize;
+			final var to = Math.min(edgeCount, from + chunkSize);
+			for (int e = from; e < to; e++) {
+				final var a = angleToEdge(e, ux, uy, uz);
+				if (a < best[0]) {
+					best[0] = a;
+					if (a < stopBelow) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		final var mid = (fromChunk + toChunk) >>> 1;
+		final var left = 2 * node;
+		final var right = left + 1;
+		// The child with the closer centre is searched first
+		final var leftFirst = ncx[left] * ux + ncy[left] * uy + ncz[left] * uz >= ncx[right] * ux
+				+ ncy[right] * uy + ncz[right] * uz;
+		if (leftFirst) {
+			return search(left, fromChunk, mid, ux, uy, uz, best, stopBelow)
+					|| search(right, mid, toChunk, ux, uy, uz, best, stopBelow);
+		}
+		return search(right, mid, toChunk, ux, uy, uz, best, stopBelow)
+				|| search(left, fromChunk, mid, ux, uy, uz, best, stopBelow);
+	}
+
+	/**
+	 * Determines the angle between a location and the closest point of a great
+	 * circle arc. If the location's projection to the arc's great circle falls
+	 * between the arc's endpoints then the distance is measured to the great
+	 * circle, otherwise to the closer endpoint.
+	 * 
+	 * @param e The edge (from vertex e to vertex e+1)
+	 * @return The angle in radians
+	 */
+	private double angleToEdge(final int e, final double ux, final double uy, final double uz) {
+		final var b = e + 1 == edgeCount ? 0 : e + 1;
+		final double ax = px[e], ay = py[e], az = pz[e];
+		final double bx = px[b], by = py[b], bz = pz[b];
+		// The normal of the arc's great circle
+		final var nx = ay * bz - az * by;
+		final var ny = az * bx - ax * bz;
+		final var nz = ax * by - ay * bx;
+		final var nLen = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (nLen > 1e-15) {
+			final var ua = ux * ax + uy * ay + uz * az;
+			final var ub = ux * bx + uy * by + uz * bz;
+			final var ab = ax * bx + ay * by + az * bz;
+			// (a x u).n and (u x b).n tell on which side of the endpoints the
+			// projection falls
+			if (ub - ab * ua >= 0 && ua - ab * ub >= 0) {
+				return Math.asin(Math.min(1, Math.abs(ux * nx + uy * ny + uz * nz) / nLen));
+			}
+		}
+		return Math.min(angle(ax, ay, az, ux, uy, uz), angle(bx, by, bz, ux, uy, uz));
+	}
+
+	/**
+	 * The numerically stable angle between two unit vectors.
+	 */
+	private static double angle(final double ax, final double ay, final double az, final double bx, final double by,
+			final double bz) {
+		final var cx = ay * bz - az * by;
+		final var cy = az * bx - ax * bz;
+		final var cz = ax * by - ay * bx;
+		return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+	}
+}
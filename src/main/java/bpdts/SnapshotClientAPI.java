@@ -0,0 +1,313 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.UserList;
+
+/**
+ * A decorator for other client interfaces that keeps the last complete user
+ * list of the service on disk (see {@link UserSnapshotFile}). After a restart,
+ * the queries are answered from the stored snapshot right away, while the
+ * snapshot is refreshed through the decorated interface in the background.
+ * 
+ * The users the service lists in a city are not derived from the city field
+ * of the users (the service decides who it lists), they are requested through
+ * the decorated interface the first time a city is asked for. From then on,
+ * they are part of the snapshot: they are stored with it, served from it after
+ * a restart, and refreshed together with the complete list.
+ * 
+ * If there is no snapshot yet, the first query fetches the user list
+ * synchronously. Failed background refreshes leave the current snapshot in
+ * place, the failure can be queried with {@link #getLastRefreshFailure()}.
+ * The refreshes are done without holding any locks that the queries need, and
+ * the concurrent ones (e.g., a background and an explicit refresh) share a
+ * single fetch.
+ * 
+ * Note: the returned lists are shared between the callers and thus should not
+ * be modified.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class SnapshotClientAPI implements InjectableClientAPI, AutoCloseable {
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final InjectableClientAPI delegate;
+	private final Path file;
+	private final ScheduledExecutorService refresher;
+	private final InFlightRequests<String, Snapshot> refreshing = new InFlightRequests<>();
+	private final InFlightRequests<String, UserList> listing = new InFlightRequests<>();
+	// Only one thread writes the file at a time
+	private final Object storing = new Object();
+	private volatile Snapshot snapshot;
+	private volatile Exception lastRefreshFailure;
+
+	/**
+	 * The user list served, the city listings known and the time the list was
+	 * taken.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	private static class Snapshot {
+		final UserList users;
+		final ConcurrentHashMap<String, UserList> cities;
+		final long takenAt;
+
+		Snapshot(final UserList users, final ConcurrentHashMap<String, UserList> cities, final long takenAt) {
+			this.users = users;
+			this.cities = cities;
+			this.takenAt = takenAt;
+		}
+	}
+
+	/**
+	 * Loads the stored snapshot (if there is one) and starts refreshing it in the
+	 * background.
+	 * 
+	 * @param delegate        The client interface the snapshot is refreshed
+	 *                        through
+	 * @param file            Where the snapshot is stored
+	 * @param refreshInterval How often the snapshot should be refreshed, if null
+	 *                        the snapshot is only refreshed once after its
+	 *                        loading (or when {@link #refreshNow()} is called)
+	 * @throws IOException If there is a snapshot, but it cannot be loaded
+	 */
+	public SnapshotClientAPI(final InjectableClientAPI delegate, final Path file, final Duration refreshInterval)
+			throws IOException {
+		this.delegate = delegate;
+		this.file = file;
+		if (Files.exists(file)) {
+			final var cities = new ConcurrentHashMap<String, UserList>();
+			final var users = UserSnapshotFile.read(file, cities);
+			snapshot = new Snapshot(users, cities, Files.getLastModifiedTime(file).toMillis());
+		}
+		final var poolId = poolCount.incrementAndGet();
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			final var t = new Thread(r, "bpdts-snapshot-" + poolId);
+			t.setDaemon(true);
+			return t;
+		});
+		if (refreshInterval == null) {
+			if (snapshot != null) {
+				refresher.execute(this::backgroundRefresh);
+			}
+		} else {
+			final var nanos = refreshInterval.toNanos();
+			refresher.scheduleWithFixedDelay(this::backgroundRefresh, snapshot == null ? nanos : 0, nanos,
+					TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * The snapshot does not do HTTP communication on its own, so this returns the
+	 * decorated interface's ApiClient.
+	 * 
+	 * @see InjectableClientAPI#getApiClient()
+	 */
+	@Override
+	public ApiClient getApiClient() {
+		return delegate.getApiClient();
+	}
+
+	/**
+	 * Serves the complete user list from the snapshot.
+	 * 
+	 * @see InjectableClientAPI#getUsers()
+	 */
+	@Override
+	public UserList getUsers() throws ApiException {
+		final var s = snapshot;
+		return (s == null ? refresh() : s).users;
+	}
+
+	/**
+	 * Serves the users listed in the city from the snapshot. Cities that are not
+	 * in the snapshot yet are requested through the decorated interface and are
+	 * added to it (the file is updated in the background).
+	 * 
+	 * @see InjectableClientAPI#getCityUsers(String)
+	 */
+	@Override
+	public UserList getCityUsers(final String city) throws ApiException {
+		final var s = snapshot;
+		final var listed = s == null ? null : s.cities.get(city);
+		if (listed != null) {
+			return listed;
+		}
+		return CoalescingClientAPI.await(listing.request(city, c -> {
+			try {
+				final var users = delegate.getCityUsers(c);
+				final var current = snapshot;
+				if (current != null) {
+					current.cities.put(c, users);
+					try {
+						refresher.execute(this::backgroundStore);
+					} catch (RejectedExecutionException e) {
+						// Closed, the listing will be stored with the next snapshot
+					}
+				}
+				return CompletableFuture.completedFuture(users);
+			} catch (ApiException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}));
+	}
+
+	/**
+	 * Fetches the complete user list and the known city listings through the
+	 * decorated interface and stores them as the new snapshot, both in memory
+	 * and on disk. If the snapshot cannot be stored on disk, it is still served
+	 * from memory. If a refresh is already in progress, its result is waited for
+	 * instead.
+	 * 
+	 * @return the new snapshot
+	 * @throws ApiException In case of networking issues
+	 */
+	private Snapshot refresh() throws ApiException {
+		return CoalescingClientAPI.await(refreshing.request("/users", k -> {
+			try {
+				return CompletableFuture.completedFuture(fetch());
+			} catch (ApiException | RuntimeException e) {
+				lastRefreshFailure = e;
+				return CompletableFuture.failedFuture(e);
+			}
+		}));
+	}
+
+	/**
+	 * The non-coalesced part of {@link #refresh()}.
+	 */
+	private Snapshot fetch() throws ApiException {
+		final var previous = snapshot;
+		final var takenAt = System.currentTimeMillis();
+		final var users = delegate.getUsers();
+		final var cities = new ConcurrentHashMap<String, UserList>();
+		if (previous != null) {
+			for (final var city : previous.cities.keySet()) {
+				cities.put(city, delegate.getCityUsers(city));
+			}
+		}
+		final var s = new Snapshot(users, cities, takenAt);
+		IOException failure = null;
+		synchronized (storing) {
+			if (previous != null) {
+				previous.cities.forEach(cities::putIfAbsent);
+			}
+			// The file is written before the snapshot is served, so whoever sees the
+			// new snapshot also finds it on disk
+			try {
+				write(s);
+			} catch (IOException e) {
+				failure = e;
+			}
+			snapshot = s;
+		}
+		if (previous != null) {
+			// Keeps the listings added while the snapshot was stored
+			previous.cities.forEach(cities::putIfAbsent);
+		}
+		lastRefreshFailure = failure;
+		return s;
+	}
+
+	// Only called while holding the lock of the file
+	private void write(final Snapshot s) throws IOException {
+		// The listings may be added to while they are written
+		UserSnapshotFile.write(s.users, new HashMap<>(s.cities), file);
+	}
+
+	private void backgroundStore() {
+		try {
+			synchronized (storing) {
+				write(snapshot);
+			}
+		} catch (IOException e) {
+			lastRefreshFailure = e;
+		}
+	}
+
+	private void backgroundRefresh() {
+		try {
+			refresh();
+		} catch (ApiException | RuntimeException e) {
+			// The old snapshot is still served, the failure is recorded
+		}
+	}
+
+	/**
+	 * Brings the snapshot up to date right away.
+	 * 
+	 * @throws ApiException In case of networking issues, the previous snapshot is
+	 *                      kept then.
+	 */
+	public void refreshNow() throws ApiException {
+		refresh();
+	}
+
+	/**
+	 * Allows querying how old the served user list is.
+	 * 
+	 * @return The time the snapshot was taken in milliseconds since the epoch,
+	 *         or -1 if there is no snapshot yet
+	 */
+	public long getSnapshotTime() {
+		final var s = snapshot;
+		return s == null ? -1 : s.takenAt;
+	}
+
+	/**
+	 * Allows checking the health of the background refreshes.
+	 * 
+	 * @return The reason the last refresh failed (networking issue or the
+	 *         snapshot could not be stored), or null if it succeeded (or there
+	 *         were no refreshes yet)
+	 */
+	public Exception getLastRefreshFailure() {
+		return lastRefreshFailure;
+	}
+
+	/**
+	 * Stops the background refreshes. The current snapshot is still served.
+	 */
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+/**
+ * Represents a circular area on the surface of the earth with a centre point
+ * and an angular radius. Caps are used as cheap bounding volumes: if a location
+ * is far from the cap, it is also far from everything the cap encloses. The
+ * data in the objects of this class is immutable.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class SphericalCap {
+	// The centre as a unit vector
+	public final double cx, cy, cz;
+	// The angular radius in radians
+	public final double radius;
+
+	/**
+	 * Allows the creation of a cap with a known centre and radius.
+	 * 
+	 * @param cx     The x component of the centre's unit vector
+	 * @param cy     The y component of the centre's unit vector
+	 * @param cz     The z component of the centre's unit vector
+	 * @param radius The angular radius of the cap in radians
+	 */
+	public SphericalCap(final double cx, final double cy, final double cz, final double radius) {
+		this.cx = cx;
+		this.cy = cy;
+		this.cz = cz;
+		this.radius = radius;
+	}
+
+	/**
+	 * Determines a cap that encloses all the specified unit vectors. The centre of
+	 * the cap is their normalised centroid, the radius is the angle to the
+	 * farthest of them. If the points are spread all over the globe (i.e., their
+	 * centroid is close to the centre of the earth), the cap will cover the whole
+	 * globe.
+	 * 
+	 * @param x    The x components of the unit vectors
+	 * @param y    The y components of the unit vectors
+	 * @param z    The z components of the unit vectors
+	 * @param from The first index to consider
+	 * @param to   The index after the last one to consider
+	 * @return The enclosing cap
+	 */
+	public static SphericalCap enclosing(final double[] x, final double[] y, final double[] z, final int from,
+			final int to) {
+		var sx = 0.0;
+		var sy = 0.0;
+		var sz = 0.0;
+		for (int i = from; i < to; i++) {
+			sx += x[i];
+			sy += y[i];
+			sz += z[i];
+		}
+		final var len = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		if (len < 1e-9) {
+			return new SphericalCap(1, 0, 0, Math.PI);
+		}
+		sx /= len;
+		sy /= len;
+		sz /= len;
+		var minDot = 1.0;
+		for (int i = from; i < to; i++) {
+			minDot = Math.min(minDot, sx * x[i] + sy * y[i] + sz * z[i]);
+		}
+		return new SphericalCap(sx, sy, sz, Math.acos(Math.max(-1, minDot)));
+	}
+
+	/**
+	 * Calculates the dot product threshold that a unit vector must exceed to be
+	 * within the cap extended by a buffer zone. This allows the conversion to be
+	 * done once per query instead of once per location.
+	 * 
+	 * @param bufferMiles The width of the buffer zone around the cap
+	 * @return The threshold, for caps covering the whole globe it is below -1.
+	 */
+	public double minDotWithBuffer(final double bufferMiles) {
+		final var extended = radius + bufferMiles / EarthCentredCoordinates.earthRadiusMiles;
+		return extended >= Math.PI ? -2 : Math.cos(extended);
+	}
+
+	/**
+	 * Checks if a unit vector is within the cap extended by a buffer zone.
+	 * 
+	 * @param ux     The x component of the unit vector
+	 * @param uy     The y component of the unit vector
+	 * @param uz     The z component of the unit vector
+	 * @param minDot The threshold as returned by {@link #minDotWithBuffer(double)}
+	 * @return false if the vector is certainly outside the extended cap
+	 */
+	public boolean mayContain(final double ux, final double uy, final double uz, final double minDot) {
+		return cx * ux + cy * uy + cz * uz >= minDot;
+	}
+}
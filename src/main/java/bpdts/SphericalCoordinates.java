@@ -50,11 +50,24 @@ public class SphericalCoordinates {
 	 *                                  the longitude is not within [-180,180].
 	 */
 	public SphericalCoordinates(final double la, final double lo) {
+		checkRange(la, lo);
+		latitude = la;
+		longitude = lo;
+	}
+
+	/**
+	 * Checks if the latitude and longitude values look proper without the need to
+	 * instantiate a spherical coordinate object.
+	 * 
+	 * @param la The latitude
+	 * @param lo The longitude
+	 * @throws IllegalArgumentException If the latitude is not within [-90,90] or if
+	 *                                  the longitude is not within [-180,180].
+	 */
+	public static void checkRange(final double la, final double lo) {
 		if (la > 90 || la < -90 || lo > 180 || lo < -180)
 			throw new IllegalArgumentException(
 					"Latitude acceptable range: [-90,90]; Longitude acceptable range: [-180,180]");
-		latitude = la;
-		longitude = lo;
 	}
 
 	/**
@@ -63,6 +76,6 @@ public class SphericalCoordinates {
 	 * @param u The user for whom we need the coordinates.
 	 */
 	public SphericalCoordinates(final User u) {
-		this(u.getLatitude().doubleValue(), u.getLongitude().doubleValue());
+		this(LocatedUser.latitudeOf(u), LocatedUser.longitudeOf(u));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Client interfaces implementing this extension are able to process the
+ * complete user list as it arrives from the service, without materialising it.
+ * The BpdtsAPI uses these capabilities whenever the injected client interface
+ * offers them, so the memory needed by its queries only depends on the number
+ * of users they return.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface StreamingClientAPI extends InjectableClientAPI {
+	/**
+	 * Initiates a synchronous service call to get all users listed in the database
+	 * and passes them to the action one by one as they are decoded.
+	 * 
+	 * @param action What to do with each user
+	 * @throws ApiException if there was a network connectivity issue.
+	 */
+	void forEachUser(Consumer<User> action) throws ApiException;
+
+	/**
+	 * Initiates a synchronous service call to get all users listed in the database
+	 * but only keeps those that meet the specified criterion.
+	 * 
+	 * @param filter The criterion for the users to keep
+	 * @return The users that met the criterion
+	 * @throws ApiException if there was a network connectivity issue.
+	 */
+	default UserList getUsers(final Predicate<User> filter) throws ApiException {
+		final var matching = new UserList();
+		forEachUser(u -> {
+			if (filter.test(u)) {
+				matching.add(u);
+			}
+		});
+		return matching;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import bpdts.gen.model.User;
+
+/**
+ * Decodes a json array of users one element at a time. This allows the
+ * processing of user lists without ever having the complete list (or the
+ * complete response body) in memory.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class StreamingUserReader {
+	/**
+	 * No instances are needed, everything is done by the static methods.
+	 */
+	private StreamingUserReader() {
+	}
+
+	/**
+	 * Reads the json array of users and passes every decoded user to the action.
+	 * The users are not kept by the reader, so if the action drops them they can
+	 * be garbage collected right away.
+	 * 
+	 * @param gson   The gson instance that knows how to decode users (e.g., the
+	 *               one of the swagger generated JSON class)
+	 * @param in     The source of the json text
+	 * @param action What to do with each user
+	 * @throws IOException If the source could not be read or if it does not
+	 *                     contain a json array of users.
+	 */
+	public static void forEachUser(final Gson gson, final Reader in, final Consumer<User> action)
+			throws IOException {
+		final var reader = new JsonReader(in);
+		try {
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+				return;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				final User u = gson.fromJson(reader, User.class);
+				action.accept(u);
+			}
+			reader.endArray();
+		} catch (JsonParseException | IllegalStateException e) {
+			throw new IOException("Malformed user list", e);
+		}
+	}
+
+	/**
+	 * Reads the json array of users like {@link #forEachUser(Gson, Reader,
+	 * Consumer)}, and reports the decoding to the metrics. The time spent in the
+	 * action is not part of the reported decoding time.
+	 * 
+	 * @param gson    The gson instance that knows how to decode users
+	 * @param in      The source of the json text
+	 * @param action  What to do with each user
+	 * @param metrics Where to report the number of users decoded and the time
+	 *                the decoding took
+	 * @throws IOException If the source could not be read or if it does not
+	 *                     contain a json array of users.
+	 */
+	public static void forEachUser(final Gson gson, final Reader in, final Consumer<User> action,
+			final MetricsListener metrics) throws IOException {
+		if (metrics == MetricsListener.none) {
+			forEachUser(gson, in, action);
+			return;
+		}
+		// The number of users and the time spent in the action
+		final var counters = new long[2];
+		final var before = System.nanoTime();
+		forEachUser(gson, in, u -> {
+			counters[0]++;
+			final var actionStart = System.nanoTime();
+			action.accept(u);
+			counters[1] += System.nanoTime() - actionStart;
+		});
+		metrics.usersDecoded(counters[0], System.nanoTime() - before - counters[1]);
+	}
+}
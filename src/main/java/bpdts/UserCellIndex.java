@@ -0,0 +1,242 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import bpdts.gen.model.User;
+
+/**
+ * A spatial index over a snapshot of the service's users, allowing many
+ * proximity queries on the same snapshot without scanning all users for each
+ * of them. The globe is split to a hierarchy of latitude/longitude cells (every
+ * cell has four children, down to {@value #levels} levels), and the users are
+ * sorted by the Morton code of their deepest cell. Every cell is thus a
+ * contiguous range of the sorted users. A query only visits the cells covering
+ * the city's bounding box extended with the distance limit, so its cost
+ * depends on the number of users around the city and not on the size of the
+ * snapshot.
+ * 
+ * The index is immutable once built, so it can be queried from many threads.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class UserCellIndex {
+	public static final int levels = 16;
+	private static final int cellsPerAxis = 1 << levels;
+
+	// The Morton codes of the users (shifted left by 31 bits) together with
+	// their original positions, sorted
+	private final long[] entries;
+	private final double[] latitudes, longitudes;
+	private final User[] users;
+	// Users without a location, they are never near anything
+	private final int unlocated;
+
+	/**
+	 * Builds the index over the users.
+	 * 
+	 * @param snapshot The users to index (e.g., the complete user list of the
+	 *                 service). Users without latitude or longitude are not
+	 *                 indexed.
+	 */
+	public UserCellIndex(final Collection<User> snapshot) {
+		final var located = new User[snapshot.size()];
+		final var codes = new long[located.length];
+		var count = 0;
+		for (final var u : snapshot) {
+			if (!LocatedUser.isLocated(u)) {
+				continue;
+			}
+			final var lat = LocatedUser.latitudeOf(u);
+			final var lon = LocatedUser.longitudeOf(u);
+			SphericalCoordinates.checkRange(lat, lon);
+			codes[count] = (morton(latCell(lat), lonCell(lon)) << 31) | count;
+			located[count++] = u;
+		}
+		unlocated = located.length - count;
+		entries = Arrays.copyOf(codes, count);
+		Arrays.sort(entries);
+		latitudes = new double[count];
+		longitudes = new double[count];
+		users = new User[count];
+		for (int i = 0; i < count; i++) {
+			final var u = located[(int) (entries[i] & Integer.MAX_VALUE)];
+			users[i] = u;
+			latitudes[i] = LocatedUser.latitudeOf(u);
+			longitudes[i] = LocatedUser.longitudeOf(u);
+		}
+	}
+
+	private static int latCell(final double lat) {
+		return Math.min(cellsPerAxis - 1, (int) ((lat + 90) / 180 * cellsPerAxis));
+	}
+
+	private static int lonCell(final double lon) {
+		return Math.min(cellsPerAxis - 1, (int) ((lon + 180) / 360 * cellsPerAxis));
+	}
+
+	/**
+	 * Interleaves the bits of the two cell indexes, the latitude's bits are the
+	 * odd ones.
+	 */
+	static long morton(final int latIdx, final int lonIdx) {
+		return spread(latIdx) << 1 | spread(lonIdx);
+	}
+
+	private static long spread(final int v) {
+		var x = v & 0xFFFFL;
+		x = (x | x << 8) & 0x00FF00FFL;
+		x = (x | x << 4) & 0x0F0F0F0FL;
+		x = (x | x << 2) & 0x33333333L;
+		x = (x | x << 1) & 0x55555555L;
+		return x;
+	}
+
+	/**
+	 * Allows querying the number of indexed users.
+	 * 
+	 * @return the number of users with a location
+	 */
+	public int size() {
+		return users.length;
+	}
+
+	/**
+	 * Allows querying the number of users that could not be indexed.
+	 * 
+	 * @return the number of users without a location
+	 */
+	public int getUnlocatedCount() {
+		return unlocated;
+	}
+
+	/**
+	 * The indexed equivalent of {@link BpdtsAPI#getUsersNearCity()}.
+	 * 
+	 * @param city  The city to look for nearby users of
+	 * @param miles The farthest distance that should be still considered close to
+	 *              the city
+	 * @return The users who are inside the city or within the specified miles to
+	 *         its perimeter, ordered by their ids
+	 */
+	public List<User> usersNear(final City city, final double miles) {
+		final var found = new UserIdSet();
+		final var bounds = city.bounds;
+		final var angle = Math.max(0, miles) / EarthCentredCoordinates.earthRadiusMiles;
+		final var latSlack = angle / EarthCentredCoordinates.radPerDegree;
+		final var lonSlack = bounds.lonSlackFor(angle);
+		final var south = bounds.minLat - latSlack;
+		final var north = bounds.maxLat + latSlack;
+		final var lonSpan = (bounds.maxLon - bounds.minLon + 360) % 360 + 2 * lonSlack;
+		if (users.length == 0) {
+			return found.toList();
+		}
+		if (!(lonSpan < 360)) {
+			// The extended box covers all longitudes, only the latitudes narrow it down
+			cover(city, miles, Math.max(-90, south), Math.min(90, north), -180, 180, found);
+		} else {
+			final var west = bounds.minLon - lonSlack;
+			final var east = west + lonSpan;
+			if (west < -180) {
+				cover(city, miles, south, north, west + 360, 180, found);
+				cover(city, miles, south, north, -180, east, found);
+			} else if (east > 180) {
+				cover(city, miles, south, north, west, 180, found);
+				cover(city, miles, south, north, -180, east - 360, found);
+			} else {
+				cover(city, miles, south, north, west, east, found);
+			}
+		}
+		return found.toList();
+	}
+
+	/**
+	 * Visits the cells overlapping a box that does not cross the antimeridian.
+	 */
+	private void cover(final City city, final double miles, final double south, final double north,
+			final double west, final double east, final UserIdSet found) {
+		// Below this level the cells are small compared to the box, so they are not
+		// split further
+		final var boxSize = Math.max(north - south, (east - west) / 2);
+		var stopLevel = 0;
+		while (stopLevel < levels && 180.0 / (1 << stopLevel) > boxSize / 2) {
+			stopLevel++;
+		}
+		visit(0, 0, 0, stopLevel, Math.max(-90, south), Math.min(90, north), west, east, city, miles, found);
+	}
+
+	private void visit(final int level, final int latIdx, final int lonIdx, final int stopLevel, final double south,
+			final double north, final double west, final double east, final City city, final double miles,
+			final UserIdSet found) {
+		final var latSize = 180.0 / (1 << level);
+		final var lonSize = 360.0 / (1 << level);
+		final var cellSouth = -90 + latIdx * latSize;
+		final var cellWest = -180 + lonIdx * lonSize;
+		if (cellSouth > north || cellSouth + latSize < south || cellWest > east || cellWest + lonSize < west) {
+			return;
+		}
+		final var inside = cellSouth >= south && cellSouth + latSize <= north && cellWest >= west
+				&& cellWest + lonSize <= east;
+		if (inside || level == stopLevel) {
+			final var shift = 2 * (levels - level);
+			final var first = morton(latIdx, lonIdx) << shift;
+			scan(first, first + (1L << shift), city, miles, found);
+			return;
+		}
+		for (int child = 0; child < 4; child++) {
+			visit(level + 1, latIdx << 1 | child >> 1, lonIdx << 1 | child & 1, stopLevel, south, north, west,
+					east, city, miles, found);
+		}
+	}
+
+	/**
+	 * Checks the users with Morton codes in the range [from, to).
+	 */
+	private void scan(final long from, final long to, final City city, final double miles,
+			final UserIdSet found) {
+		for (int i = lowerBound(from << 31); i < entries.length && entries[i] >>> 31 < to; i++) {
+			if (city.isLocationWithin(latitudes[i], longitudes[i], miles)) {
+				found.add(users[i]);
+			}
+		}
+	}
+
+	private int lowerBound(final long key) {
+		var lo = 0;
+		var hi = entries.length;
+		while (lo < hi) {
+			final var mid = (lo + hi) >>> 1;
+			if (entries[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import bpdts.gen.model.User;
+
+/**
+ * Allows to get notified about the changes the synchronising mode of the
+ * BpdtsAPI detects between two polls of the service. See:
+ * {@link BpdtsAPI#synchronise()}
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface UserDeltaListener {
+	/**
+	 * The user became a member of the set (e.g., moved close to the city).
+	 * 
+	 * @param set The set the user entered
+	 * @param u   The user as it was received in the latest poll
+	 */
+	void entered(Membership set, User u);
+
+	/**
+	 * The user is no longer a member of the set (e.g., moved away from the city or
+	 * is no longer listed by the service).
+	 * 
+	 * @param set The set the user left
+	 * @param u   The user as it was received in the latest poll (or the last time
+	 *            it was listed)
+	 */
+	void left(Membership set, User u);
+}
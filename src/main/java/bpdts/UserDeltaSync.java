@@ -0,0 +1,266 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+
+/**
+ * The state behind the synchronising mode of the BpdtsAPI. Keeps a snapshot of
+ * the service's users keyed by their ids, together with their last known
+ * classification against the city. Every poll is compared to the snapshot, and
+ * only the new or changed users are classified again, thus the cost of the
+ * classification scales with the churn of the users and not with their number.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class UserDeltaSync {
+	private final InjectableClientAPI api;
+	private final List<UserDeltaListener> listeners = new CopyOnWriteArrayList<>();
+	private final HashMap<Integer, Entry> snapshot = new HashMap<>();
+	// The city and distance the snapshot was classified against
+	private City lastCity;
+	private double lastMiles;
+	// Incremented with every poll, users not seen in the latest one are removed
+	private long generation;
+
+	/**
+	 * The last known state of a user.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	private static final class Entry {
+		User user;
+		String city;
+		// NaN if the coordinate was not present
+		double latitude, longitude;
+		// If the user was listed by the service as a citizen of the city
+		boolean listed;
+		boolean citizen, near;
+		long generation;
+	}
+
+	/**
+	 * Prepares an empty snapshot.
+	 * 
+	 * @param api The client service interface to poll
+	 */
+	public UserDeltaSync(final InjectableClientAPI api) {
+		this.api = api;
+	}
+
+	/**
+	 * Allows subscribing to the entered and left events of the users.
+	 * 
+	 * @param l The listener to notify
+	 */
+	public void addListener(final UserDeltaListener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Cancels the subscription of a listener.
+	 * 
+	 * @param l The listener not to notify anymore
+	 */
+	public void removeListener(final UserDeltaListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Polls the service and updates the snapshot. The listeners are notified about
+	 * every user whose membership changed since the previous poll. If the city or
+	 * the distance is different from the one used at the previous poll, then all
+	 * users are classified again.
+	 * 
+	 * @param city  The city to classify the users against (null means that no user
+	 *              is a member of either set)
+	 * @param miles The farthest distance that should be still considered close to
+	 *              the city
+	 * @return The number of users who are new, changed or no longer listed since
+	 *         the previous poll
+	 * @throws ApiException In case of networking issues, no user is classified
+	 *                      again and no listener is notified then (the unchanged
+	 *                      users received before the failure are still marked as
+	 *                      seen, but a poll only considers its own marks).
+	 */
+	public synchronized int synchronise(final City city, final double miles) throws ApiException {
+		// A failed poll also uses up its generation, so the users it marked as seen
+		// are not mistaken for ones seen by the next poll
+		generation++;
+		final var listedUsers = new HashMap<Integer, User>();
+		if (city != null) {
+			api.getCityUsers(city.name).forEach(u -> listedUsers.put(u.getId(), u));
+		}
+		// Only the changed users are collected, the unchanged ones are marked with the
+		// generation while the list is received, see the note on the failures above
+		final var changed = new UserIdSet();
+		final var all = city != lastCity || miles != lastMiles;
+		forEachUser(u -> {
+			if (all || isChanged(u, listedUsers.containsKey(u.getId()))) {
+				changed.add(u);
+			}
+		});
+		lastCity = city;
+		lastMiles = miles;
+		var changes = 0;
+		for (int i = 0; i < changed.size(); i++) {
+			final var u = changed.getUser(i);
+			changes += update(u, listedUsers.remove(u.getId()) != null, city, miles) ? 1 : 0;
+		}
+		for (final var u : listedUsers.values()) {
+			final var e = snapshot.get(u.getId());
+			if (e != null && e.generation == generation) {
+				// Amongst all users and unchanged there, the snapshot keeps that copy
+				continue;
+			}
+			// Listed as a citizen, but not amongst all users
+			if (all || isChanged(u, true)) {
+				changes += update(u, true, city, miles) ? 1 : 0;
+			}
+		}
+		final var it = snapshot.values().iterator();
+		while (it.hasNext()) {
+			final var e = it.next();
+			if (e.generation != generation) {
+				it.remove();
+				notify(Membership.CITIZENSHIP, e.citizen, false, e.user);
+				notify(Membership.PROXIMITY, e.near, false, e.user);
+				changes++;
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Determines if a user of the latest poll differs from its snapshot. Unchanged
+	 * users are marked as seen in the latest poll.
+	 */
+	private boolean isChanged(final User u, final boolean listed) {
+		final var e = snapshot.get(u.getId());
+		if (e == null || differs(e, u, listed)) {
+			return true;
+		}
+		e.user = u;
+		e.generation = generation;
+		return false;
+	}
+
+	/**
+	 * Classifies a new or changed user and records it in the snapshot.
+	 * 
+	 * @return true if the user was new or changed
+	 */
+	private boolean update(final User u, final boolean listed, final City city, final double miles) {
+		var e = snapshot.get(u.getId());
+		final var changed = e == null || differs(e, u, listed);
+		if (e == null) {
+			e = new Entry();
+			snapshot.put(u.getId(), e);
+		}
+		e.user = u;
+		e.city = u.getCity();
+		e.latitude = LocatedUser.latitudeOrNaN(u);
+		e.longitude = LocatedUser.longitudeOrNaN(u);
+		e.listed = listed;
+		e.generation = generation;
+		final var citizen = city != null && (listed || city.userBelongsToCity(u) == Belonging.CITIZEN);
+		// Users without a location cannot be close to anything
+		final var near = city != null && LocatedUser.isLocated(u)
+				&& city.isWithin(u, miles);
+		notify(Membership.CITIZENSHIP, e.citizen, citizen, u);
+		notify(Membership.PROXIMITY, e.near, near, u);
+		e.citizen = citizen;
+		e.near = near;
+		return changed;
+	}
+
+	private void notify(final Membership set, final boolean was, final boolean is, final User u) {
+		if (was != is) {
+			for (final var l : listeners) {
+				if (is) {
+					l.entered(set, u);
+				} else {
+					l.left(set, u);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares the user to its snapshot without creating the BigDecimal view of
+	 * its location.
+	 */
+	private static boolean differs(final Entry e, final User u, final boolean listed) {
+		return e.listed != listed || !Objects.equals(e.city, u.getCity())
+				|| !sameValue(e.latitude, LocatedUser.latitudeOrNaN(u))
+				|| !sameValue(e.longitude, LocatedUser.longitudeOrNaN(u));
+	}
+
+	private static boolean sameValue(final double a, final double b) {
+		return a == b || Double.isNaN(a) && Double.isNaN(b);
+	}
+
+	private void forEachUser(final Consumer<User> action) throws ApiException {
+		if (api instanceof StreamingClientAPI) {
+			((StreamingClientAPI) api).forEachUser(action);
+		} else {
+			api.getUsers().forEach(action);
+		}
+	}
+
+	/**
+	 * Lists the citizens of the city according to the latest poll.
+	 * 
+	 * @return The users ordered by their ids
+	 */
+	public synchronized List<User> getCitizens() {
+		return collect(e -> e.citizen);
+	}
+
+	/**
+	 * Lists the users who were in the city or close to it according to the latest
+	 * poll.
+	 * 
+	 * @return The users ordered by their ids
+	 */
+	public synchronized List<User> getNearbyUsers() {
+		return collect(e -> e.near);
+	}
+
+	private List<User> collect(final Predicate<Entry> member) {
+		final var users = new UserIdSet();
+		snapshot.values().stream().filter(member).forEach(e -> users.add(e.user));
+		return users.toList();
+	}
+}
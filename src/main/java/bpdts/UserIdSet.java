@@ -0,0 +1,178 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import bpdts.gen.model.User;
+
+/**
+ * A result container for user queries that does not allow the same user id to
+ * be listed multiple times, and lists its users ordered by their ids. The ids
+ * are kept in a primitive array, duplicates are detected with an open
+ * addressing hash table over them, and the ordered output is produced with a
+ * primitive sort, thus the container does not need per user node objects or
+ * boxing like a sorted set would. Only the ids are copied on addition, the
+ * users are kept as they were added.
+ * 
+ * The container is not thread safe.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class UserIdSet {
+	private static final int initialCapacity = 16;
+
+	private int size;
+	private int[] ids = new int[initialCapacity];
+	private User[] users = new User[initialCapacity];
+	// Open addressing table over the ids, every slot holds the position of the
+	// user in the arrays plus one (zero marks empty slots)
+	private int[] slots = new int[2 * initialCapacity];
+
+	/**
+	 * Adds a user unless there is already one with the same id in the container.
+	 * 
+	 * @param u The user to add
+	 * @return true if the user was added
+	 * @throws NullPointerException if the user has no id
+	 */
+	public boolean add(final User u) {
+		final int id = u.getId();
+		var slot = slotOf(id);
+		if (slots[slot] != 0) {
+			return false;
+		}
+		if (size == ids.length) {
+			grow();
+			slot = slotOf(id);
+		}
+		ids[size] = id;
+		users[size] = u;
+		slots[slot] = ++size;
+		return true;
+	}
+
+	/**
+	 * Adds all users of a collection, see {@link #add(User)}.
+	 * 
+	 * @param us The users to add
+	 */
+	public void addAll(final Collection<User> us) {
+		us.forEach(this::add);
+	}
+
+	/**
+	 * Determines if there is a user with the specified id in the container.
+	 * 
+	 * @param id The user id to look for
+	 * @return true if the user is already in the container
+	 */
+	public boolean contains(final int id) {
+		return slots[slotOf(id)] != 0;
+	}
+
+	/**
+	 * Allows querying how many users are in the container.
+	 * 
+	 * @return the number of distinct users added so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i The position of the user in the order of addition
+	 * @return The id of the user
+	 */
+	public int getId(final int i) {
+		checkIndex(i);
+		return ids[i];
+	}
+
+	/**
+	 * @param i The position of the user in the order of addition
+	 * @return The user object as it was added
+	 */
+	public User getUser(final int i) {
+		checkIndex(i);
+		return users[i];
+	}
+
+	/**
+	 * Produces the users of the container ordered by their ids.
+	 * 
+	 * @return An unmodifiable list of the users
+	 */
+	public List<User> toList() {
+		// The id is in the upper half so the sort orders by it, the lower half is
+		// the position of the user in the arrays
+		final var keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		final var ordered = new User[size];
+		for (int i = 0; i < size; i++) {
+			ordered[i] = users[(int) keys[i]];
+		}
+		return Collections.unmodifiableList(Arrays.asList(ordered));
+	}
+
+	private void checkIndex(final int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+		}
+	}
+
+	/**
+	 * Linear probing over the table.
+	 * 
+	 * @param id The id to look for
+	 * @return The slot with the id, or the empty slot where it should be placed
+	 */
+	private int slotOf(final int id) {
+		final var mask = slots.length - 1;
+		// Spreads consecutive ids over the table
+		final var hash = id * 0x9E3779B9;
+		var slot = (hash ^ hash >>> 16) & mask;
+		while (slots[slot] != 0 && ids[slots[slot] - 1] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		final var capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		users = Arrays.copyOf(users, capacity);
+		slots = new int[2 * capacity];
+		for (int i = 0; i < size; i++) {
+			slots[slotOf(ids[i])] = i + 1;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import bpdts.gen.model.User;
+
+/**
+ * Keeps the earth centred unit vectors of the users' locations in primitive
+ * arrays, so the trigonometry of the conversion is only done once per user
+ * even if the users are checked against several cities or distances. The
+ * entries are keyed by the user's id and are only considered valid for a user
+ * if its coordinates are the same as the ones the vector was calculated from.
+ * Users that already carry their vector (see {@link LocatedUser}) have it
+ * copied instead of calculated.
+ * 
+ * <p>
+ * Only the users added get an entry, so users that are ruled out by a cheap
+ * check (e.g., the ones outside a city's bounding box) can be left out with
+ * {@link #addAll(List, Predicate)}. This way neither the trigonometry nor the
+ * space of the entries is spent on them.
+ * 
+ * <p>
+ * A cache is meant to represent a single snapshot of the user list. When it is
+ * created based on the cache of the previous snapshot, the vectors of the users
+ * who did not move are copied over from there instead of being recalculated.
+ * 
+ * <p>
+ * NOTE: the cache is populated by a single thread, afterwards it can be read
+ * by any number of threads.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class UserLocationCache {
+	private static final int initialCapacity = 64;
+
+	// Only kept until the population of the cache is complete
+	private UserLocationCache previous;
+	private int[] ids = new int[initialCapacity];
+	private double[] latitudes = new double[initialCapacity];
+	private double[] longitudes = new double[initialCapacity];
+	private double[] xs = new double[initialCapacity];
+	private double[] ys = new double[initialCapacity];
+	private double[] zs = new double[initialCapacity];
+	// Open addressing table of entry positions + 1, 0 means an empty slot
+	private int[] slots = new int[initialCapacity * 2];
+	private int size;
+	// The number of vectors that had to be calculated (i.e., not reused)
+	private final LongAdder computed = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 */
+	public UserLocationCache() {
+		this(null);
+	}
+
+	/**
+	 * Creates an empty cache for a new snapshot of the user list.
+	 * 
+	 * @param previous The cache of the previous snapshot, whose vectors are
+	 *                 reused for the users with the same id and coordinates. Can
+	 *                 be null. The previous cache is only read while this one is
+	 *                 populated.
+	 */
+	public UserLocationCache(final UserLocationCache previous) {
+		this.previous = previous;
+	}
+
+	private int slotOf(final int id) {
+		final var mask = slots.length - 1;
+		var slot = (id * 0x9E3779B9) >>> 1 & mask;
+		while (slots[slot] != 0 && ids[slots[slot] - 1] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		final var capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+		slots = new int[capacity * 2];
+		for (int i = 0; i < size; i++) {
+			slots[slotOf(ids[i])] = i + 1;
+		}
+	}
+
+	/**
+	 * Looks up the user and checks if the cached location is still valid for it.
+	 * 
+	 * @param u The user to look for
+	 * @return The position of the user's entry or -1 if the user is not cached
+	 *         (or moved since the entry was made, or has no location at all)
+	 */
+	public int indexOf(final User u) {
+		final var id = u.getId();
+		if (id == null) {
+			return -1;
+		}
+		final var entry = slots[slotOf(id)] - 1;
+		if (entry < 0 || latitudes[entry] != LocatedUser.latitudeOrNaN(u)
+				|| longitudes[entry] != LocatedUser.longitudeOrNaN(u)) {
+			return -1;
+		}
+		return entry;
+	}
+
+	/**
+	 * Makes sure the cache has a valid entry for the user. The vector is copied
+	 * from the previous snapshot's cache if possible and is only calculated
+	 * otherwise.
+	 * 
+	 * @param u The user to add
+	 * @return The position of the user's entry or -1 if the user has no id or no
+	 *         complete location
+	 */
+	public int add(final User u) {
+		final var entry = addWithoutVector(u);
+		if (entry >= 0 && Double.isNaN(xs[entry])) {
+			computeVector(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Adds all users of a list, see {@link #add(User)}. For long lists, the
+	 * vectors that cannot be reused are calculated in parallel.
+	 * 
+	 * @param users The users to add
+	 */
+	public void addAll(final List<User> users) {
+		addAll(users, u -> true);
+	}
+
+	/**
+	 * Adds the users of a list that pass the filter, see {@link #add(User)}. The
+	 * filter is evaluated before anything is calculated for the user, so it
+	 * should be cheap.
+	 * 
+	 * @param users  The users to consider
+	 * @param filter Selects the users to add
+	 */
+	public void addAll(final List<User> users, final Predicate<User> filter) {
+		if (users.size() < City.parallelBatchThreshold) {
+			for (final var u : users) {
+				if (filter.test(u)) {
+					add(u);
+				}
+			}
+			return;
+		}
+		final var from = size;
+		for (final var u : users) {
+			if (filter.test(u)) {
+				addWithoutVector(u);
+			}
+		}
+		IntStream.range(from, size).parallel().filter(i -> Double.isNaN(xs[i])).forEach(this::computeVector);
+	}
+
+	/**
+	 * Creates or updates the user's entry, the vector is only filled in if it is
+	 * reused, otherwise it is left as NaN.
+	 */
+	private int addWithoutVector(final User u) {
+		final var id = u.getId();
+		final var latitude = LocatedUser.latitudeOrNaN(u);
+		final var longitude = LocatedUser.longitudeOrNaN(u);
+		if (id == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+			return -1;
+		}
+		var slot = slotOf(id);
+		var entry = slots[slot] - 1;
+		if (entry >= 0) {
+			if (latitudes[entry] == latitude && longitudes[entry] == longitude) {
+				return entry;
+			}
+		} else {
+			if (size == ids.length) {
+				grow();
+				slot = slotOf(id);
+			}
+			entry = size++;
+			ids[entry] = id;
+			slots[slot] = entry + 1;
+		}
+		latitudes[entry] = latitude;
+		longitudes[entry] = longitude;
+		xs[entry] = Double.NaN;
+		if (u instanceof LocatedUser && ((LocatedUser) u).hasUnitVector()) {
+			final var l = (LocatedUser) u;
+			xs[entry] = l.unitX();
+			ys[entry] = l.unitY();
+			zs[entry] = l.unitZ();
+		} else if (previous != null) {
+			final var old = previous.indexOf(u);
+			if (old >= 0) {
+				xs[entry] = previous.xs[old];
+				ys[entry] = previous.ys[old];
+				zs[entry] = previous.zs[old];
+			}
+		}
+		return entry;
+	}
+
+	private void computeVector(final int entry) {
+		final var latRad = EarthCentredCoordinates.radPerDegree * latitudes[entry];
+		final var lonRad = EarthCentredCoordinates.radPerDegree * longitudes[entry];
+		final var cosLat = Math.cos(latRad);
+		ys[entry] = cosLat * Math.sin(lonRad);
+		zs[entry] = Math.sin(latRad);
+		xs[entry] = cosLat * Math.cos(lonRad);
+		computed.increment();
+	}
+
+	/**
+	 * Ends the population of the cache, the cache of the previous snapshot is no
+	 * longer referenced afterwards (so the snapshots do not form a chain in
+	 * memory). Further additions are still possible, but they cannot reuse
+	 * vectors any more.
+	 */
+	public void complete() {
+		previous = null;
+	}
+
+	/**
+	 * @param entry The position of the entry as returned by {@link #add(User)} or
+	 *              {@link #indexOf(User)}
+	 * @return The latitude the vector was calculated from
+	 */
+	public double getLatitude(final int entry) {
+		return latitudes[entry];
+	}
+
+	/**
+	 * @param entry The position of the entry
+	 * @return The longitude the vector was calculated from
+	 */
+	public double getLongitude(final int entry) {
+		return longitudes[entry];
+	}
+
+	/**
+	 * @param entry The position of the entry as returned by {@link #add(User)} or
+	 *              {@link #indexOf(User)}
+	 * @return The x component of the user's earth centred unit vector
+	 */
+	public double getX(final int entry) {
+		return xs[entry];
+	}
+
+	/**
+	 * @param entry The position of the entry
+	 * @return The y component of the user's earth centred unit vector
+	 */
+	public double getY(final int entry) {
+		return ys[entry];
+	}
+
+	/**
+	 * @param entry The position of the entry
+	 * @return The z component of the user's earth centred unit vector
+	 */
+	public double getZ(final int entry) {
+		return zs[entry];
+	}
+
+	/**
+	 * @return The number of users in the cache
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Allows checking how much trigonometry the cache needed.
+	 * 
+	 * @return The number of vectors calculated (i.e., the ones not reused from
+	 *         the previous snapshot)
+	 */
+	public long getComputed() {
+		return computed.sum();
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+
+/**
+ * Client interfaces implementing this extension are able to query individual
+ * users by their ids. This allows the refresh of a few known users without
+ * downloading the complete user list. See: {@link BulkUserLookup}
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public interface UserLookupClientAPI extends InjectableClientAPI {
+	/**
+	 * Initiates a synchronous service call to get a single user.
+	 * 
+	 * @param id The id of the user to look for
+	 * @return The user with the specified id
+	 * @throws ApiException if there was a network connectivity issue, or with the
+	 *                      404 code if there is no such user.
+	 */
+	User getUser(int id) throws ApiException;
+}
@@ -0,0 +1,339 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Reads and writes the compact binary snapshots of the complete user list of
+ * the service, optionally together with the users the service listed in some
+ * of its cities. The user lists are columnar: the ids, the coordinates and the
+ * cities of the users are stored in separate arrays, the cities as indexes to
+ * a dictionary, as there are far fewer cities than users. The files are memory
+ * mapped and the numeric columns are bulk copied, so loading them needs no json
+ * parsing and no BigDecimals. The users are loaded as {@link LocatedUser}s.
+ * 
+ * The layout of the files (all numbers are little endian, strings are stored
+ * as a 4 byte length followed by their UTF-8 bytes, -1 length means null):
+ * <ol>
+ * <li>magic: 4 bytes, "BPDU"</li>
+ * <li>version: 2 byte integer, {@link #version} (files of version 1 have no
+ * city listings)</li>
+ * <li>flags: 2 byte integer, reserved (0)</li>
+ * <li>the complete user list, as a user block (see below)</li>
+ * <li>city listing count: 4 byte integer</li>
+ * <li>city listings: the name of the city as a string followed by a user
+ * block with the users the service listed in it</li>
+ * </ol>
+ * A user block is made of:
+ * <ol>
+ * <li>user count: 4 byte integer</li>
+ * <li>ids: 4 byte integers, {@link Integer#MIN_VALUE} if the user had no
+ * id</li>
+ * <li>latitudes, then longitudes: 8 byte doubles, NaN if not known</li>
+ * <li>city dictionary: 4 byte entry count followed by the strings</li>
+ * <li>cities: 4 byte indexes to the dictionary, -1 if the user had no
+ * city</li>
+ * <li>the remaining details of the users: the first name, last name, email and
+ * ip address strings of every user, in this order</li>
+ * </ol>
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class UserSnapshotFile {
+	public static final String extension = ".bpu";
+	public static final int magic = 0x55445042;
+	public static final short version = 2;
+	// The last version without city listings
+	private static final short unlistedVersion = 1;
+	private static final int noId = Integer.MIN_VALUE;
+
+	private UserSnapshotFile() {
+		// Utility class
+	}
+
+	/**
+	 * Stores the users without any city listings.
+	 * 
+	 * @param users The users to store
+	 * @param file  Where to store the users
+	 * @throws IOException If the file cannot be written
+	 * @see #write(List, Map, Path)
+	 */
+	public static void write(final List<User> users, final Path file) throws IOException {
+		write(users, Collections.emptyMap(), file);
+	}
+
+	/**
+	 * Stores the users and the city listings. The file is first written next to
+	 * its final location and then moved in place, so readers never see a
+	 * partially written snapshot.
+	 * 
+	 * @param users        The users to store
+	 * @param cityListings The users listed by the service in the cities, keyed
+	 *                     by the names of the cities
+	 * @param file         Where to store the users
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(final List<User> users, final Map<String, ? extends List<User>> cityListings,
+			final Path file) throws IOException {
+		final var buffers = new ArrayList<ByteBuffer>();
+		buffers.add(ByteBuffer.allocate(4 + 2 + 2).order(ByteOrder.LITTLE_ENDIAN).putInt(magic).putShort(version)
+				.putShort((short) 0).flip());
+		buffers.add(encode(users));
+		buffers.add(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(cityListings.size()).flip());
+		for (final var listing : cityListings.entrySet()) {
+			final var name = listing.getKey().getBytes(StandardCharsets.UTF_8);
+			final var nameBuffer = ByteBuffer.allocate(4 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+			putString(nameBuffer, name);
+			buffers.add(nameBuffer.flip());
+			buffers.add(encode(listing.getValue()));
+		}
+		final var all = buffers.toArray(new ByteBuffer[0]);
+		final var temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (all[all.length - 1].hasRemaining()) {
+				channel.write(all);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Lays out a user block.
+	 * 
+	 * @param users The users of the block
+	 * @return The block ready to be written
+	 * @throws IOException If the block would be too large
+	 */
+	private static ByteBuffer encode(final List<User> users) throws IOException {
+		final var n = users.size();
+		final var dictionary = new HashMap<String, Integer>();
+		final var dictionaryBytes = new ArrayList<byte[]>();
+		final var cityIndexes = new int[n];
+		final var details = new byte[4 * n][];
+		long size = 4 + (4L + 2 * Double.BYTES + 4) * n + 4;
+		for (int i = 0; i < n; i++) {
+			final var u = users.get(i);
+			final var city = u.getCity();
+			if (city == null) {
+				cityIndexes[i] = -1;
+			} else {
+				cityIndexes[i] = dictionary.computeIfAbsent(city, c -> {
+					dictionaryBytes.add(c.getBytes(StandardCharsets.UTF_8));
+					return dictionaryBytes.size() - 1;
+				});
+			}
+			details[4 * i] = bytesOf(u.getFirstName());
+			details[4 * i + 1] = bytesOf(u.getLastName());
+			details[4 * i + 2] = bytesOf(u.getEmail());
+			details[4 * i + 3] = bytesOf(u.getIpAddress());
+		}
+		for (final var s : dictionaryBytes) {
+			size += 4 + s.length;
+		}
+		for (final var s : details) {
+			size += 4 + (s == null ? 0 : s.length);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The user list is too large for a single snapshot file");
+		}
+		final var buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(n);
+		for (final var u : users) {
+			buffer.putInt(u.getId() == null ? noId : u.getId());
+		}
+		for (final var u : users) {
+			buffer.putDouble(LocatedUser.latitudeOrNaN(u));
+		}
+		for (final var u : users) {
+			buffer.putDouble(LocatedUser.longitudeOrNaN(u));
+		}
+		buffer.putInt(dictionaryBytes.size());
+		dictionaryBytes.forEach(s -> putString(buffer, s));
+		buffer.asIntBuffer().put(cityIndexes);
+		buffer.position(buffer.position() + Integer.BYTES * n);
+		for (final var s : details) {
+			putString(buffer, s);
+		}
+		return buffer.flip();
+	}
+
+	private static byte[] bytesOf(final String s) {
+		return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void putString(final ByteBuffer buffer, final byte[] s) {
+		if (s == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(s.length).put(s);
+		}
+	}
+
+	/**
+	 * Loads the complete user list of a snapshot, its city listings are only
+	 * checked.
+	 * 
+	 * @param file The snapshot file
+	 * @return The users in the order they were stored
+	 * @throws IOException If the file is not readable, is not a user snapshot or
+	 *                     is truncated.
+	 * @see #read(Path, Map)
+	 */
+	public static UserList read(final Path file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Loads a snapshot stored with {@link #write(List, Map, Path)}.
+	 * 
+	 * @param file         The snapshot file
+	 * @param cityListings Where to put the users listed in the cities (keyed by
+	 *                     the names of the cities), null if they are not needed
+	 * @return The users in the order they were stored
+	 * @throws IOException If the file is not readable, is not a user snapshot or
+	 *                     is truncated.
+	 */
+	public static UserList read(final Path file, final Map<String, UserList> cityListings) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != magic) {
+				throw new IOException("Input " + file + " is not a user snapshot file");
+			}
+			final var fileVersion = buffer.getShort();
+			if (fileVersion != version && fileVersion != unlistedVersion) {
+				throw new IOException("Input " + file + " has unsupported version " + fileVersion);
+			}
+			buffer.getShort();
+			final var users = decode(buffer, file);
+			if (fileVersion != unlistedVersion) {
+				final var count = buffer.getInt();
+				checkCount(count, buffer, file);
+				for (int i = 0; i < count; i++) {
+					final var city = getString(buffer, file);
+					if (city == null) {
+						throw new IOException("Input " + file + " has a city listing without a name");
+					}
+					final var listed = decode(buffer, file);
+					if (cityListings != null) {
+						cityListings.put(city, listed);
+					}
+				}
+			}
+			return users;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Input " + file + " is truncated", e);
+		}
+	}
+
+	/**
+	 * Loads a user block.
+	 */
+	private static UserList decode(final ByteBuffer buffer, final Path file) throws IOException {
+		final var n = buffer.getInt();
+		if (n < 0 || buffer.remaining() < (4L + 2 * Double.BYTES + 4) * n) {
+			throw new IOException("Input " + file + " is truncated");
+		}
+		final var ids = new int[n];
+		final var latitudes = new double[n];
+		final var longitudes = new double[n];
+		buffer.asIntBuffer().get(ids);
+		buffer.position(buffer.position() + Integer.BYTES * n);
+		buffer.asDoubleBuffer().get(latitudes);
+		buffer.position(buffer.position() + Double.BYTES * n);
+		buffer.asDoubleBuffer().get(longitudes);
+		buffer.position(buffer.position() + Double.BYTES * n);
+		final var dictionarySize = buffer.getInt();
+		checkCount(dictionarySize, buffer, file);
+		final var dictionary = new String[dictionarySize];
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = getString(buffer, file);
+		}
+		final var cityIndexes = new int[n];
+		buffer.asIntBuffer().get(cityIndexes);
+		buffer.position(buffer.position() + Integer.BYTES * n);
+		final var users = new UserList();
+		users.ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			final var u = new LocatedUser();
+			u.setId(ids[i] == noId ? null : ids[i]);
+			u.setLocation(latitudes[i], longitudes[i]);
+			final var city = cityIndexes[i];
+			if (city < -1 || city >= dictionary.length) {
+				throw new IOException("Input " + file + " has an invalid city for user " + i);
+			}
+			u.setCity(city < 0 ? null : dictionary[city]);
+			u.setFirstName(getString(buffer, file));
+			u.setLastName(getString(buffer, file));
+			u.setEmail(getString(buffer, file));
+			u.setIpAddress(getString(buffer, file));
+			users.add(u);
+		}
+		return users;
+	}
+
+	/**
+	 * Checks the number of strings (or blocks) that follow, each of them takes at
+	 * least 4 bytes.
+	 */
+	private static void checkCount(final int count, final ByteBuffer buffer, final Path file) throws IOException {
+		if (count < 0 || count > buffer.remaining() / 4) {
+			throw new IOException("Input " + file + " is truncated");
+		}
+	}
+
+	private static String getString(final ByteBuffer buffer, final Path file) throws IOException {
+		final var length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Input " + file + " is truncated");
+		}
+		final var bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.demo;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bpdts.BpdtsAPI;
+import bpdts.City;
+import bpdts.DefaultClientAPI;
+import bpdts.HttpClientAPI;
+import bpdts.gen.ApiException;
+
+/**
+ * Drives the BpdtsAPI with concurrent queries and reports their latency
+ * percentiles and the throughput achieved. Every thread issues its queries
+ * back to back, alternating between the users of the city and the users near
+ * the city. The latencies are recorded in full (not sampled), so the
+ * percentiles are exact for the measured period.
+ * 
+ * It can also be run on the console against a service or against a freshly
+ * started {@link StubUserService}, see {@link #main(String[])}.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class LoadGenerator {
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final BpdtsAPI api;
+	private final int threads;
+
+	/**
+	 * The outcome of a load test.
+	 * 
+	 * @author Gabor Kecskemeti
+	 *
+	 */
+	public static class Report {
+		/**
+		 * The latencies of the successful queries in nanoseconds, ascending
+		 */
+		private final long[] latencies;
+		public final long failures;
+		public final Duration duration;
+
+		private Report(final long[] latencies, final long failures, final Duration duration) {
+			this.latencies = latencies;
+			this.failures = failures;
+			this.duration = duration;
+			Arrays.sort(latencies);
+		}
+
+		/**
+		 * @return the number of successful queries
+		 */
+		public int getQueries() {
+			return latencies.length;
+		}
+
+		/**
+		 * @return the successful queries per second
+		 */
+		public double getThroughput() {
+			return latencies.length * 1e9 / duration.toNanos();
+		}
+
+		/**
+		 * Determines the latency below which the given share of the successful
+		 * queries completed (nearest rank method).
+		 * 
+		 * @param percent The share of the queries in percent (0-100]
+		 * @return The latency in nanoseconds, or 0 if there were no successful
+		 *         queries
+		 */
+		public long getPercentile(final double percent) {
+			if (percent <= 0 || percent > 100) {
+				throw new IllegalArgumentException("Percentiles should be in (0,100], got " + percent);
+			}
+			if (latencies.length == 0) {
+				return 0;
+			}
+			return latencies[(int) Math.ceil(percent / 100 * latencies.length) - 1];
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d queries (%d failed) in %.1f s, %.1f queries/s%nlatency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+					latencies.length, failures, duration.toNanos() / 1e9, getThroughput(), getPercentile(50) / 1e6,
+					getPercentile(90) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6,
+					getPercentile(100) / 1e6);
+		}
+	}
+
+	/**
+	 * The latencies measured by a single thread.
+	 */
+	private static class Recording {
+		long[] latencies = new long[1024];
+		int count;
+		long failures;
+
+		void add(final long nanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+	}
+
+	/**
+	 * Prepares a load test.
+	 * 
+	 * @param api     The API to query, with its city and distance already set
+	 * @param threads How many queries should be in progress at once
+	 */
+	public LoadGenerator(final BpdtsAPI api, final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed, got " + threads);
+		}
+		this.api = api;
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs the load test, blocking the caller until it is done.
+	 * 
+	 * @param warmup   How long the queries should run before measuring them
+	 * @param duration How long the queries should be measured
+	 * @return The measurements of all threads
+	 * @throws InterruptedException If the caller was interrupted while waiting
+	 *                              for the threads
+	 */
+	public Report run(final Duration warmup, final Duration duration) throws InterruptedException {
+		final var poolId = poolCount.incrementAndGet();
+		final var threadCount = new AtomicInteger();
+		final var pool = Executors.newFixedThreadPool(threads, r -> {
+			final var t = new Thread(r, "bpdts-load-" + poolId + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			final var start = System.nanoTime() + warmup.toNanos();
+			final var end = start + duration.toNanos();
+			final var workers = new ArrayList<Callable<Recording>>();
+			for (int i = 0; i < threads; i++) {
+				final var offset = i;
+				workers.add(() -> drive(offset, start, end));
+			}
+			final var recordings = new ArrayList<Recording>();
+			for (final var f : pool.invokeAll(workers)) {
+				recordings.add(f.get());
+			}
+			final var all = new long[recordings.stream().mapToInt(r -> r.count).sum()];
+			var failures = 0L;
+			var pos = 0;
+			for (final var r : recordings) {
+				System.arraycopy(r.latencies, 0, all, pos, r.count);
+				pos += r.count;
+				failures += r.failures;
+			}
+			return new Report(all, failures, duration);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Load generator thread failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Recording drive(final int offset, final long start, final long end) {
+		final var recording = new Recording();
+		for (long i = offset, now = System.nanoTime(); now < end; i++) {
+			final var before = now;
+			boolean success;
+			try {
+				if (i % 2 == 0) {
+					api.getUsersOfCity();
+				} else {
+					api.getUsersNearCity();
+				}
+				success = true;
+			} catch (ApiException e) {
+				success = false;
+			}
+			now = System.nanoTime();
+			if (before >= start && now <= end) {
+				if (success) {
+					recording.add(now - before);
+				} else {
+					recording.failures++;
+				}
+			}
+		}
+		return recording;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: LoadGenerator <url of user listing service or 'stub'> [threads] [seconds]"
+					+ " [okhttp|jdk] [stub users] [stub latency in ms] [stub padding characters]");
+			System.exit(1);
+		}
+		var threads = args.length >= 2 ? Integer.parseInt(args[1]) : 8;
+		var seconds = args.length >= 3 ? Long.parseLong(args[2]) : 10;
+		var jdk = args.length >= 4 && "jdk".equals(args[3]);
+		StubUserService stub = null;
+		var url = args[0];
+		if ("stub".equals(url)) {
+			var users = args.length >= 5 ? Integer.parseInt(args[4]) : 10000;
+			var latency = Duration.ofMillis(args.length >= 6 ? Long.parseLong(args[5]) : 0);
+			var padding = args.length >= 7 ? Integer.parseInt(args[6]) : 0;
+			stub = new StubUserService(StubUserService.generate(users, 1, padding), latency, Duration.ZERO);
+			url = stub.getBasePath();
+			System.out.println("Stub serving " + users + " users at " + url);
+		}
+		try {
+			var api = new BpdtsAPI(jdk ? new HttpClientAPI() : new DefaultClientAPI(), url);
+			api.setCityToCheckAgainst(new City(Path.of("src/main/resources/GreaterLondon.json")));
+			api.setMaxDistanceInMiles(50);
+			System.out.println("Running " + threads + " threads for " + seconds + " s with the "
+					+ (jdk ? "jdk" : "okhttp") + " client...");
+			System.out.println(new LoadGenerator(api, threads).run(Duration.ofSeconds(Math.max(1, seconds / 5)),
+					Duration.ofSeconds(seconds)));
+		} finally {
+			if (stub != null) {
+				stub.close();
+			}
+		}
+	}
+}
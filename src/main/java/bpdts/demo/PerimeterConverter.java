@@ -0,0 +1,71 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import bpdts.City;
+import bpdts.PerimeterFile;
+
+/**
+ * A console application that converts the json city descriptions (like the
+ * ones in the resources folder) to the binary perimeter format of
+ * {@link PerimeterFile}. The first command line argument is either a single
+ * json file or a folder of them, the second one is the folder where the binary
+ * files should be written. The binary files are named after the json files
+ * with the json extension replaced.
+ * 
+ * NOTE: the application assumes that it is ran from the folder where you have
+ * cloned the git repository.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class PerimeterConverter {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: PerimeterConverter <json file or folder> <output folder>");
+			System.exit(1);
+		}
+		var input = Path.of(args[0]);
+		var output = Path.of(args[1]);
+		Files.createDirectories(output);
+		var jsons = List.of(input);
+		if (Files.isDirectory(input)) {
+			try (var files = Files.list(input)) {
+				jsons = files.filter(p -> p.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+			}
+		}
+		for (var json : jsons) {
+			var city = new City(json);
+			var fileName = json.getFileName().toString().replaceFirst("\\.json$", "") + PerimeterFile.extension;
+			PerimeterFile.write(city, output.resolve(fileName));
+			System.out.println(json + " -> " + output.resolve(fileName) + " (" + city.perimeter.size() + " points)");
+		}
+	}
+}
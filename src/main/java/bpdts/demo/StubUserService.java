@@ -0,0 +1,267 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import bpdts.gen.JSON;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * A self contained stand-in for the user listing service described in
+ * src/main/swagger/bpdts.json. It serves /users, /city/{city}/users and
+ * /user/{id} from a synthetic (or any given) population on the loopback
+ * interface, so the API can be exercised over real HTTP and json without the
+ * actual service. The responses are serialised (and gzip compressed, for the
+ * clients asking for it) in advance, so the stub adds little work on its own
+ * apart from the configurable latency.
+ * 
+ * It can also be run on the console, see {@link #main(String[])}.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class StubUserService implements AutoCloseable {
+	public static final String[] cityNames = { "London", "Manchester", "Blackpool", "Jakarta", "Kent", "Leeds" };
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Map<String, byte[][]> bodies = new HashMap<>();
+	private final byte[][] emptyList;
+	private final long latencyNanos;
+	private final long jitterNanos;
+	private final LongAdder requests = new LongAdder();
+
+	static {
+		// Without this, the separately written headers and bodies of the responses
+		// meet the clients' delayed acknowledgements, adding tens of milliseconds
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	/**
+	 * Starts serving the users on a free port of the loopback interface.
+	 * 
+	 * @param users   The population to serve
+	 * @param latency How long each response is delayed at least
+	 * @param jitter  The maximum of the random delay added to the latency
+	 * @throws IOException If the server could not be started
+	 */
+	public StubUserService(final UserList users, final Duration latency, final Duration jitter)
+			throws IOException {
+		this(users, latency, jitter, 0);
+	}
+
+	/**
+	 * Starts serving the users.
+	 * 
+	 * @param users   The population to serve
+	 * @param latency How long each response is delayed at least
+	 * @param jitter  The maximum of the random delay added to the latency
+	 * @param port    Where to listen on the loopback interface, 0 picks a free
+	 *                port
+	 * @throws IOException If the server could not be started
+	 */
+	public StubUserService(final UserList users, final Duration latency, final Duration jitter, final int port)
+			throws IOException {
+		latencyNanos = latency.toNanos();
+		jitterNanos = jitter.toNanos();
+		final var json = new JSON();
+		put("/users", json.serialize(users));
+		final var cities = new HashMap<String, UserList>();
+		for (final var u : users) {
+			if (u.getCity() != null) {
+				cities.computeIfAbsent(u.getCity(), c -> new UserList()).add(u);
+			}
+			if (u.getId() != null) {
+				put("/user/" + u.getId(), json.serialize(u));
+			}
+		}
+		cities.forEach((city, cityUsers) -> put("/city/" + city + "/users", json.serialize(cityUsers)));
+		emptyList = encode("[]");
+		final var poolId = poolCount.incrementAndGet();
+		final var threadCount = new AtomicInteger();
+		handlers = Executors.newCachedThreadPool(r -> {
+			final var t = new Thread(r, "bpdts-stub-" + poolId + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(handlers);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/**
+	 * Generates a population where most users are scattered around the British
+	 * Isles and the rest all over the globe.
+	 * 
+	 * @param count   The number of users to generate
+	 * @param seed    The seed of the random generator
+	 * @param padding The number of extra characters in each user's last name,
+	 *                allowing larger payloads for the same population
+	 * @return The generated population
+	 */
+	public static UserList generate(final int count, final long seed, final int padding) {
+		final var rnd = new Random(seed);
+		final var pad = "x".repeat(padding);
+		final var list = new UserList();
+		list.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			final var u = new User();
+			u.setId(i);
+			u.setFirstName("First" + i);
+			u.setLastName("Last" + i + pad);
+			u.setCity(cityNames[rnd.nextInt(cityNames.length)]);
+			final boolean local = rnd.nextInt(10) < 8;
+			u.setLatitude(BigDecimal.valueOf(local ? 50 + rnd.nextDouble() * 8 : rnd.nextDouble() * 180 - 90));
+			u.setLongitude(BigDecimal.valueOf(local ? -6 + rnd.nextDouble() * 8 : rnd.nextDouble() * 360 - 180));
+			list.add(u);
+		}
+		return list;
+	}
+
+	private void put(final String path, final String body) {
+		bodies.put(path, encode(body));
+	}
+
+	/**
+	 * @return the plain and the gzip compressed form of the body
+	 */
+	private static byte[][] encode(final String body) {
+		final var plain = body.getBytes(StandardCharsets.UTF_8);
+		final var compressed = new ByteArrayOutputStream();
+		try (var gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(plain);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return new byte[][] { plain, compressed.toByteArray() };
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.increment();
+			delay();
+			final var path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8);
+			var body = bodies.get(path);
+			var status = 200;
+			if (body == null) {
+				if (path.startsWith("/city/") && path.endsWith("/users")) {
+					// The service lists no users for unknown cities
+					body = emptyList;
+				} else if (path.startsWith("/user/")) {
+					status = 404;
+					body = encode("{\"message\": \"Id " + path.substring(6) + " doesn't exist.\"}");
+				} else {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+			}
+			final var encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			final var gzip = encoding != null && encoding.contains("gzip");
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			if (gzip) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			final var bytes = body[gzip ? 1 : 0];
+			exchange.sendResponseHeaders(status, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+	}
+
+	private void delay() {
+		final var nanos = latencyNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+		if (nanos > 0) {
+			try {
+				Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Allows the clients to be pointed at the stub.
+	 * 
+	 * @return The base path of the stub, e.g., http://127.0.0.1:41234
+	 */
+	public String getBasePath() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Allows checking how many requests reached the stub.
+	 * 
+	 * @return the number of requests received so far
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Stops serving, the requests in progress are dropped.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println(
+					"Usage: StubUserService <port> <number of users> [latency in ms] [jitter in ms] [padding characters]");
+			System.exit(1);
+		}
+		var users = generate(Integer.parseInt(args[1]), 1, args.length >= 5 ? Integer.parseInt(args[4]) : 0);
+		var latency = Duration.ofMillis(args.length >= 3 ? Long.parseLong(args[2]) : 0);
+		var jitter = Duration.ofMillis(args.length >= 4 ? Long.parseLong(args[3]) : 0);
+		var stub = new StubUserService(users, latency, jitter, Integer.parseInt(args[0]));
+		System.out.println("Serving " + users.size() + " users at " + stub.getBasePath() + ", stop with Ctrl+C");
+		Thread.currentThread().join();
+	}
+}
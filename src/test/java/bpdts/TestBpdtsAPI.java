@@ -31,10 +31,19 @@ import bpdts.gen.ApiException;
 import bpdts.gen.model.User;
 import bpdts.gen.model.UserList;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 /**
  * Evaluates the BpdtsAPI by mocking the restful service's behaviour
@@ -153,6 +162,310 @@ public class TestBpdtsAPI {
 		verify(apiInt).getUsers();
 	}
 
+	/**
+	 * Checks if the multi city queries classify the users the same way as the
+	 * single city ones would, while downloading the user list only once.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000)
+	public void multiCityCheck() throws ApiException {
+		var rnd = new Random(3);
+		var allUsers = new UserList();
+		for (int i = 0; i < 2000; i++) {
+			var u = new User();
+			u.setId(i);
+			u.setCity("City" + rnd.nextInt(10));
+			u.setLatitude(new BigDecimal(rnd.nextDouble() * 20 + 40));
+			u.setLongitude(new BigDecimal(rnd.nextDouble() * 20 - 10));
+			allUsers.add(u);
+		}
+		var distances = new LinkedHashMap<City, Double>();
+		for (int i = 0; i < 10; i++) {
+			var lat = rnd.nextDouble() * 20 + 40;
+			var lon = rnd.nextDouble() * 20 - 10;
+			distances.put(new City("City" + i, new SphericalCoordinates[] { new SphericalCoordinates(lat, lon),
+					new SphericalCoordinates(lat + 0.2, lon + 0.1), new SphericalCoordinates(lat, lon + 0.3) }),
+					rnd.nextDouble() * 100);
+		}
+		when(apiInt.getUsers()).thenReturn(allUsers);
+		when(apiInt.getCityUsers(anyString())).thenReturn(new UserList());
+
+		var theApi = new BpdtsAPI(apiInt, "");
+		var near = theApi.getUsersNearCities(distances);
+		var citizens = theApi.getUsersOfCities(distances.keySet());
+		for (var city : distances.keySet()) {
+			var expectedNear = allUsers.stream()
+					.filter(u -> city.containsUser(u) || city.distanceToPerimeter(u) < distances.get(city))
+					.collect(Collectors.toList());
+			assertEquals("Multi city proximity should match the single city one", expectedNear, near.get(city));
+			var expectedCitizens = allUsers.stream().filter(u -> city.name.equals(u.getCity()))
+					.collect(Collectors.toList());
+			assertEquals("Multi city citizenship should match the single city one", expectedCitizens,
+					citizens.get(city));
+		}
+		verify(apiInt, times(2)).getUsers();
+	}
+
+	/**
+	 * Checks if the asynchronous citizenship query sends both of its requests
+	 * before any of them completes.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 1000)
+	public void asyncRequestsOverlap() throws Exception {
+		var asyncInt = mock(AsyncClientAPI.class);
+		when(asyncInt.getApiClient()).thenReturn(client);
+		var cityUsers = new CompletableFuture<UserList>();
+		var allUsers = new CompletableFuture<UserList>();
+		when(asyncInt.getCityUsersAsync(testCityName)).thenReturn(cityUsers);
+		when(asyncInt.getUsersAsync()).thenReturn(allUsers);
+		var theApi = new BpdtsAPI(asyncInt, "");
+		theApi.setCityToCheckAgainst(new City(testCityName, new SphericalCoordinates[] { cityLoc }));
+
+		var result = theApi.getUsersOfCityAsync();
+		verify(asyncInt).getCityUsersAsync(testCityName);
+		verify(asyncInt).getUsersAsync();
+		assertTrue("Should not complete before the responses arrive", !result.isDone());
+
+		var a = new User();
+		a.setId(2);
+		var b = new User();
+		b.setId(1);
+		b.setCity(testCityName);
+		var cityList = new UserList();
+		cityList.add(a);
+		var allList = new UserList();
+		allList.add(a);
+		allList.add(b);
+		allUsers.complete(allList);
+		cityUsers.complete(cityList);
+		assertEquals("Should merge the two lists ordered by id", List.of(b, a), result.get());
+	}
+
+	/**
+	 * Checks if the multi city citizenship query requests the citizens of all
+	 * cities before waiting for any of them.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 1000)
+	public void asyncCityListingsOverlap() throws Exception {
+		var asyncInt = mock(AsyncClientAPI.class);
+		when(asyncInt.getApiClient()).thenReturn(client);
+		var listings = new LinkedHashMap<String, CompletableFuture<UserList>>();
+		var allUsers = new UserList();
+		var cities = new ArrayList<City>();
+		for (var name : List.of("A", "B", "C")) {
+			listings.put(name, new CompletableFuture<>());
+			when(asyncInt.getCityUsersAsync(name)).thenReturn(listings.get(name));
+			allUsers.add(syncUser(allUsers.size(), name, 0, 0));
+			cities.add(new City(name, new SphericalCoordinates[] { cityLoc }));
+		}
+		when(asyncInt.getUsers()).thenReturn(allUsers);
+		var theApi = new BpdtsAPI(asyncInt, "");
+
+		var result = CompletableFuture.supplyAsync(() -> {
+			try {
+				return theApi.getUsersOfCities(cities);
+			} catch (ApiException ae) {
+				throw new RuntimeException(ae);
+			}
+		});
+		for (var name : listings.keySet()) {
+			verify(asyncInt, timeout(500)).getCityUsersAsync(name);
+		}
+		assertTrue("Should not complete before the listings arrive", !result.isDone());
+		listings.values().forEach(f -> f.complete(new UserList()));
+		var citizens = result.get();
+		for (int i = 0; i < cities.size(); i++) {
+			assertEquals(List.of(allUsers.get(i)), citizens.get(cities.get(i)));
+		}
+		verify(asyncInt, never()).getCityUsers(anyString());
+	}
+
+	/**
+	 * Checks if the network errors are passed back through the futures.
+	 * 
+	 * @throws Throwable
+	 */
+	@Test(timeout = 1000, expected = ApiException.class)
+	public void asyncNetworkErrorPropagate() throws Throwable {
+		when(apiInt.getUsers()).thenThrow(new ApiException());
+		prepBPDTS();
+		try {
+			bpdtsApi.getUsersNearCityAsync().get();
+		} catch (ExecutionException ee) {
+			throw ee.getCause();
+		}
+	}
+
+	private static User syncUser(int id, String city, double lat, double lon) {
+		var u = new User();
+		u.setId(id);
+		u.setCity(city);
+		u.setLatitude(new BigDecimal(lat));
+		u.setLongitude(new BigDecimal(lon));
+		return u;
+	}
+
+	/**
+	 * Checks if the synchronising mode only reports the users whose membership
+	 * changed between the polls.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 500)
+	public void deltaSync() throws ApiException {
+		var near = cityLoc.latitude + 0.01;
+		var first = new UserList();
+		first.add(syncUser(1, testCityName, near, cityLoc.longitude));
+		first.add(syncUser(2, "Elsewhere", -30, -120));
+		first.add(syncUser(3, "Elsewhere", -30, -120));
+		var second = new UserList();
+		second.add(syncUser(1, testCityName, -30, -120));
+		second.add(syncUser(2, "Elsewhere", near, cityLoc.longitude));
+		second.add(syncUser(3, "Elsewhere", -30, -120));
+		second.add(syncUser(4, "Elsewhere", -31, -120));
+		var third = new UserList();
+		third.addAll(second.subList(1, 4));
+		when(apiInt.getUsers()).thenReturn(first, second, third);
+		when(apiInt.getCityUsers(testCityName)).thenReturn(new UserList());
+		prepBPDTS();
+		var events = new ArrayList<String>();
+		bpdtsApi.addUserDeltaListener(new UserDeltaListener() {
+			@Override
+			public void entered(Membership set, User u) {
+				events.add("+" + set + u.getId());
+			}
+
+			@Override
+			public void left(Membership set, User u) {
+				events.add("-" + set + u.getId());
+			}
+		});
+		assertEquals("All users should be new", 3, bpdtsApi.synchronise());
+		assertEquals(List.of("+CITIZENSHIP1", "+PROXIMITY1"), events);
+		events.clear();
+		assertEquals("Users 1 and 2 moved, 4 is new", 3, bpdtsApi.synchronise());
+		assertEquals(List.of("-PROXIMITY1", "+PROXIMITY2"), events);
+		events.clear();
+		assertEquals("User 1 is no longer listed", 1, bpdtsApi.synchronise());
+		assertEquals(List.of("-CITIZENSHIP1"), events);
+		assertEquals(List.of(third.get(0)), bpdtsApi.getSynchronisedUsersNearCity());
+		assertTrue("Nobody should be a citizen", bpdtsApi.getSynchronisedUsersOfCity().isEmpty());
+	}
+
+	/**
+	 * The citizens listed by the city endpoint should only be classified again if
+	 * they changed, even if the city endpoint's copy differs from the one amongst
+	 * all users.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 500)
+	public void deltaSyncListedCitizens() throws ApiException {
+		var all = new UserList();
+		all.add(syncUser(5, testCityName, -30, -120));
+		all.add(syncUser(7, "Elsewhere", -30, -120));
+		var listed = new UserList();
+		// The city endpoint does not repeat the city of its users
+		listed.add(syncUser(5, null, -30, -120));
+		listed.add(syncUser(6, null, -30, -120));
+		when(apiInt.getUsers()).thenReturn(all);
+		when(apiInt.getCityUsers(testCityName)).thenReturn(listed);
+		prepBPDTS();
+		assertEquals("All users should be new", 3, bpdtsApi.synchronise());
+		for (int i = 0; i < 3; i++) {
+			assertEquals("Nothing changed", 0, bpdtsApi.synchronise());
+		}
+		var citizens = bpdtsApi.getSynchronisedUsersOfCity();
+		assertEquals(2, citizens.size());
+		assertSame("The copy amongst all users should be kept", all.get(0), citizens.get(0));
+		assertSame(listed.get(1), citizens.get(1));
+	}
+
+	/**
+	 * The polls should compare the located users without creating the BigDecimal
+	 * view of their locations.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 500)
+	public void deltaSyncLocatedUsers() throws ApiException {
+		var reads = new int[1];
+		var all = new UserList();
+		for (int i = 0; i < 3; i++) {
+			var u = new LocatedUser() {
+				@Override
+				public BigDecimal getLatitude() {
+					reads[0]++;
+					return super.getLatitude();
+				}
+
+				@Override
+				public BigDecimal getLongitude() {
+					reads[0]++;
+					return super.getLongitude();
+				}
+			};
+			u.setId(i);
+			u.setCity("Elsewhere");
+			u.setLocation(cityLoc.latitude + i * 0.1, cityLoc.longitude);
+			all.add(u);
+		}
+		when(apiInt.getUsers()).thenReturn(all);
+		when(apiInt.getCityUsers(testCityName)).thenReturn(new UserList());
+		prepBPDTS();
+		assertEquals("All users should be new", 3, bpdtsApi.synchronise());
+		assertEquals("Nothing changed", 0, bpdtsApi.synchronise());
+		assertEquals("The locations should be compared as doubles", 0, reads[0]);
+	}
+
+	/**
+	 * Checks if the bulk lookup falls back to filtering the complete user list
+	 * when the client interface cannot look up individual users.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 100)
+	public void bulkLookupFallback() throws ApiException {
+		var allUsers = new UserList();
+		for (int i = 0; i < 10; i++) {
+			allUsers.add(syncUser(9 - i, testCityName, 0, 0));
+		}
+		when(apiInt.getUsers()).thenReturn(allUsers);
+		prepBPDTS();
+		var found = bpdtsApi.getUsers(List.of(7, 3, 3, 42));
+		assertEquals(List.of(allUsers.get(6), allUsers.get(2)), found);
+	}
+
+	/**
+	 * Checks if closing the API stops the threads of its bulk lookups.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 2000)
+	public void closeStopsLookups() throws Exception {
+		final var before = lookupThreads();
+		var lookupApi = mock(UserLookupClientAPI.class);
+		when(lookupApi.getApiClient()).thenReturn(client);
+		when(lookupApi.getUser(anyInt())).thenAnswer(inv -> syncUser(inv.getArgument(0), testCityName, 0, 0));
+		try (var closing = new BpdtsAPI(lookupApi, expectedPath)) {
+			assertEquals(2, closing.getUsers(List.of(1, 2)).size());
+			assertTrue("The lookups should have their own threads", lookupThreads() > before);
+		}
+		while (lookupThreads() > before) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static long lookupThreads() {
+		return Thread.getAllStackTraces().keySet().stream().filter(Thread::isAlive)
+				.filter(t -> t.getName().startsWith("bpdts-lookup-")).count();
+	}
+
 	/**
 	 * Checks if the network errors are properly passed back to the user of the API.
 	 * 
@@ -0,0 +1,253 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Evaluates the bulk lookups against a fake service that records how it was
+ * called.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestBulkUserLookup {
+	/**
+	 * Knows the users with ids below the limit, and can be told to fail the first
+	 * few requests of every user.
+	 */
+	private static class FakeLookup implements UserLookupClientAPI {
+		final int knownLimit;
+		final int failures;
+		final int failureCode;
+		final ConcurrentHashMap<Integer, AtomicInteger> calls = new ConcurrentHashMap<>();
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		CountDownLatch gate;
+
+		FakeLookup(int knownLimit, int failures, int failureCode) {
+			this.knownLimit = knownLimit;
+			this.failures = failures;
+			this.failureCode = failureCode;
+		}
+
+		@Override
+		public User getUser(int id) throws ApiException {
+			var count = calls.computeIfAbsent(id, i -> new AtomicInteger()).incrementAndGet();
+			max.accumulateAndGet(current.incrementAndGet(), Math::max);
+			try {
+				if (gate != null) {
+					gate.await();
+				} else {
+					Thread.sleep(2);
+				}
+			} catch (InterruptedException e) {
+				throw new ApiException(e);
+			} finally {
+				current.decrementAndGet();
+			}
+			if (count <= failures) {
+				throw new ApiException(failureCode, "Failing on purpose");
+			}
+			if (id >= knownLimit) {
+				throw new ApiException(404, "Not Found");
+			}
+			var u = new User();
+			u.setId(id);
+			return u;
+		}
+
+		@Override
+		public ApiClient getApiClient() {
+			return null;
+		}
+
+		@Override
+		public UserList getUsers() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public UserList getCityUsers(String city) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Checks if the concurrency is bounded, the duplicates are only requested once
+	 * and the unknown users are omitted.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000)
+	public void boundedLookup() throws ApiException {
+		var fake = new FakeLookup(90, 0, 0);
+		var ids = new ArrayList<Integer>();
+		IntStream.range(0, 100).forEach(ids::add);
+		IntStream.range(0, 100).forEach(ids::add);
+		List<User> found;
+		try (var lookup = new BulkUserLookup(fake, 4, 1, Duration.ZERO)) {
+			found = lookup.getUsers(ids);
+		}
+		assertEquals("Unknown users should be omitted",
+				IntStream.range(0, 90).boxed().collect(Collectors.toList()),
+				found.stream().map(User::getId).collect(Collectors.toList()));
+		assertTrue("Should not exceed the concurrency", fake.max.get() <= 4);
+		assertTrue("Every user should be requested once", fake.calls.values().stream().allMatch(c -> c.get() == 1));
+	}
+
+	/**
+	 * Checks if the transient failures are retried.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000)
+	public void transientRetry() throws ApiException {
+		var fake = new FakeLookup(10, 2, 503);
+		try (var lookup = new BulkUserLookup(fake, 2, 3, Duration.ofMillis(1))) {
+			var found = lookup.getUsers(List.of(1, 2, 3));
+			assertEquals(3, found.size());
+			assertEquals(3, fake.calls.get(1).get());
+		}
+	}
+
+	/**
+	 * Checks if the retries waiting for their backoff leave the worker free for
+	 * the other lookups.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000)
+	public void backoffReleasesWorker() throws ApiException {
+		var fake = new FakeLookup(10, 1, 503);
+		try (var lookup = new BulkUserLookup(fake, 1, 2, Duration.ofMillis(300))) {
+			var before = System.currentTimeMillis();
+			assertEquals(4, lookup.getUsers(List.of(1, 2, 3, 4)).size());
+			assertTrue("The backoffs should overlap", System.currentTimeMillis() - before < 900);
+		}
+	}
+
+	/**
+	 * Checks if the permanent failures are not retried, but reported.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000)
+	public void permanentFailure() {
+		var fake = new FakeLookup(10, 1, 400);
+		try (var lookup = new BulkUserLookup(fake, 2, 3, Duration.ofMillis(1))) {
+			lookup.getUsers(List.of(1, 2));
+			fail("Should have failed");
+		} catch (ApiException ae) {
+			assertEquals(400, ae.getCode());
+		}
+		assertEquals("Should not retry", 1, fake.calls.get(1).get());
+	}
+
+	/**
+	 * Checks if the lookups of the same user from different threads are combined.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 2000)
+	public void coalescedLookups() throws Exception {
+		var fake = new FakeLookup(10, 0, 0);
+		fake.gate = new CountDownLatch(1);
+		var lookup = new BulkUserLookup(fake, 4, 1, Duration.ZERO);
+		var results = new ConcurrentHashMap<String, List<User>>();
+		var threads = new ArrayList<Thread>();
+		for (var name : List.of("a", "b", "c")) {
+			var t = new Thread(() -> {
+				try {
+					results.put(name, lookup.getUsers(List.of(5)));
+				} catch (ApiException e) {
+					// Leaves the result missing
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		while (fake.calls.isEmpty()) {
+			Thread.sleep(1);
+		}
+		// Gives time for the other threads to join the request in flight
+		Thread.sleep(50);
+		fake.gate.countDown();
+		for (var t : threads) {
+			t.join();
+		}
+		assertEquals("All threads should get the user", 3, results.size());
+		assertEquals("The user should only be requested once", 1, fake.calls.get(5).get());
+		lookup.close();
+	}
+
+	/**
+	 * Checks if a closed lookup refuses further requests.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 2000, expected = ApiException.class)
+	public void closedLookup() throws ApiException {
+		var lookup = new BulkUserLookup(new FakeLookup(10, 0, 0));
+		lookup.close();
+		lookup.getUsers(List.of(1));
+	}
+
+	/**
+	 * Checks if the backoff doubles with the attempts but neither overflows nor
+	 * grows beyond the limit.
+	 */
+	@Test(timeout = 1000)
+	public void boundedBackoff() {
+		assertEquals(100, BulkUserLookup.retryDelay(100, 1));
+		assertEquals(400, BulkUserLookup.retryDelay(100, 3));
+		final var limit = BulkUserLookup.maxBackoff.toMillis();
+		for (int attempt = 1; attempt < 200; attempt++) {
+			for (final long first : new long[] { 1, 100, limit, Long.MAX_VALUE / 3 }) {
+				final var delay = BulkUserLookup.retryDelay(first, attempt);
+				assertTrue("Attempt " + attempt + " waited " + delay, delay >= first);
+				assertTrue("Attempt " + attempt + " waited " + delay, delay <= Math.max(first, limit));
+			}
+			assertEquals(0, BulkUserLookup.retryDelay(0, attempt));
+		}
+	}
+}
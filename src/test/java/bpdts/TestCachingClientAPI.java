@@ -0,0 +1,162 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.UserList;
+
+/**
+ * Evaluates the caching decorator with a mocked client interface and a fake
+ * clock, as well as with a local http server for the conditional requests.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestCachingClientAPI {
+	private static final Duration ttl = Duration.ofSeconds(10);
+	InjectableClientAPI apiInt;
+	long now;
+	CachingClientAPI cache;
+
+	@Before
+	public void prepMock() throws ApiException {
+		apiInt = mock(InjectableClientAPI.class);
+		when(apiInt.getUsers()).thenAnswer(i -> new UserList());
+		when(apiInt.getCityUsers(anyString())).thenAnswer(i -> new UserList());
+		now = 0;
+		cache = new CachingClientAPI(apiInt, ttl, 2, false, () -> now);
+	}
+
+	/**
+	 * Repeated queries within the time to live should not reach the service
+	 */
+	@Test(timeout = 100)
+	public void servedWithinTTL() throws ApiException {
+		var first = cache.getUsers();
+		now += ttl.toNanos() / 2;
+		assertSame("Fresh list should be served from the cache", first, cache.getUsers());
+		verify(apiInt, times(1)).getUsers();
+		now += ttl.toNanos();
+		cache.getUsers();
+		verify(apiInt, times(2)).getUsers();
+	}
+
+	/**
+	 * The number of city lists should be bounded, the least recently used ones
+	 * should go first
+	 */
+	@Test(timeout = 100)
+	public void cityEntriesBounded() throws ApiException {
+		cache.getCityUsers("A");
+		cache.getCityUsers("B");
+		cache.getCityUsers("A");
+		cache.getCityUsers("C");
+		cache.getCityUsers("A");
+		verify(apiInt, times(1)).getCityUsers("A");
+		cache.getCityUsers("B");
+		verify(apiInt, times(2)).getCityUsers("B");
+	}
+
+	/**
+	 * A slow fetch should only hold up the queries for the same list, and those
+	 * should share the fetch
+	 */
+	@Test(timeout = 5000)
+	public void slowFetchDoesNotBlock() throws Exception {
+		var started = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+		var slowList = new UserList();
+		when(apiInt.getUsers()).thenAnswer(i -> {
+			started.countDown();
+			release.await();
+			return slowList;
+		});
+		var waiters = Executors.newFixedThreadPool(2);
+		try {
+			var first = waiters.submit(() -> cache.getUsers());
+			started.await();
+			var second = waiters.submit(() -> cache.getUsers());
+			assertEquals("City lists should be served during the slow fetch", 0, cache.getCityUsers("A").size());
+			release.countDown();
+			assertSame(slowList, first.get());
+			assertSame(slowList, second.get());
+			verify(apiInt, times(1)).getUsers();
+		} finally {
+			waiters.shutdownNow();
+		}
+	}
+
+	/**
+	 * Expired lists should be revalidated with their ETags, unchanged lists should
+	 * not be transferred again
+	 */
+	@Test(timeout = 5000)
+	public void conditionalRevalidation() throws IOException, ApiException {
+		var fullResponses = new AtomicInteger();
+		var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/users", exchange -> {
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				var body = "[{\"id\": 1, \"latitude\": 1.5, \"longitude\": 2.5}]".getBytes(StandardCharsets.UTF_8);
+				fullResponses.incrementAndGet();
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			var client = new DefaultClientAPI();
+			client.getApiClient().setBasePath("http://localhost:" + server.getAddress().getPort());
+			var conditional = new CachingClientAPI(client, ttl, 2, true, () -> now);
+			var first = conditional.getUsers();
+			assertEquals("Should receive the user", 1, first.size());
+			now += 2 * ttl.toNanos();
+			assertSame("Unchanged list should be reused", first, conditional.getUsers());
+			assertEquals("The list should only be transferred once", 1, fullResponses.get());
+		} finally {
+			server.stop(0);
+		}
+	}
+}
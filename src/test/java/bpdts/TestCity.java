@@ -31,7 +31,9 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -177,6 +179,215 @@ public class TestCity {
 				coordDist, uDist, TestSphericalCoords.doubleAcceptanceLimit);
 	}
 
+	/**
+	 * Checks if the batch distance kernel offers the same results as the per user
+	 * one
+	 */
+	@Test(timeout = 1000)
+	public void batchDistanceEquivalence() {
+		var rnd = new Random(42);
+		var lats = new double[City.parallelBatchThreshold + 1];
+		var lons = new double[lats.length];
+		for (int i = 0; i < lats.length; i++) {
+			lats[i] = rnd.nextDouble() * 180 - 90;
+			lons[i] = rnd.nextDouble() * 360 - 180;
+		}
+		var batch = testCity.distancesOfLocations(lats, lons);
+		for (int i = 0; i < lats.length; i++) {
+			var userLoc = new EarthCentredCoordinates(new SphericalCoordinates(lats[i], lons[i]));
+			var single = testCity.perimeter.stream().mapToDouble(c -> EarthCentredCoordinates.distance(c, userLoc))
+					.min().getAsDouble();
+			assertEquals("Batch and single user distances should not differ", single, batch[i], 0.00001);
+		}
+	}
+
+	/**
+	 * Checks if the proximity query (with its bounding volume based prefilter)
+	 * agrees with the distance calculation, even for cities crossing the
+	 * antimeridian.
+	 */
+	@Test(timeout = 1000)
+	public void proximityAgreesWithDistance() {
+		var rnd = new Random(7);
+		var antimeridian = new City("Wrapping", new SphericalCoordinates[] { new SphericalCoordinates(10, 179.5),
+				new SphericalCoordinates(10.5, -179.5), new SphericalCoordinates(9.5, -179.8) });
+		for (var city : new City[] { testCity, antimeridian }) {
+			var centreLat = city == testCity ? 0.25 : 10;
+			var centreLon = city == testCity ? 0.25 : 180;
+			for (int i = 0; i < 2000; i++) {
+				var lat = Math.max(-90, Math.min(90, centreLat + rnd.nextGaussian() * 3));
+				var lon = centreLon + rnd.nextGaussian() * 3;
+				lon = lon > 180 ? lon - 360 : lon;
+				var miles = rnd.nextDouble() * 300;
+				assertEquals("Proximity query should agree with the distance of the perimeter",
+						city.distanceOfLocationToPerimeter(lat, lon) < miles, city.isLocationNearPerimeter(lat, lon, miles));
+			}
+		}
+	}
+
+	/**
+	 * The combined query should agree with the separate containment and perimeter
+	 * proximity checks, both on short perimeters and on ones with a KD-tree.
+	 */
+	@Test(timeout = 5000)
+	public void withinAgreesWithContainsOrNear() throws IOException {
+		var rnd = new Random(20);
+		var london = new City(Path.of("src/main/resources/GreaterLondon.json"));
+		for (var city : new City[] { testCity, london }) {
+			var centreLat = city == testCity ? 0.25 : 51.5;
+			var centreLon = city == testCity ? 0.25 : -0.1;
+			for (int i = 0; i < 2000; i++) {
+				var lat = centreLat + rnd.nextGaussian() * 0.5;
+				var lon = centreLon + rnd.nextGaussian() * 0.5;
+				var miles = i % 10 == 0 ? 0 : rnd.nextDouble() * 30;
+				assertEquals("Combined query should agree with the separate ones",
+						city.containsLocation(lat, lon) || city.isLocationNearPerimeter(lat, lon, miles),
+						city.isLocationWithin(lat, lon, miles));
+			}
+		}
+		assertTrue("Inside should be within even with no distance", testCity.isLocationWithin(0.25, 0.25, 0));
+		assertTrue("Far location should be rejected", !london.isLocationWithin(40, 40, 10));
+	}
+
+	/**
+	 * Checks if the far away users are rejected by the bounding volumes.
+	 */
+	@Test(timeout = 100)
+	public void prefilterCounters() {
+		testCity.resetPrefilterCounters();
+		assertTrue("Close location should be accepted", testCity.isLocationNearPerimeter(0.3, 0.3, 10));
+		assertEquals("Close location should need the full check", 1, testCity.getPrefilterMisses());
+		assertTrue("Far location should be rejected", !testCity.isLocationNearPerimeter(40, 40, 10));
+		assertEquals("Far location should be rejected by the prefilter", 1, testCity.getPrefilterHits());
+	}
+
+	/**
+	 * Checks the containment queries on a concave (U shaped) city, the notch of
+	 * the U should be outside.
+	 */
+	@Test(timeout = 100)
+	public void concaveContainment() {
+		var uShape = new City("U", new SphericalCoordinates[] { new SphericalCoordinates(0, 0),
+				new SphericalCoordinates(0, 3), new SphericalCoordinates(3, 3), new SphericalCoordinates(3, 2),
+				new SphericalCoordinates(1, 2), new SphericalCoordinates(1, 1), new SphericalCoordinates(3, 1),
+				new SphericalCoordinates(3, 0) });
+		assertTrue("Left arm should be inside", uShape.containsLocation(2, 0.5));
+		assertTrue("Right arm should be inside", uShape.containsLocation(2, 2.5));
+		assertTrue("Bottom should be inside", uShape.containsLocation(0.5, 1.5));
+		assertTrue("Notch should be outside", !uShape.containsLocation(2, 1.5));
+		assertTrue("Below should be outside", !uShape.containsLocation(-0.5, 1.5));
+		assertTrue("Far away should be outside", !uShape.containsLocation(-2, -178));
+	}
+
+	/**
+	 * The great circle edges of a coarse, high latitude city bulge north of its
+	 * vertices, the locations there should not be rejected by the bounding box.
+	 */
+	@Test(timeout = 100)
+	public void polewardBulge() {
+		var coarse = new City("Coarse", new SphericalCoordinates[] { new SphericalCoordinates(60, 0),
+				new SphericalCoordinates(61, 0), new SphericalCoordinates(61, 20), new SphericalCoordinates(60, 20) });
+		assertTrue("The bulge should be inside", coarse.containsLocation(61.3, 10));
+		var distance = coarse.distanceOfLocationToPerimeter(61.3, 10);
+		assertTrue("The bulge should be close to the northern edge", distance < 5);
+		assertTrue(coarse.isLocationNearPerimeter(61.3, 10, 5));
+		assertTrue(coarse.isLocationWithin(61.3, 10, 0));
+		assertTrue(!coarse.isLocationNearPerimeter(61.3, 10, distance * 0.99));
+		assertTrue("North of the bulge should be outside", !coarse.containsLocation(61.6, 10));
+		assertTrue(coarse.bounds.maxLat > 61.3);
+	}
+
+	/**
+	 * A comb whose every tooth spans nearly all slabs should fall back to
+	 * checking all edges, without paying for counting the slab entries one by
+	 * one.
+	 */
+	@Test(timeout = 2000)
+	public void degenerateComb() {
+		final var teeth = 4000;
+		final var points = new SphericalCoordinates[2 * teeth + 2];
+		for (int i = 0; i < teeth; i++) {
+			points[2 * i] = new SphericalCoordinates(i * 1e-6, i * 1e-3);
+			points[2 * i + 1] = new SphericalCoordinates(1 - i * 1e-6, (i + 0.5) * 1e-3);
+		}
+		points[2 * teeth] = new SphericalCoordinates(-0.5, teeth * 1e-3);
+		points[2 * teeth + 1] = new SphericalCoordinates(-0.5, 0);
+		var comb = new City("Comb", points);
+		assertTrue("Below the teeth should be inside", comb.containsLocation(-0.25, 2));
+		assertTrue("Above the teeth should be outside", !comb.containsLocation(1.5, 2));
+	}
+
+	/**
+	 * Checks if a point in the middle of a real city is inside, even though it is
+	 * far from all perimeter points.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 500)
+	public void centreOfLondon() throws IOException {
+		var london = new City(Path.of("src/main/resources/GreaterLondon.json"));
+		assertTrue("Charing Cross should be in London", london.containsLocation(51.5073, -0.1276));
+		assertTrue("Paris should not be in London", !london.containsLocation(48.8566, 2.3522));
+		var line = new City("Line",
+				new SphericalCoordinates[] { new SphericalCoordinates(0, 0), new SphericalCoordinates(1, 1) });
+		assertTrue("Too few points should not form a polygon", !line.containsLocation(0.5, 0.5));
+	}
+
+	/**
+	 * Checks if the perimeter distance considers the points between the perimeter
+	 * points.
+	 */
+	@Test(timeout = 100)
+	public void edgeDistance() {
+		var triangle = new City("Triangle", new SphericalCoordinates[] { new SphericalCoordinates(0, 0),
+				new SphericalCoordinates(0, 10), new SphericalCoordinates(10, 5) });
+		var oneDegree = EarthCentredCoordinates.earthRadiusMiles * EarthCentredCoordinates.radPerDegree;
+		assertEquals("Should be measured from the middle of the equatorial edge", 0.5 * oneDegree,
+				triangle.distanceOfLocationToPerimeter(-0.5, 5), 0.001);
+		assertTrue("The closest vertex should be much farther", triangle.distanceOfLocation(-0.5, 5) > 4 * oneDegree);
+		assertEquals("Beyond the edge's end the vertex should be the closest", triangle.distanceOfLocation(0, -1),
+				triangle.distanceOfLocationToPerimeter(0, -1), 0.001);
+		assertTrue("Should be close to the edge", triangle.isLocationNearPerimeter(-0.5, 5, 0.6 * oneDegree));
+		assertTrue("Should not be close to the edge", !triangle.isLocationNearPerimeter(-0.5, 5, 0.4 * oneDegree));
+	}
+
+	/**
+	 * Checks the segment index against a densely resampled version of a coarse
+	 * real world perimeter.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 2000)
+	public void edgeDistanceAgreesWithResampledPerimeter() throws IOException {
+		var blackpool = new City(Path.of("src/main/resources/Blackpool.json"));
+		var resampled = new ArrayList<SphericalCoordinates>();
+		var steps = 500;
+		for (int i = 0; i < blackpool.perimeter.size(); i++) {
+			var a = blackpool.perimeter.get(i);
+			var b = blackpool.perimeter.get((i + 1) % blackpool.perimeter.size());
+			for (int s = 0; s < steps; s++) {
+				var t = (double) s / steps;
+				var x = a.x + (b.x - a.x) * t;
+				var y = a.y + (b.y - a.y) * t;
+				var z = a.z + (b.z - a.z) * t;
+				var len = Math.sqrt(x * x + y * y + z * z);
+				resampled.add(new SphericalCoordinates(Math.asin(z / len) / EarthCentredCoordinates.radPerDegree,
+						Math.atan2(y, x) / EarthCentredCoordinates.radPerDegree));
+			}
+		}
+		var dense = new City("Dense", resampled.toArray(new SphericalCoordinates[0]));
+		var rnd = new Random(3);
+		for (int i = 0; i < 500; i++) {
+			var lat = 53.8 + rnd.nextGaussian() * 0.2;
+			var lon = -3.0 + rnd.nextGaussian() * 0.2;
+			var edge = blackpool.distanceOfLocationToPerimeter(lat, lon);
+			assertTrue("Edges cannot be farther than the vertices",
+					edge <= blackpool.distanceOfLocation(lat, lon) + 0.001);
+			assertEquals("Edge distance should agree with the resampled one", dense.distanceOfLocation(lat, lon), edge,
+					0.01);
+		}
+	}
+
 	/**
 	 * Checks if we can get all return values about queries on city citizenship.
 	 */
@@ -0,0 +1,154 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Evaluates the parallel execution of many queries with a mocked client
+ * interface that answers slowly, so the requests of the queries overlap.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestCityQueryExecutor {
+	InjectableClientAPI apiInt;
+	UserList allUsers;
+	ArrayList<CityQuery> queries;
+
+	@Before
+	public void prepMock() throws ApiException {
+		var rnd = new Random(11);
+		allUsers = new UserList();
+		for (int i = 0; i < 1000; i++) {
+			var u = new User();
+			u.setId(i);
+			u.setCity("City" + rnd.nextInt(5));
+			u.setLatitude(new BigDecimal(rnd.nextDouble() * 10 + 45));
+			u.setLongitude(new BigDecimal(rnd.nextDouble() * 10 - 5));
+			allUsers.add(u);
+		}
+		queries = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			var lat = rnd.nextDouble() * 10 + 45;
+			var lon = rnd.nextDouble() * 10 - 5;
+			queries.add(new CityQuery(new City("City" + (i % 5), new SphericalCoordinates[] {
+					new SphericalCoordinates(lat, lon), new SphericalCoordinates(lat + 0.3, lon + 0.2),
+					new SphericalCoordinates(lat, lon + 0.4) }), rnd.nextDouble() * 50));
+		}
+		apiInt = mock(InjectableClientAPI.class);
+		when(apiInt.getUsers()).thenAnswer(i -> {
+			Thread.sleep(200);
+			return allUsers;
+		});
+		when(apiInt.getCityUsers(anyString())).thenAnswer(i -> {
+			Thread.sleep(200);
+			return new UserList();
+		});
+	}
+
+	/**
+	 * Checks if the parallel queries give the same results as the BpdtsAPI, while
+	 * downloading every list only once.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 5000)
+	public void sameAsSequential() throws ApiException {
+		Map<CityQuery, List<User>> near, citizens;
+		try (var executor = new CityQueryExecutor(apiInt, 4)) {
+			near = executor.usersNearCities(queries);
+			citizens = executor.usersOfCities(queries);
+		}
+		verify(apiInt, times(2)).getUsers();
+		verify(apiInt, times(5)).getCityUsers(anyString());
+		var sequentialApi = mock(InjectableClientAPI.class);
+		when(sequentialApi.getUsers()).thenReturn(allUsers);
+		when(sequentialApi.getCityUsers(anyString())).thenReturn(new UserList());
+		when(sequentialApi.getApiClient()).thenReturn(mock(ApiClient.class));
+		var bpdts = new BpdtsAPI(sequentialApi, "");
+		for (var q : queries) {
+			bpdts.setCityToCheckAgainst(q.city);
+			bpdts.setMaxDistanceInMiles(q.maxDistanceInMiles);
+			assertEquals("Parallel proximity query should match the sequential one", bpdts.getUsersNearCity(),
+					near.get(q));
+			assertEquals("Parallel citizenship query should match the sequential one", bpdts.getUsersOfCity(),
+					citizens.get(q));
+		}
+	}
+
+	/**
+	 * Checks if the network errors are passed back.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 1000, expected = ApiException.class)
+	public void networkErrorPropagate() throws ApiException {
+		when(apiInt.getUsers()).thenThrow(new ApiException());
+		try (var executor = new CityQueryExecutor(apiInt, 2)) {
+			executor.usersNearCities(queries);
+		}
+	}
+
+	/**
+	 * Unchecked failures of the client interface should reach the caller as they
+	 * are, not disguised as networking errors.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 1000, expected = IllegalStateException.class)
+	public void uncheckedErrorPropagate() throws ApiException {
+		when(apiInt.getUsers()).thenThrow(new IllegalStateException());
+		try (var executor = new CityQueryExecutor(apiInt, 2)) {
+			executor.usersNearCities(queries);
+		}
+	}
+
+	/**
+	 * Closed executors should not accept queries any more.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 1000, expected = ApiException.class)
+	public void closedExecutor() throws ApiException {
+		var executor = new CityQueryExecutor(apiInt, 2);
+		executor.close();
+		executor.usersNearCities(queries);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Evaluates the registry on a temporary folder with some of the example cities
+ * in both json and binary form.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestCityRegistry {
+	Path folder;
+
+	@Before
+	public void prepFolder() throws IOException {
+		folder = Files.createTempDirectory("CITIES");
+		folder.toFile().deleteOnExit();
+		for (var name : List.of("Blackpool", "GreaterLondon", "Jakarta")) {
+			var copy = folder.resolve(name + ".json");
+			Files.copy(Path.of("src/main/resources/" + name + ".json"), copy);
+			copy.toFile().deleteOnExit();
+		}
+		var binary = folder.resolve("Manchester" + PerimeterFile.extension);
+		PerimeterFile.write(new City(Path.of("src/main/resources/GreaterManchester.json")), binary);
+		binary.toFile().deleteOnExit();
+		var other = folder.resolve("README.txt");
+		Files.writeString(other, "Not a city");
+		other.toFile().deleteOnExit();
+	}
+
+	/**
+	 * Checks if the cities are indexed by their names and shared once loaded.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 1000)
+	public void lazySharedLoading() throws IOException {
+		var registry = new CityRegistry(folder, Long.MAX_VALUE);
+		assertEquals(Set.of("Blackpool", "London", "Jakarta", "Manchester"),
+				registry.getCityNames());
+		assertEquals("Nothing should be loaded before use", 0, registry.getLoadedCount());
+		var london = registry.get("London");
+		assertEquals("London", london.name);
+		assertSame("The loaded city should be shared", london, registry.get("London"));
+		assertEquals("Manchester", registry.get("Manchester").name);
+		assertNull("Unknown cities should not be found", registry.get("Atlantis"));
+		assertEquals(1, registry.getHits());
+		assertEquals(2, registry.getMisses());
+		assertEquals(2, registry.getLoads());
+		assertEquals(2, registry.getLoadedCount());
+		assertTrue(registry.getTotalLoadTime().toNanos() > 0);
+	}
+
+	/**
+	 * Checks if the least recently used cities are evicted to keep the budget.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 1000)
+	public void eviction() throws IOException {
+		var blackpool = new City(Path.of("src/main/resources/Blackpool.json"));
+		var jakarta = new City(Path.of("src/main/resources/Jakarta.json"));
+		var london = new City(Path.of("src/main/resources/GreaterLondon.json"));
+		var budget = blackpool.estimatedMemoryBytes()
+				+ Math.max(jakarta.estimatedMemoryBytes(), london.estimatedMemoryBytes());
+		var registry = new CityRegistry(folder, budget);
+		var first = registry.get("Blackpool");
+		registry.get("Jakarta");
+		assertEquals("Both should fit in the budget", 0, registry.getEvictions());
+		registry.get("Blackpool");
+		registry.get("London");
+		assertEquals("Jakarta should have been evicted as the least recently used", 1, registry.getEvictions());
+		assertSame("Blackpool was used recently, so it should be kept", first, registry.get("Blackpool"));
+		assertTrue("Should stay within the budget", registry.getLoadedBytes() <= budget);
+		var loads = registry.getLoads();
+		assertNotSame(null, registry.get("Jakarta"));
+		assertEquals("Evicted cities should be loaded again", loads + 1, registry.getLoads());
+	}
+}
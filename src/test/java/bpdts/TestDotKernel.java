@@ -0,0 +1,174 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the dot product kernels against each other and the way they are
+ * selected. When the tests are run without the vector profile, the vector
+ * kernel is not present, thus the fallback to the scalar kernel is checked.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestDotKernel {
+
+	private static double[][] randomUnitVectors(final Random rnd, final int n) {
+		final var packed = new double[3][n];
+		for (int i = 0; i < n; i++) {
+			final var lat = Math.toRadians(rnd.nextDouble() * 180 - 90);
+			final var lon = Math.toRadians(rnd.nextDouble() * 360 - 180);
+			packed[0][i] = Math.cos(lat) * Math.cos(lon);
+			packed[1][i] = Math.cos(lat) * Math.sin(lon);
+			packed[2][i] = Math.sin(lat);
+		}
+		return packed;
+	}
+
+	/**
+	 * The scalar kernel should find the largest dot product and only look at the
+	 * first n points.
+	 */
+	@Test(timeout = 1000)
+	public void scalarKernel() {
+		final var x = new double[] { 1, 0, 0, -1 };
+		final var y = new double[] { 0, 1, 0, 0 };
+		final var z = new double[] { 0, 0, 1, 0 };
+		assertEquals(1, DotKernel.scalar.maxDot(x, y, z, 4, 0, 0, 1), 0);
+		assertEquals(1, DotKernel.scalar.maxDot(x, y, z, 4, -1, 0, 0), 0);
+		assertEquals("Should ignore the points beyond n", 0, DotKernel.scalar.maxDot(x, y, z, 3, -1, 0, 0), 0);
+		assertEquals("No points should give -1", -1, DotKernel.scalar.maxDot(x, y, z, 0, 1, 0, 0), 0);
+	}
+
+	/**
+	 * Whatever kernel is selected, it should agree with the scalar one on all
+	 * perimeter lengths (including the ones that do not fill whole vectors).
+	 */
+	@Test(timeout = 5000)
+	public void selectedKernelAgreesWithScalar() {
+		final var kernel = DotKernel.select("vector");
+		assertNotNull("Selection should never fail", kernel);
+		final var rnd = new Random(19);
+		for (int n = 0; n < 70; n++) {
+			final var p = randomUnitVectors(rnd, n);
+			final var u = randomUnitVectors(rnd, 10);
+			for (int j = 0; j < 10; j++) {
+				assertEquals(kernel.name() + " should agree with scalar on " + n + " points",
+						DotKernel.scalar.maxDot(p[0], p[1], p[2], n, u[0][j], u[1][j], u[2][j]),
+						kernel.maxDot(p[0], p[1], p[2], n, u[0][j], u[1][j], u[2][j]), 1e-12);
+			}
+		}
+	}
+
+	/**
+	 * The threshold scans should find a point exactly when the largest dot
+	 * product is above the limit, whatever kernel does the scan.
+	 */
+	@Test(timeout = 5000)
+	public void thresholdScansAgreeWithMaxDot() {
+		final var kernel = DotKernel.select("vector");
+		final var rnd = new Random(23);
+		for (int n = 0; n < 70; n++) {
+			final var p = randomUnitVectors(rnd, n);
+			final var u = randomUnitVectors(rnd, 10);
+			for (int j = 0; j < 10; j++) {
+				final var max = DotKernel.scalar.maxDot(p[0], p[1], p[2], n, u[0][j], u[1][j], u[2][j]);
+				for (final var minDot : new double[] { max - 1e-9, max, rnd.nextDouble() * 2 - 1 }) {
+					final var expected = n > 0 && max > minDot;
+					assertEquals("scalar on " + n + " points", expected,
+							DotKernel.scalar.anyDotAbove(p[0], p[1], p[2], n, u[0][j], u[1][j], u[2][j], minDot));
+					assertEquals(kernel.name() + " on " + n + " points", expected,
+							kernel.anyDotAbove(p[0], p[1], p[2], n, u[0][j], u[1][j], u[2][j], minDot));
+				}
+			}
+		}
+		assertTrue("Kernels should scan at least as far as the tree is built from",
+				kernel.scanThreshold() >= City.kdTreeThreshold);
+	}
+
+	/**
+	 * Explicit scalar selection is honoured, unknown names are rejected unless
+	 * they come from the system property.
+	 */
+	@Test(timeout = 1000)
+	public void selection() {
+		assertSame(DotKernel.scalar, DotKernel.select("scalar"));
+		final var vector = DotKernel.vector();
+		if (vector == null) {
+			assertSame("Should fall back to scalar", DotKernel.scalar, DotKernel.select("auto"));
+		} else {
+			assertSame("Auto should prefer the vector kernel", vector.getClass(), DotKernel.select("auto").getClass());
+		}
+		try {
+			DotKernel.select("simd");
+			throw new AssertionError("Unknown kernels should not be selectable");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		final var old = System.getProperty(DotKernel.propertyName);
+		try {
+			System.setProperty(DotKernel.propertyName, "simd");
+			assertNotNull("A typo in the property should not prevent selection", DotKernel.configured());
+			System.setProperty(DotKernel.propertyName, "scalar");
+			assertSame(DotKernel.scalar, DotKernel.configured());
+		} finally {
+			if (old == null) {
+				System.clearProperty(DotKernel.propertyName);
+			} else {
+				System.setProperty(DotKernel.propertyName, old);
+			}
+		}
+	}
+
+	/**
+	 * Switching the kernel at runtime should not change the distances of a city
+	 * with a short perimeter.
+	 */
+	@Test(timeout = 1000)
+	public void switchingKernelsInCities() {
+		final var original = City.getDotKernel();
+		final var rnd = new Random(7);
+		final var coords = new SphericalCoordinates[40];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = new SphericalCoordinates(51 + rnd.nextDouble(), rnd.nextDouble() - 0.5);
+		}
+		final var city = new City("Test", coords);
+		try {
+			City.setDotKernel(DotKernel.scalar);
+			final var scalar = city.distanceOfLocation(48.8, 2.3);
+			City.setDotKernel(DotKernel.select("auto"));
+			assertEquals(scalar, city.distanceOfLocation(48.8, 2.3), 1e-9);
+		} finally {
+			City.setDotKernel(original);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+
+/**
+ * Checks the JDK http client based interface against a local server.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestHttpClientAPI {
+	private static final String users = "[{\"id\":1,\"first_name\":\"Maurise\",\"city\":\"Kax\","
+			+ "\"latitude\":34.003135,\"longitude\":-117.7228641},"
+			+ "{\"id\":2,\"first_name\":\"Bendix\",\"city\":\"London\",\"latitude\":51.5,\"longitude\":-0.12}]";
+	private static final String london = "[{\"id\":2,\"first_name\":\"Bendix\",\"city\":\"London\","
+			+ "\"latitude\":51.5,\"longitude\":-0.12}]";
+	private static final String user = "{\"id\":1,\"first_name\":\"Maurise\",\"city\":\"Kax\","
+			+ "\"latitude\":34.003135,\"longitude\":-117.7228641}";
+
+	private HttpServer server;
+	private final AtomicReference<String> lastEncoding = new AtomicReference<>();
+	private HttpClientAPI client;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange -> {
+			try (exchange) {
+				final var path = exchange.getRequestURI().getPath();
+				final var body = "/users".equals(path) ? users
+						: "/city/London/users".equals(path) ? london : "/user/1".equals(path) ? user : null;
+				if (body == null) {
+					final var missing = "{\"message\":\"Not found\"}".getBytes(StandardCharsets.UTF_8);
+					exchange.sendResponseHeaders(404, missing.length);
+					exchange.getResponseBody().write(missing);
+					return;
+				}
+				var bytes = body.getBytes(StandardCharsets.UTF_8);
+				final var encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				lastEncoding.set(encoding);
+				if (encoding != null && encoding.contains("gzip")) {
+					final var compressed = new ByteArrayOutputStream();
+					try (var gzip = new GZIPOutputStream(compressed)) {
+						gzip.write(bytes);
+					}
+					bytes = compressed.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				exchange.sendResponseHeaders(200, bytes.length);
+				exchange.getResponseBody().write(bytes);
+			}
+		});
+		server.start();
+		client = new HttpClientAPI();
+		client.getApiClient().setBasePath("http://" + server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort());
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	/**
+	 * The compressed responses should be decoded as the generated client would
+	 * decode the plain ones.
+	 */
+	@Test(timeout = 5000)
+	public void compressedQueries() throws ApiException {
+		final var all = client.getUsers();
+		assertEquals("gzip", lastEncoding.get());
+		assertEquals(2, all.size());
+		assertEquals("Maurise", all.get(0).getFirstName());
+		assertEquals(34.003135, LocatedUser.latitudeOf(all.get(0)), 0);
+		assertEquals(1, client.getCityUsers("London").size());
+		assertEquals(Integer.valueOf(1), client.getUser(1).getId());
+		final var streamed = new ArrayList<User>();
+		client.forEachUser(streamed::add);
+		assertEquals(new ArrayList<>(all), streamed);
+	}
+
+	/**
+	 * Plain responses, the concurrent requests and the metrics.
+	 */
+	@Test(timeout = 5000)
+	public void asyncWithMetrics() throws Exception {
+		final var bytes = new LongAdder();
+		final var decoded = new LongAdder();
+		final var plain = new HttpClientAPI(client.getHttpClient(), false, null);
+		plain.getApiClient().setBasePath(client.getApiClient().getBasePath());
+		plain.setMetricsListener(new MetricsListener() {
+			@Override
+			public void responseBytes(final String endpoint, final long count) {
+				bytes.add(count);
+			}
+
+			@Override
+			public void usersDecoded(final long count, final long nanos) {
+				decoded.add(count);
+			}
+		});
+		final var all = plain.getUsersAsync();
+		final var city = plain.getCityUsersAsync("London");
+		assertEquals(2, all.get().size());
+		assertEquals(1, city.get().size());
+		assertEquals(null, lastEncoding.get());
+		assertEquals(users.length() + london.length(), bytes.sum());
+		plain.forEachUser(u -> {
+		});
+		assertEquals(2, decoded.sum());
+	}
+
+	/**
+	 * The errors of the service should be reported the way the generated client
+	 * reports them.
+	 */
+	@Test(timeout = 5000)
+	public void errors() throws InterruptedException {
+		try {
+			client.getUser(42);
+			throw new AssertionError("Missing users should fail");
+		} catch (ApiException e) {
+			assertEquals(404, e.getCode());
+			assertTrue(e.getResponseBody().contains("Not found"));
+		}
+		try {
+			client.getCityUsersAsync("Nowhere").get();
+			throw new AssertionError("Missing cities should fail");
+		} catch (ExecutionException e) {
+			assertEquals(404, ((ApiException) e.getCause()).getCode());
+		}
+	}
+}
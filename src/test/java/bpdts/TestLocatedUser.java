@@ -0,0 +1,158 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+import bpdts.gen.JSON;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Checks if the users decoded with primitive coordinates behave like the ones
+ * decoded by the generated client.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestLocatedUser {
+	private static final String users = "[{\"id\":1,\"first_name\":\"Maurise\",\"last_name\":\"Shieldon\","
+			+ "\"email\":\"mshieldon0@squidoo.com\",\"ip_address\":\"192.57.232.111\",\"latitude\":34.003135,"
+			+ "\"longitude\":-117.7228641,\"city\":\"Kax\"},"
+			+ "{\"id\":2,\"first_name\":\"Bendix\",\"latitude\":\"-6.5115909\",\"longitude\":\"105.652983\","
+			+ "\"unknown\":[1,2]},{\"id\":3,\"latitude\":null}]";
+
+	private static JSON json(final boolean precompute) {
+		final var json = new JSON();
+		LocatedUserAdapter.register(json, precompute);
+		return json;
+	}
+
+	/**
+	 * The decoded values should be the same as with the generated decoder, even
+	 * when coordinates are quoted or missing.
+	 */
+	@Test(timeout = 1000)
+	public void sameAsGenerated() {
+		final UserList located = json(false).getGson().fromJson(users, UserList.class);
+		final UserList plain = new JSON().getGson().fromJson(users, UserList.class);
+		assertEquals(plain.size(), located.size());
+		for (int i = 0; i < plain.size(); i++) {
+			final var l = located.get(i);
+			final var p = plain.get(i);
+			assertTrue("Should be decoded as located users", l instanceof LocatedUser);
+			assertEquals(p.getId(), l.getId());
+			assertEquals(p.getFirstName(), l.getFirstName());
+			assertEquals(p.getCity(), l.getCity());
+			assertEquals(LocatedUser.isLocated(p), LocatedUser.isLocated(l));
+			if (p.getLatitude() == null) {
+				assertNull(l.getLatitude());
+			} else {
+				assertEquals(0, p.getLatitude().compareTo(l.getLatitude()));
+				assertEquals(0, p.getLongitude().compareTo(l.getLongitude()));
+				assertEquals(p.getLatitude().doubleValue(), LocatedUser.latitudeOf(l), 0);
+			}
+		}
+	}
+
+	/**
+	 * Encoding should give back the same json as the generated model's.
+	 */
+	@Test(timeout = 1000)
+	public void roundTrip() {
+		final var gson = json(false).getGson();
+		final UserList located = gson.fromJson(users, UserList.class);
+		final UserList again = gson.fromJson(gson.toJson(located), UserList.class);
+		assertEquals(located, again);
+		final var plainGson = new GsonBuilder().create();
+		final var plain = new ArrayList<User>(new JSON().getGson().fromJson(users, UserList.class));
+		assertEquals(plainGson.toJson(plain), gson.toJson(located));
+	}
+
+	/**
+	 * The precalculated unit vectors should not change the results of the cities,
+	 * and changing the location should invalidate them.
+	 */
+	@Test(timeout = 1000)
+	public void precomputedUnitVectors() throws Exception {
+		final var jakarta = new City(Path.of("src/main/resources/Jakarta.json"));
+		final UserList precomputed = json(true).getGson().fromJson(users, UserList.class);
+		final UserList lazy = json(false).getGson().fromJson(users, UserList.class);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(((LocatedUser) precomputed.get(i)).hasUnitVector());
+			assertEquals(jakarta.distanceOfUser(lazy.get(i)), jakarta.distanceOfUser(precomputed.get(i)), 1e-9);
+			assertEquals(jakarta.isWithin(lazy.get(i), 50), jakarta.isWithin(precomputed.get(i), 50));
+		}
+		final var u = (LocatedUser) precomputed.get(1);
+		u.setLocation(51.5, -0.1);
+		assertTrue("Moving the user should drop the old unit vector", !u.hasUnitVector());
+		assertEquals(51.5, u.getLatitude().doubleValue(), 0);
+	}
+
+	/**
+	 * Located users should be compared by the values of their coordinates, and
+	 * comparing, hashing or printing them should not change them.
+	 */
+	@Test(timeout = 1000)
+	public void equalityWithoutSideEffects() throws Exception {
+		final var view = User.class.getDeclaredField("latitude");
+		view.setAccessible(true);
+		final var a = new LocatedUser();
+		a.setId(1);
+		a.setLocation(51.5, -0.1);
+		final var b = new LocatedUser();
+		b.setId(1);
+		b.setLatitude(new BigDecimal("51.500"));
+		b.setLongitude(new BigDecimal("-0.10"));
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertTrue(a.toString().contains("latitude: 51.5"));
+		assertNull("The BigDecimal view should not be created", view.get(a));
+		b.setLocation(51.6, -0.1);
+		assertFalse(a.equals(b));
+		final var plain = new User();
+		plain.setId(1);
+		assertFalse("Located users are not equal to the generated ones", a.equals(plain));
+	}
+
+	/**
+	 * The helpers should keep the old contract of failing on missing coordinates.
+	 */
+	@Test(timeout = 100, expected = NullPointerException.class)
+	public void missingLocation() {
+		final UserList located = json(false).getGson().fromJson(users, UserList.class);
+		LocatedUser.latitudeOf(located.get(2));
+	}
+}
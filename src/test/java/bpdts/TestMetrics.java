@@ -0,0 +1,143 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import bpdts.gen.ApiException;
+
+/**
+ * Evaluates the histograms and the metrics collected by the API while talking
+ * to a local http server.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestMetrics {
+	private static final String userJson = "["
+			+ "{\"id\": 1, \"first_name\": \"Near\", \"latitude\": 20, \"longitude\": 30.01},"
+			+ "{\"id\": 2, \"first_name\": \"Far\", \"latitude\": -30, \"longitude\": -120},"
+			+ "{\"id\": 3, \"first_name\": \"Other\", \"latitude\": -31, \"longitude\": -120}]";
+	private HttpServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/users", exchange -> {
+			var body = userJson.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	/**
+	 * Checks if the percentiles of the histogram are within its precision.
+	 */
+	@Test(timeout = 1000)
+	public void histogramPrecision() {
+		var histogram = new LogLinearHistogram();
+		var rnd = new Random(21);
+		var values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(rnd.nextDouble() * 30);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (var p : new double[] { 1, 50, 90, 99, 100 }) {
+			var exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+			var approx = histogram.getPercentile(p);
+			assertTrue("Should not underestimate the percentile", approx >= exact);
+			assertTrue("Should be within the precision", approx <= exact + exact / LogLinearHistogram.subBuckets);
+		}
+		assertEquals(values.length, histogram.getCount());
+		histogram.reset();
+		assertEquals(0, histogram.getPercentile(50));
+	}
+
+	/**
+	 * Checks if every bucket's upper bound maps back to the bucket.
+	 */
+	@Test(timeout = 100)
+	public void bucketBounds() {
+		var last = LogLinearHistogram.bucketOf(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, LogLinearHistogram.upperBoundOf(last));
+		for (int b = 0; b < last; b++) {
+			var upper = LogLinearHistogram.upperBoundOf(b);
+			assertEquals(b, LogLinearHistogram.bucketOf(upper));
+			assertEquals(b + 1, LogLinearHistogram.bucketOf(upper + 1));
+		}
+	}
+
+	/**
+	 * Checks if a proximity query reports all its measurements, and that nothing
+	 * is reported once the listener is removed.
+	 * 
+	 * @throws ApiException
+	 */
+	@Test(timeout = 5000)
+	public void queryMetrics() throws ApiException {
+		var bpdtsApi = new BpdtsAPI("http://localhost:" + server.getAddress().getPort());
+		bpdtsApi.setCityToCheckAgainst(
+				new City(TestBpdtsAPI.testCityName, new SphericalCoordinates[] { TestBpdtsAPI.cityLoc }));
+		bpdtsApi.setMaxDistanceInMiles(10);
+		var recorder = new MetricsRecorder();
+		bpdtsApi.setMetricsListener(recorder);
+		bpdtsApi.getUsersNearCity();
+		assertEquals(1, recorder.getLatency("/users").getCount());
+		assertEquals(userJson.getBytes(StandardCharsets.UTF_8).length,
+				recorder.getResponseBytes("/users").getPercentile(100), 16);
+		assertEquals(3, recorder.getUsersDecoded());
+		assertEquals(3, recorder.getPredicateEvaluations(BpdtsAPI.usersNearCityQuery));
+		assertTrue(recorder.getPredicateEvaluationsPerSecond(BpdtsAPI.usersNearCityQuery) > 0);
+		assertEquals(1, recorder.getResultSizes(BpdtsAPI.usersNearCityQuery).getPercentile(100));
+		assertEquals(0, recorder.getErrors("/users"));
+		bpdtsApi.setMetricsListener(null);
+		recorder.reset();
+		bpdtsApi.getUsersNearCity();
+		assertNull("Nothing should be measured without a listener", recorder.getLatency("/users"));
+		assertEquals(0, recorder.getUsersDecoded());
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks if the cities loaded from the binary perimeter files behave the same
+ * way as the ones loaded from json.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestPerimeterFile {
+
+	private static Path tempFile() throws IOException {
+		var file = File.createTempFile("PERIMETER", PerimeterFile.extension);
+		file.deleteOnExit();
+		return file.toPath();
+	}
+
+	/**
+	 * Converts all example cities and compares their answers.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 5000)
+	public void roundTrip() throws IOException {
+		var rnd = new Random(13);
+		for (var name : new String[] { "Blackpool", "CityofLondon", "GreaterLondon", "GreaterManchester",
+				"Jakarta" }) {
+			var json = new City(Path.of("src/main/resources/" + name + ".json"));
+			var file = tempFile();
+			PerimeterFile.write(json, file);
+			var binary = PerimeterFile.read(file);
+			assertEquals(json.name, binary.name);
+			assertTrue("Should have the same perimeter",
+					Arrays.deepEquals(json.packedPerimeter(), binary.packedPerimeter()));
+			assertEquals("The KD-tree should be stored if there was one", json.kdTree() == null,
+					binary.kdTree() == null);
+			if (json.kdTree() != null) {
+				assertTrue(Arrays.equals(json.kdTree().order(), binary.kdTree().order()));
+			}
+			var centre = json.perimeter.get(0);
+			var lat = Math.toDegrees(Math.asin(centre.z / EarthCentredCoordinates.earthRadiusMiles));
+			var lon = Math.toDegrees(Math.atan2(centre.y, centre.x));
+			for (int i = 0; i < 200; i++) {
+				var qLat = lat + rnd.nextGaussian() * 0.3;
+				var qLon = lon + rnd.nextGaussian() * 0.3;
+				assertEquals(json.distanceOfLocation(qLat, qLon), binary.distanceOfLocation(qLat, qLon), 0);
+				assertEquals(json.containsLocation(qLat, qLon), binary.containsLocation(qLat, qLon));
+			}
+		}
+	}
+
+	/**
+	 * Checks if the KD-tree of long perimeters is restored.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 5000)
+	public void withKDTree() throws IOException {
+		var rnd = new Random(17);
+		var coords = new SphericalCoordinates[1000];
+		for (int i = 0; i < coords.length; i++) {
+			var angle = 2 * Math.PI * i / coords.length;
+			coords[i] = new SphericalCoordinates(47 + Math.sin(angle) * (1 + rnd.nextDouble() * 0.1),
+					19 + Math.cos(angle) * (1.5 + rnd.nextDouble() * 0.1));
+		}
+		var city = new City("Ring", coords);
+		var file = tempFile();
+		PerimeterFile.write(city, file);
+		var binary = PerimeterFile.read(file);
+		assertTrue("The KD-tree should be restored as it was",
+				Arrays.equals(city.kdTree().order(), binary.kdTree().order()));
+		for (int i = 0; i < 500; i++) {
+			var lat = 47 + rnd.nextGaussian() * 2;
+			var lon = 19 + rnd.nextGaussian() * 2;
+			assertEquals(city.distanceOfLocation(lat, lon), binary.distanceOfLocation(lat, lon), 0);
+		}
+	}
+
+	/**
+	 * Checks the reaction to files that are not binary perimeters.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 500, expected = IOException.class)
+	public void notBinary() throws IOException {
+		PerimeterFile.read(Path.of("src/main/resources/Blackpool.json"));
+	}
+
+	/**
+	 * Checks the reaction to truncated files.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 500, expected = IOException.class)
+	public void truncated() throws IOException {
+		var file = tempFile();
+		PerimeterFile.write(new City(Path.of("src/main/resources/GreaterLondon.json")), file);
+		var bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+		PerimeterFile.read(file);
+	}
+
+	/**
+	 * Checks if the name of a file with an unknown version is rejected the same
+	 * way as its perimeter would be.
+	 * 
+	 * @throws IOException
+	 */
+	@Test(timeout = 500, expected = IOException.class)
+	public void unsupportedVersion() throws IOException {
+		var file = tempFile();
+		PerimeterFile.write(new City(Path.of("src/main/resources/Blackpool.json")), file);
+		var bytes = Files.readAllBytes(file);
+		// The version follows the 4 byte magic number in little endian
+		bytes[4] = (byte) (PerimeterFile.version + 1);
+		Files.write(file, bytes);
+		PerimeterFile.readName(file);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the KD-tree's answers with the ones of a brute force search over the
+ * same points.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestPerimeterKDTree {
+	private static final int pointCount = 1000;
+	private final Random rnd = new Random(1);
+	private double[] x, y, z;
+	private PerimeterKDTree tree;
+
+	/**
+	 * Generates random unit vectors in a small patch of the globe, similar to how a
+	 * city's perimeter would look like.
+	 */
+	@Before
+	public void init() {
+		x = new double[pointCount];
+		y = new double[pointCount];
+		z = new double[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			var ecc = new EarthCentredCoordinates(
+					new SphericalCoordinates(50 + rnd.nextDouble() * 2, rnd.nextDouble() * 3));
+			x[i] = ecc.x / EarthCentredCoordinates.earthRadiusMiles;
+			y[i] = ecc.y / EarthCentredCoordinates.earthRadiusMiles;
+			z[i] = ecc.z / EarthCentredCoordinates.earthRadiusMiles;
+		}
+		tree = new PerimeterKDTree(x, y, z);
+	}
+
+	private double[] randomQuery() {
+		var ecc = new EarthCentredCoordinates(
+				new SphericalCoordinates(48 + rnd.nextDouble() * 6, rnd.nextDouble() * 6 - 1.5));
+		return new double[] { ecc.x / EarthCentredCoordinates.earthRadiusMiles,
+				ecc.y / EarthCentredCoordinates.earthRadiusMiles, ecc.z / EarthCentredCoordinates.earthRadiusMiles };
+	}
+
+	private double bruteForceBestDot(double[] q) {
+		var best = -1.0;
+		for (int i = 0; i < pointCount; i++) {
+			best = Math.max(best, x[i] * q[0] + y[i] * q[1] + z[i] * q[2]);
+		}
+		return best;
+	}
+
+	/**
+	 * The nearest point should always be the same as the brute force one
+	 */
+	@Test(timeout = 1000)
+	public void nearestMatchesBruteForce() {
+		for (int q = 0; q < 200; q++) {
+			var query = randomQuery();
+			var i = tree.nearest(query[0], query[1], query[2]);
+			assertEquals("KD-tree should find the closest point", bruteForceBestDot(query),
+					x[i] * query[0] + y[i] * query[1] + z[i] * query[2], 0);
+		}
+	}
+
+	/**
+	 * The early exit query should agree with the distance of the closest point
+	 */
+	@Test(timeout = 1000)
+	public void anyWithinMatchesBruteForce() {
+		for (int q = 0; q < 200; q++) {
+			var query = randomQuery();
+			var closest = EarthCentredCoordinates.distanceFromDot(bruteForceBestDot(query));
+			var limit = rnd.nextDouble() * 100;
+			assertEquals("Early exit query should agree with the closest distance", closest < limit,
+					tree.anyWithin(query[0], query[1], query[2], PerimeterKDTree.chordSquaredOf(limit)));
+		}
+	}
+
+	/**
+	 * Empty trees should not find anything
+	 */
+	@Test(timeout = 100)
+	public void emptyTree() {
+		var empty = new PerimeterKDTree(new double[0], new double[0], new double[0]);
+		assertEquals("Empty tree should have no nearest point", -1, empty.nearest(1, 0, 0));
+		assertEquals("Empty tree should have nothing nearby", false, empty.anyWithin(1, 0, 0, 4));
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.JSON;
+import bpdts.gen.model.User;
+
+/**
+ * Evaluates the streaming decoding of user lists, both on its own and through
+ * the default client interface talking to a local http server.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestStreamingUsers {
+	private static final String userJson = "["
+			+ "{\"id\": 1, \"first_name\": \"Near\", \"latitude\": 20, \"longitude\": 30.01},"
+			+ "{\"id\": 2, \"first_name\": \"Far\", \"latitude\": -30, \"longitude\": -120}]";
+	private final Gson gson = new JSON().getGson();
+	private HttpServer server;
+	private int status;
+
+	@Before
+	public void startServer() throws IOException {
+		status = 200;
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/users", exchange -> {
+			var body = userJson.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	/**
+	 * Checks if the reported decoding time leaves out the processing of the
+	 * users.
+	 */
+	@Test(timeout = 1000)
+	public void decodingTimeExcludesAction() throws IOException {
+		var decoded = new long[2];
+		StreamingUserReader.forEachUser(gson, new StringReader(userJson), u -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, new MetricsListener() {
+			@Override
+			public void usersDecoded(long users, long nanos) {
+				decoded[0] = users;
+				decoded[1] = nanos;
+			}
+		});
+		assertEquals(2, decoded[0]);
+		assertTrue("Should not include the time of the action", decoded[1] < 100_000_000L);
+	}
+
+	/**
+	 * Checks if all users are decoded in order
+	 */
+	@Test(timeout = 100)
+	public void decodesAllUsers() throws IOException {
+		var users = new ArrayList<User>();
+		StreamingUserReader.forEachUser(gson, new StringReader(userJson), users::add);
+		assertEquals("Should decode both users", 2, users.size());
+		assertEquals("Should keep the order of the users", "Far", users.get(1).getFirstName());
+	}
+
+	/**
+	 * Checks if malformed input is reported as an io error
+	 */
+	@Test(timeout = 100, expected = IOException.class)
+	public void malformedInput() throws IOException {
+		StreamingUserReader.forEachUser(gson, new StringReader("{\"id\": 1}"), u -> {
+		});
+	}
+
+	/**
+	 * Checks if the BpdtsAPI finds the nearby users when the list is streamed from
+	 * the service
+	 */
+	@Test(timeout = 5000)
+	public void streamedProximityQuery() throws ApiException {
+		var bpdtsApi = new BpdtsAPI("http://localhost:" + server.getAddress().getPort());
+		bpdtsApi.setCityToCheckAgainst(
+				new City(TestBpdtsAPI.testCityName, new SphericalCoordinates[] { TestBpdtsAPI.cityLoc }));
+		bpdtsApi.setMaxDistanceInMiles(10);
+		var near = bpdtsApi.getUsersNearCity();
+		assertEquals("Should only return the nearby user", 1, near.size());
+		assertEquals("Should only return the nearby user", "Near", near.get(0).getFirstName());
+	}
+
+	/**
+	 * The users should only be decoded as located users if the client is asked
+	 * to, as they are not equal to the generated model's users.
+	 */
+	@Test(timeout = 5000)
+	public void locatedUsersOptIn() throws ApiException {
+		for (var located : new boolean[] { false, true }) {
+			var client = new DefaultClientAPI(located, false);
+			client.getApiClient().setBasePath("http://localhost:" + server.getAddress().getPort());
+			var users = new ArrayList<User>();
+			client.forEachUser(users::add);
+			assertEquals(located ? LocatedUser.class : User.class, users.get(0).getClass());
+		}
+	}
+
+	/**
+	 * Checks if the http errors are reported as api exceptions
+	 */
+	@Test(timeout = 5000, expected = ApiException.class)
+	public void httpErrorPropagates() throws ApiException {
+		status = 500;
+		var client = new DefaultClientAPI();
+		client.getApiClient().setBasePath("http://localhost:" + server.getAddress().getPort());
+		client.forEachUser(u -> {
+		});
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import bpdts.demo.LoadGenerator;
+import bpdts.demo.StubUserService;
+import bpdts.gen.ApiClient;
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Runs the API over real HTTP and json against the stub service, and checks the
+ * load generator's measurements.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestStubUserService {
+
+	private static City london() {
+		return new City("London", new SphericalCoordinates[] { new SphericalCoordinates(51.3, -0.5),
+				new SphericalCoordinates(51.7, -0.5), new SphericalCoordinates(51.7, 0.3),
+				new SphericalCoordinates(51.3, 0.3) });
+	}
+
+	private static List<Integer> ids(final List<User> users) {
+		return users.stream().map(User::getId).sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Both http clients should get the same answers through the stub as the API
+	 * gets from the same population without HTTP.
+	 */
+	@Test(timeout = 10000)
+	public void sameAnswersAsInMemory() throws Exception {
+		final var users = StubUserService.generate(3000, 25, 10);
+		final var local = mock(InjectableClientAPI.class);
+		when(local.getApiClient()).thenReturn(new ApiClient());
+		when(local.getUsers()).thenReturn(users);
+		when(local.getCityUsers("London")).thenReturn(StubUserService.generate(3000, 25, 10).stream()
+				.filter(u -> "London".equals(u.getCity())).collect(Collectors.toCollection(UserList::new)));
+		final var expected = new BpdtsAPI(local, "http://localhost");
+		expected.setCityToCheckAgainst(london());
+		expected.setMaxDistanceInMiles(30);
+		try (var stub = new StubUserService(users, Duration.ZERO, Duration.ZERO)) {
+			for (final var client : new InjectableClientAPI[] { new DefaultClientAPI(), new HttpClientAPI() }) {
+				final var api = new BpdtsAPI(client, stub.getBasePath());
+				api.setCityToCheckAgainst(london());
+				api.setMaxDistanceInMiles(30);
+				assertEquals(ids(expected.getUsersOfCity()), ids(api.getUsersOfCity()));
+				assertEquals(ids(expected.getUsersNearCity()), ids(api.getUsersNearCity()));
+				assertTrue(client.getCityUsers("Nowhere").isEmpty());
+				try {
+					((UserLookupClientAPI) client).getUser(-1);
+					throw new AssertionError("Unknown users should not be found");
+				} catch (ApiException e) {
+					assertEquals(404, e.getCode());
+				}
+				assertEquals("First7", ((UserLookupClientAPI) client).getUser(7).getFirstName());
+			}
+		}
+	}
+
+	/**
+	 * The configured latency should show up in the load generator's percentiles.
+	 */
+	@Test(timeout = 10000)
+	public void loadWithLatency() throws Exception {
+		try (var stub = new StubUserService(StubUserService.generate(100, 25, 0), Duration.ofMillis(20),
+				Duration.ofMillis(10))) {
+			final var api = new BpdtsAPI(stub.getBasePath());
+			api.setCityToCheckAgainst(london());
+			api.setMaxDistanceInMiles(30);
+			final var report = new LoadGenerator(api, 4).run(Duration.ofMillis(1000), Duration.ofMillis(1000));
+			assertEquals(0, report.failures);
+			assertTrue("There should have been queries", report.getQueries() > 4);
+			assertTrue("The latency should be included", report.getPercentile(50) >= 20000000);
+			assertTrue(report.getPercentile(50) <= report.getPercentile(99));
+			assertTrue(report.getPercentile(99) <= report.getPercentile(100));
+			assertEquals(report.getQueries() / 1.0, report.getThroughput(), 1e-6);
+			assertTrue("The warmup should not be measured", stub.getRequests() > report.getQueries());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bpdts.gen.model.User;
+
+/**
+ * Compares the answers of the user index with the ones of scanning all users.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestUserCellIndex {
+	private final Random rnd = new Random(23);
+	private ArrayList<User> users;
+	private UserCellIndex index;
+
+	/**
+	 * Half of the users are spread over the globe, the other half is clustered
+	 * around the antimeridian and around Europe.
+	 */
+	@Before
+	public void init() {
+		users = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			double lat, lon;
+			if (i % 2 == 0) {
+				lat = Math.toDegrees(Math.asin(rnd.nextDouble() * 2 - 1));
+				lon = rnd.nextDouble() * 360 - 180;
+			} else {
+				var europe = i % 4 == 1;
+				lat = Math.max(-90, Math.min(90, (europe ? 50 : -15) + rnd.nextGaussian() * 3));
+				lon = (europe ? 5 : 179) + rnd.nextGaussian() * 3;
+				lon = lon > 180 ? lon - 360 : lon;
+			}
+			var u = new User();
+			u.setId(i);
+			u.setLatitude(BigDecimal.valueOf(lat));
+			u.setLongitude(BigDecimal.valueOf(lon));
+			users.add(u);
+		}
+		var unlocated = new User();
+		unlocated.setId(-1);
+		users.add(unlocated);
+		index = new UserCellIndex(users);
+	}
+
+	private void compare(City city, double miles) {
+		var scanned = users.subList(0, users.size() - 1);
+		assertEquals("Index should agree with the scan for " + city.name + " at " + miles + " miles",
+				new CityQuery(city, miles).nearby(scanned), index.usersNear(city, miles));
+	}
+
+	/**
+	 * Checks a city in Europe with several distances, including ones reaching the
+	 * pole and covering the whole globe.
+	 */
+	@Test(timeout = 5000)
+	public void europe() {
+		var city = new City("Europe", new SphericalCoordinates[] { new SphericalCoordinates(49, 4),
+				new SphericalCoordinates(51, 4.5), new SphericalCoordinates(50.5, 6.5) });
+		for (var miles : new double[] { 0, 10, 100, 500, 3000, 20000 }) {
+			compare(city, miles);
+		}
+	}
+
+	/**
+	 * Checks a city crossing the antimeridian.
+	 */
+	@Test(timeout = 5000)
+	public void antimeridian() {
+		var city = new City("Fiji", new SphericalCoordinates[] { new SphericalCoordinates(-16, 178.5),
+				new SphericalCoordinates(-15, -179), new SphericalCoordinates(-17.5, -178.5) });
+		for (var miles : new double[] { 0, 20, 200, 1500 }) {
+			compare(city, miles);
+		}
+	}
+
+	/**
+	 * Checks random small cities.
+	 */
+	@Test(timeout = 5000)
+	public void randomCities() {
+		for (int i = 0; i < 30; i++) {
+			var lat = rnd.nextDouble() * 160 - 80;
+			var lon = rnd.nextDouble() * 360 - 180;
+			var city = new City("Random" + i, new SphericalCoordinates[] { new SphericalCoordinates(lat, lon),
+					new SphericalCoordinates(lat + 0.5, Math.min(180, lon + 0.5)) });
+			compare(city, rnd.nextDouble() * 300);
+		}
+		assertEquals(1, index.getUnlocatedCount());
+		assertEquals(users.size() - 1, index.size());
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import bpdts.gen.model.User;
+
+/**
+ * Checks if the user id set behaves like the id ordered set it
+ * replaced.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestUserIdSet {
+
+	private static User user(int id, String city) {
+		var u = new User();
+		u.setId(id);
+		u.setCity(city);
+		u.setLatitude(BigDecimal.valueOf(id % 90));
+		u.setLongitude(BigDecimal.valueOf(-(id % 180)));
+		return u;
+	}
+
+	/**
+	 * Compares the container with a tree set on random ids with many duplicates,
+	 * including negative ones.
+	 */
+	@Test(timeout = 1000)
+	public void sameAsTreeSet() {
+		var rnd = new Random(5);
+		var users = new UserIdSet();
+		var reference = new TreeSet<User>(Comparator.comparing(User::getId));
+		for (int i = 0; i < 20000; i++) {
+			var u = user(rnd.nextInt(10000) - 5000, "City" + rnd.nextInt(3));
+			assertEquals("Both should agree if the user is new", reference.add(u), users.add(u));
+		}
+		assertEquals("Should have the same amount of users", reference.size(), users.size());
+		assertEquals("Should list the same users in the same order", new ArrayList<>(reference), users.toList());
+	}
+
+	/**
+	 * Checks the details of the stored users.
+	 */
+	@Test(timeout = 100)
+	public void details() {
+		var users = new UserIdSet();
+		users.add(user(7, "London"));
+		users.add(user(3, null));
+		users.add(user(8, "London"));
+		assertTrue("The first user should have been kept", !users.add(user(7, "Paris")));
+		assertEquals(3, users.size());
+		assertEquals(7, users.getId(0));
+		assertEquals("London", users.getUser(0).getCity());
+		assertEquals(8, users.getId(2));
+		assertTrue(users.contains(3));
+		assertTrue(!users.contains(4));
+		assertEquals(3, (int) users.toList().get(0).getId());
+	}
+
+	/**
+	 * Users without an id cannot be ordered, just like with the set.
+	 */
+	@Test(timeout = 100, expected = NullPointerException.class)
+	public void missingId() {
+		new UserIdSet().add(new User());
+	}
+
+	/**
+	 * The output should not allow changes
+	 */
+	@Test(timeout = 100, expected = UnsupportedOperationException.class)
+	public void unmodifiableOutput() {
+		var users = new UserIdSet();
+		users.add(user(1, null));
+		users.toList().set(0, user(2, null));
+	}
+}
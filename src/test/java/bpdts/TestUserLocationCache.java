@@ -0,0 +1,140 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bpdts.gen.model.User;
+
+/**
+ * Checks if the location cache reuses the vectors of the users who did not
+ * move and if its vectors give the same results as the uncached calculations.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestUserLocationCache {
+
+	private static User user(final int id, final double lat, final double lon) {
+		final var u = new User();
+		u.setId(id);
+		u.setLatitude(BigDecimal.valueOf(lat));
+		u.setLongitude(BigDecimal.valueOf(lon));
+		return u;
+	}
+
+	private static List<User> snapshot(final long seed, final int count) {
+		final var rnd = new Random(seed);
+		final var users = new ArrayList<User>();
+		for (int i = 0; i < count; i++) {
+			users.add(user(i, rnd.nextDouble() * 180 - 90, rnd.nextDouble() * 360 - 180));
+		}
+		return users;
+	}
+
+	/**
+	 * Only the new and the moved users should need trigonometry in the next
+	 * snapshot.
+	 */
+	@Test(timeout = 5000)
+	public void reuseBetweenSnapshots() {
+		for (final var count : new int[] { 100, City.parallelBatchThreshold * 3 }) {
+			final var users = snapshot(22, count);
+			final var first = new UserLocationCache();
+			first.addAll(users);
+			first.complete();
+			assertEquals(count, first.size());
+			assertEquals(count, first.getComputed());
+			users.set(5, user(5, 10, 10));
+			users.add(user(count, 20, 20));
+			final var second = new UserLocationCache(first);
+			second.addAll(users);
+			assertEquals("Only the moved and the new user should be calculated", 2, second.getComputed());
+			assertEquals(count + 1, second.size());
+			assertEquals("The old entry should not match the moved user", -1, first.indexOf(users.get(5)));
+			for (final var u : users) {
+				final var entry = second.indexOf(u);
+				final var expected = new EarthCentredCoordinates(new SphericalCoordinates(u));
+				final var r = EarthCentredCoordinates.earthRadiusMiles;
+				assertEquals(expected.x / r, second.getX(entry), 1e-12);
+				assertEquals(expected.y / r, second.getY(entry), 1e-12);
+				assertEquals(expected.z / r, second.getZ(entry), 1e-12);
+			}
+		}
+	}
+
+	/**
+	 * Only the users passing the filter should get entries, and the vectors the
+	 * users already carry should be copied.
+	 */
+	@Test(timeout = 5000)
+	public void filteredAndPrecomputed() {
+		for (final var count : new int[] { 100, City.parallelBatchThreshold * 3 }) {
+			final var users = snapshot(5, count);
+			final var cache = new UserLocationCache();
+			cache.addAll(users, u -> u.getLatitude().doubleValue() > 0);
+			final var north = users.stream().filter(u -> u.getLatitude().doubleValue() > 0).count();
+			assertEquals(north, cache.size());
+			assertEquals(north, cache.getComputed());
+			final var located = new LocatedUser();
+			located.setId(count);
+			located.setLocation(10, 20);
+			located.precomputeUnitVector();
+			final var entry = cache.add(located);
+			assertEquals("The carried vector should not be recalculated", north, cache.getComputed());
+			assertEquals(located.unitX(), cache.getX(entry), 0);
+			assertEquals(located.unitZ(), cache.getZ(entry), 0);
+		}
+	}
+
+	/**
+	 * Users without a location are not cached, the others give the same results
+	 * in the cities as without the cache.
+	 */
+	@Test(timeout = 5000)
+	public void sameResultsAsUncached() {
+		final var cache = new UserLocationCache();
+		final var unlocated = new User();
+		unlocated.setId(-1);
+		assertEquals(-1, cache.add(unlocated));
+		final var city = new City("Test", new SphericalCoordinates[] { new SphericalCoordinates(0, 0),
+				new SphericalCoordinates(0, 0.5), new SphericalCoordinates(0.5, 0.5), new SphericalCoordinates(0.5, 0) });
+		for (final var u : snapshot(3, 2000)) {
+			final var entry = cache.add(u);
+			assertTrue(entry >= 0);
+			assertEquals(city.distanceOfUser(u), city.distanceOfUser(cache, entry), 1e-9);
+			for (final var miles : new double[] { 0, 100, 1000, 5000 }) {
+				assertEquals(city.isWithin(u, miles), city.isWithin(cache, entry, miles));
+			}
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import bpdts.gen.ApiException;
+import bpdts.gen.model.User;
+import bpdts.gen.model.UserList;
+
+/**
+ * Checks the binary user snapshots and the warm restarts based on them.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class TestUserSnapshot {
+
+	private static Path tempFile() throws IOException {
+		var file = File.createTempFile("USERS", UserSnapshotFile.extension);
+		file.deleteOnExit();
+		return file.toPath();
+	}
+
+	private static User user(int id, String city, Double lat, Double lon) {
+		var u = new User();
+		u.setId(id);
+		u.setFirstName("First" + id);
+		u.setLastName("Last" + id);
+		u.setEmail(id % 3 == 0 ? null : "user" + id + "@example.com");
+		u.setIpAddress("10.0.0." + id);
+		u.setCity(city);
+		u.setLatitude(lat == null ? null : BigDecimal.valueOf(lat));
+		u.setLongitude(lon == null ? null : BigDecimal.valueOf(lon));
+		return u;
+	}
+
+	private static UserList users() {
+		var users = new UserList();
+		users.add(user(1, "London", 51.5, -0.12));
+		users.add(user(2, "Krak\u00f3w", 50.06, 19.94));
+		users.add(user(3, null, null, null));
+		users.add(user(4, "London", -6.5115909, 105.652983));
+		return users;
+	}
+
+	/**
+	 * All details of the users should survive the round trip.
+	 */
+	@Test(timeout = 1000)
+	public void roundTrip() throws IOException {
+		var file = tempFile();
+		var users = users();
+		UserSnapshotFile.write(users, file);
+		var loaded = UserSnapshotFile.read(file);
+		assertEquals(users.size(), loaded.size());
+		for (int i = 0; i < users.size(); i++) {
+			var expected = users.get(i);
+			var actual = loaded.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getFirstName(), actual.getFirstName());
+			assertEquals(expected.getLastName(), actual.getLastName());
+			assertEquals(expected.getEmail(), actual.getEmail());
+			assertEquals(expected.getIpAddress(), actual.getIpAddress());
+			assertEquals(expected.getCity(), actual.getCity());
+			assertEquals(expected.getLatitude(), actual.getLatitude());
+			assertEquals(expected.getLongitude(), actual.getLongitude());
+		}
+	}
+
+	/**
+	 * Damaged files should be reported, not loaded.
+	 */
+	@Test(timeout = 1000)
+	public void truncated() throws IOException {
+		var file = tempFile();
+		UserSnapshotFile.write(users(), file);
+		var bytes = Files.readAllBytes(file);
+		for (var length : new int[] { 3, 20, bytes.length - 1 }) {
+			var damaged = tempFile();
+			Files.write(damaged, Arrays.copyOf(bytes, length));
+			try {
+				UserSnapshotFile.read(damaged);
+				throw new AssertionError("Should not load a truncated file of " + length + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Without a snapshot, the first query fetches the list, which is then stored.
+	 * A restarted client serves the stored list without waiting for the service,
+	 * and refreshes it in the background.
+	 */
+	@Test(timeout = 5000)
+	public void warmRestart() throws Exception {
+		var file = tempFile();
+		Files.delete(file);
+		var delegate = mock(InjectableClientAPI.class);
+		var original = users();
+		when(delegate.getUsers()).thenReturn(original);
+		try (var cold = new SnapshotClientAPI(delegate, file, null)) {
+			assertEquals(-1, cold.getSnapshotTime());
+			assertSame(original, cold.getUsers());
+			assertTrue("The snapshot should be stored", Files.exists(file));
+		}
+		var updated = users();
+		updated.add(user(5, "Leeds", 53.8, -1.55));
+		var refreshing = mock(InjectableClientAPI.class);
+		when(refreshing.getUsers()).thenReturn(updated);
+		try (var warm = new SnapshotClientAPI(refreshing, file, null)) {
+			// Either the stored or the refreshed list is served
+			assertEquals(2, warm.getUsers().stream().filter(u -> "London".equals(u.getCity())).count());
+			while (warm.getUsers() != updated) {
+				Thread.sleep(10);
+			}
+			assertNull(warm.getLastRefreshFailure());
+			verify(refreshing, times(1)).getUsers();
+		}
+		assertEquals("The refreshed list should be stored", updated.size(), UserSnapshotFile.read(file).size());
+	}
+
+	/**
+	 * The city lists should come from the service, even if they do not match the
+	 * city field of the users in the snapshot. Once requested, they should be
+	 * stored with the snapshot and served from it after a restart.
+	 */
+	@Test(timeout = 5000)
+	public void cityListings() throws Exception {
+		var file = tempFile();
+		UserSnapshotFile.write(users(), file);
+		var delegate = mock(InjectableClientAPI.class);
+		when(delegate.getUsers()).thenReturn(users());
+		var listed = new UserList();
+		listed.add(user(2, "Krak\u00f3w", 50.06, 19.94));
+		when(delegate.getCityUsers("London")).thenReturn(listed);
+		try (var warm = new SnapshotClientAPI(delegate, file, null)) {
+			assertSame(listed, warm.getCityUsers("London"));
+			var stored = new HashMap<String, UserList>();
+			while (!stored.containsKey("London")) {
+				Thread.sleep(10);
+				stored.clear();
+				UserSnapshotFile.read(file, stored);
+			}
+			assertEquals(Integer.valueOf(2), stored.get("London").get(0).getId());
+		}
+		var offline = mock(InjectableClientAPI.class);
+		when(offline.getUsers()).thenThrow(new ApiException(503, "Unavailable"));
+		when(offline.getCityUsers(anyString())).thenThrow(new ApiException(503, "Unavailable"));
+		try (var restarted = new SnapshotClientAPI(offline, file, null)) {
+			var served = restarted.getCityUsers("London");
+			assertEquals(1, served.size());
+			assertEquals(Integer.valueOf(2), served.get(0).getId());
+		}
+	}
+
+	/**
+	 * An explicit refresh during a slow background one should not fetch the list
+	 * again, and the snapshot should be served in the meantime.
+	 */
+	@Test(timeout = 5000)
+	public void concurrentRefreshes() throws Exception {
+		var file = tempFile();
+		UserSnapshotFile.write(users(), file);
+		var gate = new CountDownLatch(1);
+		var updated = users();
+		var slow = mock(InjectableClientAPI.class);
+		when(slow.getUsers()).thenAnswer(i -> {
+			gate.await();
+			return updated;
+		});
+		try (var warm = new SnapshotClientAPI(slow, file, null)) {
+			verify(slow, timeout(1000)).getUsers();
+			assertEquals(4, warm.getUsers().size());
+			var failure = new ApiException[1];
+			var explicit = new Thread(() -> {
+				try {
+					warm.refreshNow();
+				} catch (ApiException e) {
+					failure[0] = e;
+				}
+			});
+			explicit.start();
+			// Gives time for the explicit refresh to join the one in flight
+			Thread.sleep(50);
+			gate.countDown();
+			explicit.join();
+			assertNull(failure[0]);
+			assertSame(updated, warm.getUsers());
+			verify(slow, times(1)).getUsers();
+		}
+	}
+
+	/**
+	 * Damaged counts should be reported as IOExceptions instead of failing the
+	 * allocations.
+	 */
+	@Test(timeout = 1000)
+	public void corruptDictionary() throws IOException {
+		var file = tempFile();
+		UserSnapshotFile.write(users(), file);
+		var bytes = Files.readAllBytes(file);
+		// After the header, the user count and the id and coordinate columns
+		var dictionaryAt = 8 + 4 + 4 * 20;
+		for (var count : new int[] { -5, Integer.MAX_VALUE }) {
+			var damaged = tempFile();
+			var copy = bytes.clone();
+			ByteBuffer.wrap(copy, dictionaryAt, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(count);
+			Files.write(damaged, copy);
+			try {
+				UserSnapshotFile.read(damaged);
+				throw new AssertionError("Should not load a dictionary of " + count + " entries");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Failed refreshes should leave the stored snapshot in service.
+	 */
+	@Test(timeout = 5000)
+	public void failedRefresh() throws Exception {
+		var file = tempFile();
+		UserSnapshotFile.write(users(), file);
+		var failing = mock(InjectableClientAPI.class);
+		when(failing.getUsers()).thenThrow(new ApiException(503, "Unavailable"));
+		try (var warm = new SnapshotClientAPI(failing, file, null)) {
+			while (warm.getLastRefreshFailure() == null) {
+				Thread.sleep(10);
+			}
+			assertEquals(4, warm.getUsers().size());
+			try {
+				warm.refreshNow();
+				throw new AssertionError("Explicit refreshes should report the failure");
+			} catch (ApiException e) {
+				assertEquals(503, e.getCode());
+			}
+			assertEquals(4, warm.getUsers().size());
+		}
+		var unused = mock(InjectableClientAPI.class);
+		try {
+			// An empty file is not a snapshot, so the constructor should fail
+			new SnapshotClientAPI(unused, tempFile(), null).close();
+			throw new AssertionError("Empty files should not be loaded");
+		} catch (IOException e) {
+			verify(unused, never()).getUsers();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ *  ========================================================================
+ *  BPDTS
+ *  ========================================================================
+ *  
+ *  This file is part of BPDTS.
+ *  
+ *  BPDTS is free software: you can redistribute it and/or modify it under
+ *  the terms of the GNU General Public License as published by the Free
+ *  Software Foundation, either version 3 of the License, or (at your option)
+ *  any later version.
+ *  
+ *  BPDTS is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ *  FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ *  details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with BPDTS.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ *  (C) Copyright 2021, Gabor Kecskemeti (kecskemeti@iit.uni-miskolc.hu)
+ */
+
+package bpdts;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The dot product kernel implemented with the incubating JDK Vector API. It
+ * processes as many perimeter points at once as the preferred vector shape of
+ * the CPU allows and keeps a lane-wise running maximum, which is only reduced
+ * to a single value at the very end. This class is only compiled with the
+ * vector profile and is loaded reflectively by {@link DotKernel#vector()}.
+ * 
+ * @author Gabor Kecskemeti
+ *
+ */
+public class VectorDotKernel implements DotKernel {
+	private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+	// Measured with DotKernelBenchmark (AVX-512): the nearest point scans beat
+	// the tree up to about 8 times the scalar threshold, the threshold scans only
+	// up to about 2 times, so the cutoff is set between the two
+	private static final int scanThreshold = DotKernel.scalarScanThreshold * species.length() / 2;
+
+	@Override
+	public double maxDot(final double[] x, final double[] y, final double[] z, final int n, final double ux,
+			final double uy, final double uz) {
+		var best = -1.0;
+		final var upper = species.loopBound(n);
+		var i = 0;
+		if (upper > 0) {
+			final var vux = DoubleVector.broadcast(species, ux);
+			final var vuy = DoubleVector.broadcast(species, uy);
+			final var vuz = DoubleVector.broadcast(species, uz);
+			var vbest = DoubleVector.broadcast(species, -1.0);
+			for (; i < upper; i += species.length()) {
+				final var dot = DoubleVector.fromArray(species, x, i).mul(vux)
+						.add(DoubleVector.fromArray(species, y, i).mul(vuy))
+						.add(DoubleVector.fromArray(species, z, i).mul(vuz));
+				vbest = vbest.max(dot);
+			}
+			best = vbest.reduceLanes(VectorOperators.MAX);
+		}
+		for (; i < n; i++) {
+			final var dot = x[i] * ux + y[i] * uy + z[i] * uz;
+			if (dot > best) {
+				best = dot;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public boolean anyDotAbove(final double[] x, final double[] y, final double[] z, final int n, final double ux,
+			final double uy, final double uz, final double minDot) {
+		final var upper = species.loopBound(n);
+		var i = 0;
+		if (upper > 0) {
+			final var vux = DoubleVector.broadcast(species, ux);
+			final var vuy = DoubleVector.broadcast(species, uy);
+			final var vuz = DoubleVector.broadcast(species, uz);
+			for (; i < upper; i += species.length()) {
+				final var dot = DoubleVector.fromArray(species, x, i).mul(vux)
+						.add(DoubleVector.fromArray(species, y, i).mul(vuy))
+						.add(DoubleVector.fromArray(species, z, i).mul(vuz));
+				if (dot.compare(VectorOperators.GT, minDot).anyTrue()) {
+					return true;
+				}
+			}
+		}
+		for (; i < n; i++) {
+			if (x[i] * ux + y[i] * uy + z[i] * uz > minDot) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int scanThreshold() {
+		return scanThreshold;
+	}
+
+	@Override
+	public String name() {
+		return "vector";
+	}
+}